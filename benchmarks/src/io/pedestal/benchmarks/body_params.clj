@@ -0,0 +1,38 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.body-params
+  "Benchmarks for parsing request bodies with the body-params interceptor."
+  (:require [io.pedestal.http.body-params :as body-params])
+  (:import (java.io ByteArrayInputStream)
+           (java.nio.charset StandardCharsets)))
+
+(def ^:private sample-bodies
+  {"application/json"                  "{\"name\":\"Pedestal\",\"tags\":[\"http\",\"clojure\"],\"version\":{\"major\":0,\"minor\":8},\"active\":true}"
+   "application/edn"                   "{:name \"Pedestal\" :tags [\"http\" \"clojure\"] :version {:major 0 :minor 8} :active true}"
+   "application/x-www-form-urlencoded" "name=Pedestal&tags=http&tags=clojure&major=0&minor=8&active=true"})
+
+(defn sample-body
+  "State: the request body (as bytes) for the content type."
+  ^bytes [content-type]
+  (.getBytes ^String (get sample-bodies content-type) StandardCharsets/UTF_8))
+
+(defn enter-fn
+  "State: the :enter function of the default body-params interceptor."
+  []
+  (:enter (body-params/body-params)))
+
+(defn parse
+  [enter-fn content-type ^bytes body]
+  (enter-fn {:request {:headers        {"content-type" content-type}
+                       :content-type   content-type
+                       :content-length (alength body)
+                       :body           (ByteArrayInputStream. body)}}))
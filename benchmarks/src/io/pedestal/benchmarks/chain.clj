@@ -0,0 +1,48 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.chain
+  "Benchmarks for execution of the interceptor chain."
+  (:require [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]))
+
+(defn- pass-through
+  [n]
+  (interceptor {:name  (keyword "pass-through" (str n))
+                :enter identity
+                :leave identity}))
+
+(defn interceptors
+  "State: a vector of interceptors that do nothing."
+  [length]
+  (mapv pass-through (range length)))
+
+(defn compiled-interceptors
+  "State: the same interceptors, compiled with compile-chain."
+  [length]
+  (chain/compile-chain (interceptors length)))
+
+(defn- failing
+  [length]
+  (conj (interceptors length)
+        (interceptor {:name  ::fail
+                      :enter (fn [_] (throw (ex-info "Failure" {})))})))
+
+(defn error-interceptors
+  "State: interceptors, the first of which handles the exception thrown by the last."
+  [length]
+  (into [(interceptor {:name  ::handle-error
+                       :error (fn [context _] (assoc context :response {:status 500}))})]
+        (failing length)))
+
+(defn execute
+  [interceptors]
+  (chain/execute {:request {:request-method :get}} interceptors))
@@ -0,0 +1,76 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.compare
+  "Compares two JSON result files written by io.pedestal.benchmarks.main, to identify
+  regressions in throughput or allocation."
+  (:require [charred.api :as json]
+            [clojure.string :as string]))
+
+(def ^:private threshold
+  "Relative change, in percent, that is considered significant."
+  5.0)
+
+(defn- score-value
+  [score]
+  (if (sequential? score)
+    (first score)
+    score))
+
+(defn- allocation
+  "Extracts the normalized allocation (bytes per operation) from the gc profiler's secondary results."
+  [result]
+  (some (fn [[k v]]
+          (when (string/ends-with? k "gc.alloc.rate.norm")
+            (score-value (get v "score"))))
+        (get result "secondary")))
+
+(defn- read-results
+  [path]
+  (->> (json/read-json (slurp path))
+       (reduce (fn [m result]
+                 (assoc m [(get result "name") (get result "params")] result))
+               {})))
+
+(defn- percent-change
+  [old-value new-value]
+  (when (and (number? old-value) (number? new-value) (not (zero? old-value)))
+    (* 100.0 (/ (- new-value old-value) old-value))))
+
+(defn- format-change
+  [change higher-is-better?]
+  (if-not change
+    "-"
+    (let [regression? (if higher-is-better?
+                        (< change (- threshold))
+                        (> change threshold))]
+      (format "%+7.1f%%%s" change (if regression? " REGRESSION" "")))))
+
+(defn -main
+  "Prints a comparison of the benchmarks in two result files: the throughput change, and
+  the change in bytes allocated per operation."
+  [old-path new-path]
+  (let [old-results (read-results old-path)
+        new-results (read-results new-path)]
+    (doseq [[k new-result] (sort-by (comp str key) new-results)
+            :let [[bench-name params] k
+                  old-result (get old-results k)]
+            :when old-result]
+      (printf "%-40s %-50s throughput %s  allocation %s%n"
+              bench-name
+              (pr-str params)
+              (format-change (percent-change (score-value (get old-result "score"))
+                                             (score-value (get new-result "score")))
+                             true)
+              (format-change (percent-change (allocation old-result)
+                                             (allocation new-result))
+                             false)))
+    (flush)))
@@ -0,0 +1,41 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.content-negotiation
+  "Benchmarks for content negotiation, with and without the cache of negotiated results."
+  (:require [io.pedestal.http.content-negotiation :as cn]))
+
+(def ^:private supported-types
+  ["application/json" "application/edn" "application/transit+json" "text/html" "text/plain"])
+
+(defn enter-fn
+  "State: the :enter function of a negotiate-content interceptor, with or without caching."
+  [cached?]
+  (:enter (cn/negotiate-content supported-types {:cache-size (if cached? 256 0)})))
+
+(defn requests
+  "State: requests with a variety of typical Accept headers."
+  []
+  (mapv (fn [accept]
+          {:request {:headers {"accept" accept}}})
+        ["application/json"
+         "*/*"
+         "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8"
+         "application/edn, application/json;q=0.5"
+         "text/plain; charset=utf-8"
+         "application/transit+json;q=1.0, application/json;q=0.9, */*;q=0.1"]))
+
+(defn negotiate
+  [enter-fn requests]
+  (reduce (fn [_ context]
+            (enter-fn context))
+          nil
+          requests))
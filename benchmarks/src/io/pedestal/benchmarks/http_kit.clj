@@ -0,0 +1,68 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.http-kit
+  "Benchmarks for the Http-Kit connector: requests processed by the connector's root handler,
+  via the connector's test-request method (no network I/O)."
+  (:require [clojure.core.async :refer [go]]
+            [io.pedestal.connector :as conn]
+            [io.pedestal.http.http-kit :as hk]
+            [io.pedestal.service.protocols :as p]))
+
+(defn- hello
+  [_request]
+  {:status  200
+   :headers {"Content-Type" "text/plain"}
+   :body    "Hello, benchmark"})
+
+(def ^:private async-hello
+  {:name  ::async-hello
+   :enter (fn [context]
+            (go
+              (assoc context :response (hello (:request context)))))})
+
+(defn connector
+  "State: an Http-Kit connector (not started) for a small application."
+  []
+  (-> (conn/default-connector-map 8080)
+      (conn/with-default-interceptors)
+      (conn/with-routes
+        #{["/hello" :get hello :route-name ::hello]
+          ["/async/hello" :get async-hello :route-name ::async-hello]})
+      (hk/create-connector nil)))
+
+(defn- request
+  [uri headers]
+  {:request-method :get
+   :scheme         :http
+   :server-name    "localhost"
+   :server-port    8080
+   :uri            uri
+   :headers        headers
+   :body           nil})
+
+(def ^:private get-hello (request "/hello" {"accept" "text/plain"}))
+
+(def ^:private get-hello-multi-valued (request "/hello" {"accept" "text/plain\napplication/json"}))
+
+(def ^:private get-async-hello (request "/async/hello" {"accept" "text/plain"}))
+
+(defn get-request
+  [connector]
+  (:status (p/test-request connector get-hello)))
+
+(defn get-multi-valued-request
+  [connector]
+  (:status (p/test-request connector get-hello-multi-valued)))
+
+(defn get-async-request
+  [connector]
+  (:status (p/test-request connector get-async-hello)))
@@ -0,0 +1,55 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.main
+  "Runs the JMH benchmarks defined in benchmarks.edn, writing the results (including
+  allocation rates from the JMH gc profiler) to a JSON file."
+  (:require [charred.api :as json]
+            [clojure.edn :as edn]
+            [clojure.java.io :as io]
+            [clojure.string :as string]
+            [clojure.walk :as walk]
+            [jmh.core :as jmh]))
+
+(defn- read-env
+  []
+  (-> "benchmarks.edn" io/resource slurp edn/read-string))
+
+(defn- pedestal-version
+  []
+  (-> "../VERSION.txt" slurp string/trim))
+
+(defn- ->json-compatible
+  "Converts keywords and symbols (which are common in JMH results) to strings."
+  [results]
+  (walk/postwalk (fn [v]
+                   (cond
+                     (keyword? v) (subs (str v) 1)
+                     (symbol? v) (str v)
+                     :else v))
+                 results))
+
+(defn -main
+  "Runs the benchmarks; arguments are tags (such as :routers) used to select a subset of benchmarks.
+
+  Results are written to target/jmh-<version>.json."
+  [& args]
+  (let [selectors (mapv #(keyword (string/replace % #"^:" "")) args)
+        options   (cond-> {:profilers ["gc"]
+                           :status    true}
+                    (seq selectors) (assoc :select selectors))
+        results   (jmh/run (read-env) options)
+        output    (io/file "target" (str "jmh-" (pedestal-version) ".json"))]
+    (io/make-parents output)
+    (with-open [w (io/writer output)]
+      (json/write-json w (->json-compatible results)))
+    (println "Wrote" (count results) "results to" (str output))
+    (shutdown-agents)))
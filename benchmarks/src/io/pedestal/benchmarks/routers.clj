@@ -0,0 +1,68 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.routers
+  "Benchmarks for each of the router implementations."
+  (:require [io.pedestal.http.route :as route]))
+
+(defn- handler [_request] {:status 200})
+
+(def ^:private route-spec
+  #{["/" :get handler :route-name ::root]
+    ["/about" :get handler :route-name ::about]
+    ["/api/status" :get handler :route-name ::status]
+    ["/api/users" :get handler :route-name ::users]
+    ["/api/users" :post handler :route-name ::create-user]
+    ["/api/users/:id" :get handler :route-name ::user]
+    ["/api/users/:id" :put handler :route-name ::update-user]
+    ["/api/users/:id/orders" :get handler :route-name ::user-orders]
+    ["/api/users/:id/orders/:order-id" :get handler :route-name ::user-order]
+    ["/api/products" :get handler :route-name ::products]
+    ["/api/products/:sku/reviews" :get handler :route-name ::reviews]
+    ["/api/org/:org/team/:team/project/:project" :get handler :route-name ::project]
+    ["/assets/*path" :get handler :route-name ::assets]})
+
+(defn router
+  "State: a router function of the given type (a key of io.pedestal.http.route/router-implementations)."
+  [router-type]
+  (let [router-ctor (get route/router-implementations router-type)]
+    (router-ctor (route/expand-routes route-spec))))
+
+(defn- request
+  [method path]
+  {:request-method method
+   :path-info      path
+   :scheme         :http
+   :server-name    "localhost"
+   :server-port    8080})
+
+(defn requests
+  "State: a mix of requests for literal, parameterized, and wildcard paths, and for unmatched paths."
+  []
+  [(request :get "/")
+   (request :get "/about")
+   (request :get "/api/users")
+   (request :post "/api/users")
+   (request :get "/api/users/1234")
+   (request :get "/api/users/1234/orders/9876")
+   (request :get "/api/products/abc-123/reviews")
+   (request :get "/api/org/acme/team/core/project/site")
+   (request :get "/assets/css/site.css")
+   (request :get "/api/missing")])
+
+(defn route-all
+  [router-fn requests]
+  (reduce (fn [n request]
+            (if (router-fn request)
+              (inc n)
+              n))
+          0
+          requests))
@@ -0,0 +1,103 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.servlet
+  "Benchmarks for the servlet bridge: a request processed by the ConnectorServlet, using the mock
+  servlet request and response."
+  (:require [io.pedestal.connector :as conn]
+            [io.pedestal.connector.servlet :as connector.servlet]
+            [io.pedestal.http.body-params :refer [body-params]])
+  (:import (io.pedestal.servlet ConnectorServlet)
+           (io.pedestal.servlet.mock MockState)
+           (java.io ByteArrayInputStream InputStream)
+           (java.util Collections HashMap Map)
+           (jakarta.servlet ServletConfig)))
+
+(defn- hello
+  [_request]
+  {:status  200
+   :headers {"Content-Type" "text/plain"}
+   :body    "Hello, benchmark"})
+
+(defn- echo
+  [request]
+  {:status 200
+   :body   (:json-params request)})
+
+(defn- connector-map
+  []
+  (-> (conn/default-connector-map 8080)
+      (conn/with-default-interceptors)
+      (conn/with-routes
+        #{["/hello" :get hello :route-name ::hello]
+          ["/echo" :post [(body-params) echo] :route-name ::echo]})))
+
+(def ^:private *lazy-request-map? (atom false))
+
+(defn create-bridge
+  "Invoked by the ConnectorServlet, to create the ConnectorBridge."
+  [servlet]
+  (let [lazy-request-map? @*lazy-request-map?]
+    (connector.servlet/create-bridge servlet
+                                     (connector-map)
+                                     {:lazy-request-map? lazy-request-map?})))
+
+(defn connector-servlet
+  "State: an initialized ConnectorServlet, with a bridge to a small application."
+  [lazy-request-map?]
+  (reset! *lazy-request-map? lazy-request-map?)
+  (doto (ConnectorServlet.)
+    (.init (reify ServletConfig
+             (getServletName [_] "benchmark")
+             (getServletContext [_] nil)
+             (getInitParameter [_ param-name]
+               (when (= "io.pedestal.connector.bridge-fn" param-name)
+                 "io.pedestal.benchmarks.servlet/create-bridge"))
+             (getInitParameterNames [_]
+               (Collections/enumeration ["io.pedestal.connector.bridge-fn"]))))))
+
+(defn- mock-state
+  ^MockState [method path headers ^InputStream body]
+  (MockState. (str "http://localhost:8080" path)
+              method
+              "http"
+              "localhost"
+              8080
+              path
+              nil
+              (HashMap. ^Map headers)
+              body))
+
+(def ^:private empty-body (byte-array 0))
+
+(def ^:private json-body
+  (.getBytes "{\"name\":\"Pedestal\",\"tags\":[\"http\",\"clojure\"]}" "UTF-8"))
+
+(defn- service
+  [^ConnectorServlet servlet ^MockState state]
+  (.service servlet (.-request state) (.-response state))
+  (.waitForCompletion state 1000)
+  (.-responseStatus state))
+
+(defn get-request
+  [servlet]
+  (service servlet (mock-state "GET" "/hello" {"accept" "text/plain"} (ByteArrayInputStream. empty-body))))
+
+(defn post-request
+  [servlet]
+  (service servlet (mock-state "POST" "/echo"
+                               {"content-type"   "application/json"
+                                "content-length" (str (alength ^bytes json-body))}
+                               (ByteArrayInputStream. json-body))))
+
+(defn not-found-request
+  [servlet]
+  (service servlet (mock-state "GET" "/missing" {} (ByteArrayInputStream. empty-body))))
@@ -0,0 +1,37 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.tracing
+  "Benchmarks for the overhead of request tracing, for sampled and unsampled requests."
+  (:require [io.pedestal.http.route :as route]
+            [io.pedestal.http.tracing :as tracing]
+            [io.pedestal.interceptor.chain :as chain]))
+
+(defn- handler
+  [_]
+  {:status 200
+   :body   "OK"})
+
+(defn interceptors
+  "State: a compiled chain of the tracing interceptor (sampling all requests, or none) and a router."
+  [sampled?]
+  (chain/compile-chain
+    [(tracing/request-tracing-interceptor {:sample-rate (if sampled? 1.0 0.0)})
+     (route/router (route/expand-routes #{["/users/:id" :get handler :route-name ::user]}))]))
+
+(defn execute
+  [interceptors]
+  (chain/execute {:request {:request-method :get
+                            :scheme         :http
+                            :server-port    8080
+                            :uri            "/users/42"
+                            :path-info      "/users/42"}}
+                 interceptors))
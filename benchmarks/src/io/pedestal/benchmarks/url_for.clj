@@ -0,0 +1,54 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.benchmarks.url-for
+  "Benchmarks bulk URL generation, as when rendering a response with many links."
+  (:require [io.pedestal.http.route :as route]))
+
+(defn- handler
+  [_request]
+  {:status 200})
+
+(def ^:private routes
+  #{["/users" :get handler :route-name ::users]
+    ["/users/:user-id" :get handler :route-name ::user]
+    ["/users/:user-id/posts" :get handler :route-name ::posts]
+    ["/users/:user-id/posts/:post-id" :get handler :route-name ::post]
+    ["/users/:user-id/posts/:post-id" :delete handler :route-name ::delete-post]
+    ["/search" :get handler :route-name ::search]})
+
+(defn router-enter
+  "State: the :enter function of a router interceptor."
+  []
+  (binding [route/*print-routing-table* false]
+    (:enter (route/router (route/expand-routes routes)))))
+
+(defn context
+  "State: a context for a request to be routed."
+  []
+  {:request {:request-method :get
+             :scheme         :http
+             :server-name    "localhost"
+             :server-port    8080
+             :uri            "/users/42"
+             :path-info      "/users/42"}})
+
+(defn link-all
+  "Routes the request, then generates 100 links."
+  [router-enter context]
+  (let [context' (router-enter context)]
+    (dotimes [i 20]
+      (route/url-for-context context' ::users)
+      (route/url-for-context context' ::posts)
+      (route/url-for-context context' ::post :path-params {:post-id i})
+      (route/url-for-context context' ::delete-post :path-params {:post-id i})
+      (route/url-for-context context' ::search :query-params {:q "pedestal" :page i}))
+    context'))
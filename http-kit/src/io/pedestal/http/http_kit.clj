@@ -39,41 +39,57 @@
                            (log/warn :message message :ex error))
    :legacy-return-value? false})
 
-(defn- async-responder
-  [*async-channel]
+(defn- enter-async
+  [context]
+  (when-not (get-in context [:request :async-channel])
+    (throw (ex-info "No async channel in request map"
+                    {:request (:request context)})))
+  (vreset! (::*async? context) true))
+
+(defn- async?
+  "Returns true if execution of the chain has gone asynchronous; each request's context
+  has its own ::*async? marker, set by [[enter-async]]."
+  [context]
+  @(::*async? context))
+
+(def ^:private async-responder
   (interceptor
     {:name  ::async-responder
      :leave (fn [context]
-              ;; *async-channel will contain the HK AsyncChannel, but only if
-              ;; the chain execution went async.
+              ;; The Http-Kit AsyncChannel is only used if the chain execution went async.
               ;;
               ;; There are two scenarios here:
               ;; 1. Creation of the :response was deferred, but the response is normal (text or streamable data)
               ;; 2. For SSE or WebSocket upgrade requests, the body is the AsyncChannel, and the channel should
               ;; not be closed, as async processes may still need to stream data.  They are responsible for
               ;; eventually closing the async channel.
-              (when-let [channel @*async-channel]
-                (when-let [{:keys [response]} context]
+              (when (async? context)
+                (let [{:keys [response]} context
+                      ;; The Http-Kit AsyncChannel from the request
+                      channel (:websocket-channel-source context)]
                   ;; Case 1 is handled here:
                   (when (not= channel (:body response))
                     (hk/send! channel response)
                     (hk/close channel))))
               context)}))
 
-(defn ^:private response-committer
-  [committed-ch]
+(def ^:private response-committer
   (interceptor
     {:name  ::response-committer
      :leave (fn [context]
-              (let [{:keys [response]} context
-                    {:keys [body]} response]
+              (let [{:keys [request response]} context
+                    {:keys [body]} response
+                    committed-ch (:io.pedestal.http.request/response-commited-ch request)]
                 ;; With the HK lifecycle, this block here *must* be the first to send!
                 ;; so that the status code & headers get written. Other-wise they are lost.
                 (when (and (instance? AsyncChannel body)
                            (not (.isWebSocket ^AsyncChannel body)))
-                  (hk/send! body (assoc response :body nil) false)))
-              ;; Now it is safe for other async processes to begin writing.
-              (close! committed-ch)
+                  (hk/send! body (assoc response :body nil) false))
+                ;; Now it is safe for other async processes to begin writing.  The channel
+                ;; only exists if something (an SSE stream, or a streamed body) is waiting for the commit.
+                (when (and committed-ch
+                           (realized? committed-ch))
+                  (close! @committed-ch)))
               context)}))
 
 (defn- prepare-response
@@ -98,6 +114,26 @@
                              :response response)
                   (dissoc context :response))))}))
 
+(defn- multi-valued?
+  [headers]
+  (reduce-kv (fn [_ _ ^String v]
+               (if (neg? (.indexOf v (int \newline)))
+                 false
+                 (reduced true)))
+             false
+             headers))
+
+(defn- normalize-headers
+  "Http-Kit separates the values of a repeated header with newlines; these are converted to commas.
+  The headers map is only rebuilt when some header has multiple values."
+  [headers]
+  (if (multi-valued? headers)
+    (reduce-kv (fn [m k v]
+                 (assoc m k (string/replace v "\n" ",")))
+               {}
+               headers)
+    headers))
+
 (defn create-connector
   "Creates a Pedestal connector around an Http-Kit network connector.  The connector map is used to specify
   the :ip and :port keys of the options passed to org.httpkit.server/run-server.  Other options are as provided
@@ -109,32 +145,28 @@
                                 {:ip   host
                                  :port port})
         *server          (atom nil)
-        initial-context' (response/terminate-when-response initial-context)
+        initial-context' (-> initial-context
+                             response/terminate-when-response
+                             (chain/on-enter-async enter-async))
+        chain            (chain/compile-chain (into [async-responder
+                                                     response-committer
+                                                     response-converter]
+                                                    interceptors))
         root-handler     (fn [request]
                            (let [{:keys [uri async-channel]} request
-                                 response-commited-ch (chan)
-                                 request'             (assoc request
-                                                             :io.pedestal.http.request/response-commited-ch response-commited-ch
-                                                             :path-info uri
-                                                             :headers (reduce-kv (fn [m k v]
-                                                                                   (assoc m k (string/replace v "\n" ",")))
-                                                                                 {}
-                                                                                 (:headers request)))
-                                 *async-channel       (atom nil)
-                                 interceptors'        (into [(async-responder *async-channel)
-                                                             (response-committer response-commited-ch)
-                                                             response-converter]
-                                                            interceptors)
-                                 context              (-> initial-context'
-                                                          (assoc :request request'
-                                                                 :websocket-channel-source async-channel)
-                                                          (chain/on-enter-async (fn [_]
-                                                                                  (reset! *async-channel (or async-channel
-                                                                                                             (throw (ex-info "No async channel in request map"
-                                                                                                                             {:request request}))))))
-                                                          (chain/execute interceptors'))]
-                             ;; When processing goes async, chain/execute will return nil but we'll have captured the Http-Kit async channel.
-                             (if-let [async-channel @*async-channel]
+                                 request' (assoc request
+                                                 ;; Created only if needed, see response-committer
+                                                 :io.pedestal.http.request/response-commited-ch (delay (chan))
+                                                 :path-info uri
+                                                 :headers (normalize-headers (:headers request)))
+                                 *async?  (volatile! false)
+                                 context  (-> initial-context'
+                                              (assoc :request request'
+                                                     :websocket-channel-source async-channel
+                                                     ::*async? *async?)
+                                              (chain/execute chain))]
+                             ;; When processing goes async, chain/execute will return nil, and *async? will be set.
+                             (if @*async?
                                ;; Returning this to Http-Kit causes it to set things up for an async response to be delivered
                                ;; via hk/send!.
                                {:body async-channel}
@@ -33,7 +33,7 @@
 (defn- pipe-async-response-channel
   [request response-ch]
   (let [{:keys [async-channel]} request
-        committed-ch (:io.pedestal.http.request/response-commited-ch request)]
+        committed-ch (force (:io.pedestal.http.request/response-commited-ch request))]
     ;; Register handler to detect client disconnection and close the response channel
     (hk/on-close async-channel (fn [_status]
                                   (close! response-ch)))
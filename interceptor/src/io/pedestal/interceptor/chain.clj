@@ -21,7 +21,9 @@
             [io.pedestal.log :as log]
             [io.pedestal.interceptor :as interceptor])
   (:import java.util.concurrent.atomic.AtomicLong
-           (clojure.lang PersistentQueue)))
+           (clojure.lang IPersistentStack PersistentQueue)
+           (java.util.concurrent CompletionStage Executor ThreadLocalRandom)
+           (java.util.function BiConsumer)))
 
 (declare ^:private execute-continue)
 
@@ -88,9 +90,17 @@
   "Invokes each predicate in ::terminators on context. If any predicate
   returns truthy, terminates :enter stage execution."
   [_interceptor context]
-  (if (some #(% context) (::terminators context))
-    (terminate context)
-    context))
+  ;; This is invoked after every :enter callback, so it avoids allocating a closure (as with `some`).
+  (loop [terminators (seq (::terminators context))]
+    (cond
+      (nil? terminators)
+      context
+
+      ((first terminators) context)
+      (terminate context)
+
+      :else
+      (recur (next terminators)))))
 
 (defn- notify-observer
   [interceptor stage context-in context-out]
@@ -105,12 +115,25 @@
           (observer-fn event)))))
   context-out)
 
+(defmacro ^:private timed
+  "Evaluates expr, the invocation of an interceptor callback; when the execution is sampled for timing
+  (see [[with-timing]]), the elapsed time is passed to the timing function."
+  [context interceptor stage expr]
+  `(if-let [timing-fn# (::timing-fn ~context)]
+     (let [start-nanos# (System/nanoTime)]
+       (try
+         ~expr
+         (finally
+           (timing-fn# ~context (:name ~interceptor) ~stage (- (System/nanoTime) start-nanos#)))))
+     ~expr))
+
 (defn- try-stage
   "Extracts the callback from an interceptor and invokes it if non-nil."
   [context interceptor stage]
   (if-let [callback (get interceptor stage)]
     (try
-      (let [context-out (callback context)]
+      (let [context-out (timed context interceptor stage
+                               (impl/await-future (callback context) (::executor context)))]
         ;; TODO: returning nil violates the interceptor contract; we could check here.
         (if (map? context-out)
           (cond->> (notify-observer interceptor stage context context-out)
@@ -118,7 +141,7 @@
                    ;; It has to be here, to properly report the exception
                    ;; if any terminator check fn throws.
                    (= stage :enter) (check-terminators interceptor))
-          ;; Should be a channel
+          ;; Should be a channel or CompletionStage
           context-out))
       (catch Throwable t
         (begin-error context stage interceptor t)))
@@ -130,7 +153,8 @@
   (if-let [callback (get interceptor :error)]
     (let [context-in (dissoc context ::error)]
       (try
-        (let [context-out (callback context-in error)]
+        (let [context-out (timed context-in interceptor :error
+                                 (callback context-in error))]
           (notify-observer interceptor :error context-in context-out))
         (catch Throwable t
           ;; The error handling interceptor can rethrow the wrapped exception
@@ -178,25 +202,63 @@
                           {:execution-id   (::execution-id old-context)
                            :exception-type :PedestalChainAsyncPrematureClose}))))
 
+(defn- resume
+  "Invokes f, the continuation of execution after an asynchronous result is delivered.
+  When the context contains an ::executor, f is run by the executor, otherwise f is invoked
+  immediately, in the thread that delivered the result."
+  [context f]
+  (if-let [^Executor executor (::executor context)]
+    (.execute executor ^Runnable f)
+    (f)))
+
 (defn- go-async
-  "When presented with a channel as the return value of an enter function,
-  wait for the channel to return a new-context (via a go block). When a new
-  context is received, restart execution of the interceptor chain with that
-  context.
+  "When presented with a channel or CompletionStage as the return value of an interceptor,
+  wait for it to deliver a new-context. When a new context is received, restart execution of the
+  interceptor chain with that context.
+
+  The restore-fn is applied to the new context (which may be nil) before
+  execution continues; this is used by compiled chains to restore the
+  queue and stack.
 
   This function is non-blocking, returning nil immediately (a signal to halt
   further execution on this thread)."
-  [interceptor stage old-context context-channel]
-  (prepare-for-async old-context)
-  (async/take! context-channel
-               (fn [new-context]
-                 (-> new-context
-                     (process-async-context interceptor stage old-context)
-                     (dissoc ::enter-async)
-                     execute-continue)))
-  ;; This nil will propagate all the way up, causing an immediate return from
-  ;; chain/execute (which will return nil), while the actual processing continues in go threads.
-  nil)
+  ([interceptor stage old-context async-result]
+   (go-async interceptor stage old-context async-result identity))
+  ([interceptor stage old-context async-result restore-fn]
+   (prepare-for-async old-context)
+   (let [continue (fn [new-context]
+                    (resume old-context
+                            #(-> new-context
+                                 restore-fn
+                                 (process-async-context interceptor stage old-context)
+                                 (dissoc ::enter-async)
+                                 execute-continue)))]
+     (if (impl/channel? async-result)
+       (async/take! async-result continue)
+       (.whenComplete ^CompletionStage async-result
+                      (reify BiConsumer
+                        (accept [_ new-context exception]
+                          (if exception
+                            (resume old-context
+                                    #(-> old-context
+                                         (begin-error stage interceptor (impl/unwrap-exception exception))
+                                         (dissoc ::enter-async)
+                                         execute-continue))
+                            (continue new-context)))))))
+   ;; This nil will propagate all the way up, causing an immediate return from
+   ;; chain/execute (which will return nil), while the actual processing continues in other threads.
+   nil))
+
+;; Pushing and popping a frame of thread bindings is relatively expensive; the common case is that there
+;; are no :bindings at all, so the body is evaluated directly.
+
+(defmacro ^:private with-bindings-when
+  [bindings & body]
+  `(let [bindings# ~bindings
+         f#        (fn [] ~@body)]
+     (if (seq bindings#)
+       (with-bindings* bindings# f#)
+       (f#))))
 
 (defn- execute-enter
   [initial-context]
@@ -208,7 +270,7 @@
     (let [*rebind? (volatile! false)]
       (loop [binding-context initial-context]               ;; outer loop
         (let [initial-bindings (:bindings binding-context)
-              context'         (with-bindings (or initial-bindings {})
+              context'         (with-bindings-when initial-bindings
                                  (loop [context binding-context] ;; inner loop
                                    (let [queue       (::queue context)
                                          interceptor (peek queue)]
@@ -229,7 +291,7 @@
                                                                 ::queue (pop queue)
                                                                 ::stack (conj stack interceptor))
                                              context-out (try-stage context' interceptor :enter)]
-                                         (if (impl/channel? context-out)
+                                         (if (impl/async? context-out)
                                            (go-async interceptor :enter context context-out)
                                            (recur context-out)))))))] ;; recur inner loop
           ;; inner loop may return early just to force a rebind when the :bindings
@@ -247,7 +309,7 @@
   (let [*rebind? (volatile! false)]
     (loop [binding-context initial-context]                 ;; outer loop
       (let [initial-bindings (:bindings binding-context)
-            context'         (with-bindings (or initial-bindings {})
+            context'         (with-bindings-when initial-bindings
                                (loop [context binding-context] ;; inner loop
                                  (let [queue       (::leave-queue context)
                                        interceptor (peek queue)]
@@ -268,7 +330,7 @@
                                            context-out (if error
                                                          (try-error context' interceptor error)
                                                          (try-stage context' interceptor :leave))]
-                                       (if (impl/channel? context-out)
+                                       (if (impl/async? context-out)
                                          (go-async interceptor :leave context context-out)
                                          (recur context-out)))))))] ;; recur inner loop
         ;; inner loop may return early just to force a rebind when the :bindings
@@ -322,15 +384,32 @@
 
 (def ^:private ^AtomicLong execution-id (AtomicLong.))
 
+(defn- sampled?
+  [^double sample-rate]
+  (or (>= sample-rate 1.0)
+      (< (.nextDouble (ThreadLocalRandom/current)) sample-rate)))
+
 (defn- begin
   [context]
   (if (contains? context ::execution-id)
     context
-    (assoc context ::execution-id (.incrementAndGet execution-id))))
+    (let [{::keys [timing]} context]
+      (cond-> (assoc context ::execution-id (.incrementAndGet execution-id))
+        (and timing
+             (sampled? (:sample-rate timing)))
+        (assoc ::timing-fn (:timing-fn timing)
+               ::start-nanos (System/nanoTime))))))
+
+(defn- end
+  "Invoked when execution completes (not when it goes async)."
+  [context]
+  (when-let [timing-fn (::timing-fn context)]
+    (timing-fn context nil :execution (- (System/nanoTime) (long (::start-nanos context)))))
+  context)
 
 (defn on-enter-async
   "Adds a callback function to be executed if the execution goes async, which occurs
-  when an interceptor returns a core.async channel rather than a context map.
+  when an interceptor returns a core.async channel (or CompletionStage) rather than a context map.
 
   The supplied function is appended to the list of such functions.
   All the functions are invoked, but only invoked once (a subsequent interceptor
@@ -341,11 +420,25 @@
   [context f]
   (update context ::enter-async i/vec-conj f))
 
+(defn with-executor
+  "Stores an Executor in the context; when execution of the chain goes async,
+  execution resumes (once the channel or CompletionStage delivers the new context)
+  on a thread provided by the executor, rather than on the thread that delivered the result.
+
+  This is commonly used with an executor that starts a new virtual thread for each task."
+  {:added "0.8.2"}
+  [context ^Executor executor]
+  (assoc context ::executor executor))
+
 (defmacro bind
   "Updates the context to add a binding of the given var and value.
    This is a convenience on modifying the :bindings key (a map of Vars and values).
 
-   Bound values will be available in subsequent interceptors."
+   Bound values will be available in subsequent interceptors.
+
+   Changing the bindings has a cost: thread bindings are established around the execution
+   of each interceptor, and a compiled chain (see [[compile-chain]]) reverts to normal execution.
+   Values that are only needed by later interceptors are better stored directly in the context."
   {:added "0.7.0"}
   [context var value]
   `(update ~context :bindings assoc (var ~var) ~value))
@@ -356,13 +449,17 @@
   [context var]
   `(update ~context :bindings dissoc (var ~var)))
 
+(defn- execute-stages
+  [context]
+  (-> context
+      execute-enter
+      prepare-for-leave
+      execute-leave))
+
 (defn- execute-continue
   "This is where things pick back up after going async."
   [context]
-  (let [context' (-> context
-                     execute-enter
-                     prepare-for-leave
-                     execute-leave)]
+  (let [context' (some-> (execute-stages context) end)]
     ;; Note that in async case, throwing an exception will occur in a core.async thread
     ;; with no hope of it being caught. Generally, it is expected that the interceptor chain
     ;; has at least one interceptor to handle otherwise uncaught exceptions.
@@ -370,6 +467,203 @@
       (throw ex)
       context')))
 
+;; Compiled chains are used when the sequence of interceptors is known in advance (for example,
+;; the interceptors provided to a connector).  The interceptors are stored in an array and
+;; execution advances an index through the array, rather than moving interceptors from
+;; the ::queue to the ::stack at each step.  When execution must deviate from the fixed
+;; sequence (an interceptor enqueues more interceptors, changes the :bindings, or returns a channel)
+;; the ::queue and ::stack are restored and execution continues in the normal way.
+
+(defn- array->queue
+  "Returns a queue of the interceptors in the array, starting with index start."
+  [^objects interceptors ^long start]
+  (let [n (alength interceptors)]
+    (loop [queue PersistentQueue/EMPTY
+           i     start]
+      (if (< i n)
+        (recur (conj queue (aget interceptors i)) (inc i))
+        queue))))
+
+(defn- array->stack
+  "Returns a stack (as used in the :enter phase) of the first end interceptors in the array."
+  [^objects interceptors ^long end]
+  (loop [stack PersistentQueue/EMPTY
+         i     0]
+    (if (< i end)
+      (recur (conj stack (aget interceptors i)) (inc i))
+      stack)))
+
+(defn- array->leave-queue
+  "Returns the leave queue, the first end interceptors in the array, in reverse order."
+  [^objects interceptors ^long end]
+  (loop [leave-queue ()
+         i           0]
+    (if (< i end)
+      (recur (conj leave-queue (aget interceptors i)) (inc i))
+      leave-queue)))
+
+(definterface CompiledPosition
+  (^void setPosition [^long position])
+  (remaining []))
+
+(deftype CompiledQueue [^objects interceptors ^:volatile-mutable ^long position]
+
+  ;; Stored as the ::queue during compiled execution; acts as a queue of the interceptors
+  ;; not yet executed. Any attempt to modify it returns a normal PersistentQueue.
+
+  CompiledPosition
+
+  (setPosition [_ new-position]
+    (set! position new-position))
+
+  (remaining [_]
+    (array->queue interceptors position))
+
+  IPersistentStack
+
+  (peek [_]
+    (when (< position (alength interceptors))
+      (aget interceptors position)))
+
+  (pop [this]
+    (pop (.remaining this)))
+
+  (count [_]
+    (int (- (alength interceptors) position)))
+
+  (cons [this o]
+    (conj (.remaining this) o))
+
+  (empty [_]
+    PersistentQueue/EMPTY)
+
+  (equiv [this o]
+    (= (.remaining this) o))
+
+  (seq [this]
+    (seq (.remaining this))))
+
+(deftype CompiledChain [interceptors ^objects interceptors-array])
+
+(defn compile-chain
+  "Compiles a fixed sequence of interceptors into a compiled chain, which can be passed
+  to [[execute]] in place of the sequence of interceptors.
+
+  Execution of a compiled chain is faster, as interceptors are invoked from an array
+  rather than moved, one at a time, from the context's queue to its stack.
+  The semantics of execution are unchanged: interceptors may still [[enqueue]] additional
+  interceptors, [[terminate]] execution, modify the :bindings, or go asynchronous; in those cases,
+  execution continues as if the interceptors had been enqueued normally.
+
+  During execution of a compiled chain, the queue (as returned by [[queue]]) is a view of the
+  interceptors yet to be executed; any attempt to modify it returns a normal queue."
+  {:added "0.8.2"}
+  [interceptors]
+  {:pre [(every? interceptor/interceptor? interceptors)]}
+  (->CompiledChain (vec interceptors) (object-array interceptors)))
+
+(defn compiled-chain?
+  "Returns true if the value is a compiled chain, returned from [[compile-chain]]."
+  {:added "0.8.2"}
+  [value]
+  (instance? CompiledChain value))
+
+(defn- restore-enter
+  "Restores the ::stack and ::queue of a context, so that execution may continue normally; position
+  is the number of interceptors that have been entered."
+  [context ^CompiledQueue compiled-queue ^long position]
+  (when context
+    (let [interceptors (.-interceptors compiled-queue)]
+      (cond-> (assoc context ::stack (array->stack interceptors position))
+        (identical? (::queue context) compiled-queue)
+        (assoc ::queue (array->queue interceptors position))))))
+
+(defn- restore-leave
+  "Restores the ::leave-queue of a context, so that execution may continue normally; position
+  is the number of interceptors that are yet to be left."
+  [context ^objects interceptors ^long position]
+  (when context
+    (assoc context ::leave-queue (array->leave-queue interceptors position))))
+
+(defn- execute-compiled-leave
+  [initial-context ^objects interceptors ^long start bindings]
+  (loop [context initial-context
+         i       start]
+    (if (neg? i)
+      context
+      (let [interceptor (aget interceptors i)
+            error       (::error context)
+            context-out (if error
+                          (try-error context interceptor error)
+                          (try-stage context interceptor :leave))]
+        (cond
+          (impl/async? context-out)
+          (go-async interceptor :leave
+                    (restore-leave context interceptors (inc i))
+                    context-out
+                    #(restore-leave % interceptors i))
+
+          (nil? context-out)
+          nil
+
+          (identical? (:bindings context-out) bindings)
+          (recur context-out (dec i))
+
+          :else
+          ;; The bindings changed, so continue normally (which will rebind).
+          (execute-leave (restore-leave context-out interceptors i)))))))
+
+(defn- execute-compiled-enter
+  [initial-context ^objects interceptors ^CompiledQueue compiled-queue bindings]
+  (let [n (alength interceptors)]
+    (loop [context initial-context
+           i       0]
+      (if (= i n)
+        (execute-compiled-leave (dissoc context ::queue) interceptors (dec n) bindings)
+        (let [interceptor (aget interceptors i)
+              _           (.setPosition compiled-queue (inc i))
+              context-out (try-stage context interceptor :enter)]
+          (if (impl/async? context-out)
+            (go-async interceptor :enter
+                      (restore-enter context compiled-queue i)
+                      context-out
+                      #(restore-enter % compiled-queue (inc i)))
+            (let [queue (::queue context-out)]
+              (cond
+                (nil? context-out)
+                nil
+
+                (not (identical? (:bindings context-out) bindings))
+                (execute-stages (restore-enter context-out compiled-queue (inc i)))
+
+                (identical? queue compiled-queue)
+                (recur context-out (inc i))
+
+                ;; Terminated, or an exception was thrown: start the :leave (or :error) phase
+                ;; from the current interceptor.
+                (nil? queue)
+                (execute-compiled-leave context-out interceptors i bindings)
+
+                ;; Interceptors were enqueued (the queue will contain the remaining
+                ;; compiled interceptors, followed by the new interceptors).
+                :else
+                (execute-stages (restore-enter context-out compiled-queue (inc i)))))))))))
+
+(defn- execute-compiled
+  [context ^CompiledChain chain]
+  (let [interceptors   (.-interceptors-array chain)
+        compiled-queue (CompiledQueue. interceptors 0)
+        context'       (-> context
+                           (assoc ::queue compiled-queue)
+                           begin)
+        bindings       (:bindings context')
+        context''      (some-> (with-bindings-when bindings
+                                 (execute-compiled-enter context' interceptors compiled-queue bindings))
+                               end)]
+    (if-let [ex (::error context'')]
+      (throw ex)
+      context'')))
+
 (defn execute
   "Executes a queue of [[Interceptor]]s attached to the context. Context
   must be a map, Interceptors are added with 'enqueue'.
@@ -410,15 +704,30 @@
   execute returns nil immediately, with the process exepected to write
   an updated context into the channel when its work completes.
 
+  Interceptor callbacks may also return a java.util.concurrent.CompletionStage (such as
+  a CompletableFuture), which is treated the same as a channel; if the stage completes exceptionally,
+  the exception is handled as if thrown by the interceptor. A callback may return any other
+  java.util.concurrent.Future: when the context has an Executor (see [[with-executor]]), the current thread
+  (typically a virtual thread) blocks until the future is realized; otherwise, the future is awaited on a separate
+  thread and treated as a CompletionStage.
+
+  Interceptors must never block when executing on a core.async go block thread (as happens after an
+  interceptor returns a channel, unless an Executor is provided); blocking there can starve, or deadlock,
+  core.async's fixed size dispatch pool.
+
   The function [[on-enter-async]] is used to provide a callback for
   when an interceptor chain execution first switches from in-thread to
   asynchronous execution.
 
-  Processing continues in core.async threads - including even when
+  Processing continues in core.async threads (or the thread that completed
+  the CompletionStage) - including even when
   a later interceptor returns an immediate context, rather than
-  a channel.
+  a channel.  Alternately, [[with-executor]] can provide an Executor
+  used to continue processing.
 
   Note that any previously queued interceptors are discarded when `execute` is invoked.
+
+  The interceptors may also be a compiled chain, from [[compile-chain]].
   "
   ([context]
    (-> context
@@ -426,7 +735,11 @@
        begin
        execute-continue))
   ([context interceptors]
-   (execute (enqueue context interceptors))))
+   (if (compiled-chain? interceptors)
+     (if (::queue context)
+       (execute (enqueue context (.-interceptors ^CompiledChain interceptors)))
+       (execute-compiled context interceptors))
+     (execute (enqueue context interceptors)))))
 
 (defn ^{:added "0.7.0"} queue
   "Returns the contents of the queue, the as-yet uninvoked interceptors during the :enter phase
@@ -445,6 +758,28 @@
       (new-fn event))
     new-fn))
 
+(defn with-timing
+  "Enables timing of execution: for a sample of executions, the timing function is invoked after each interceptor
+  callback, and once more when execution completes.
+
+  The timing function is passed four values: the context, the interceptor name (which may be nil),
+  the stage (:enter, :leave, :error, or :execution) and the elapsed time in nanoseconds.
+  For the :execution stage, the context is the final context and the interceptor name is nil.
+
+  The duration of a callback that returns a channel (or CompletionStage) is the time to return it, not the time
+  until the channel conveys the new context.  The :execution duration includes any time spent asynchronous.
+
+  The sample rate is a number from 0.0 to 1.0 (the default); the decision to sample is made once,
+  when execution begins. For executions that are not sampled, there is no timing overhead, and no allocation.
+
+  The value returned by the timing function is ignored."
+  {:added "0.8.2"}
+  ([context timing-fn]
+   (with-timing context timing-fn 1.0))
+  ([context timing-fn sample-rate]
+   (assoc context ::timing {:timing-fn   timing-fn
+                            :sample-rate (double sample-rate)})))
+
 (defn ^{:added "0.7.0"} add-observer
   "Adds an observer function to the execution; observer functions are notified after each interceptor
   executes.  If the interceptor is asynchronous, the notification occurs once the new context
@@ -13,13 +13,56 @@
   "Internal namespace subject to change at any time."
   {:added "0.8.0"}
   (:require clojure.core.async.impl.protocols
-            [clojure.core.async :refer [go <!]])
-  (:import (clojure.core.async.impl.protocols ReadPort)))
+            [clojure.core.async :refer [go <! thread]])
+  (:import (clojure.core.async.impl.protocols ReadPort)
+           (java.util.concurrent CompletableFuture CompletionException CompletionStage ExecutionException Future)))
 
 (defn channel?
   [c]
   (instance? ReadPort c))
 
+(defn async?
+  "Returns true if the value returned from an interceptor represents an asynchronous
+  result: a core.async channel or a CompletionStage."
+  [v]
+  (or (instance? ReadPort v)
+      (instance? CompletionStage v)))
+
+(defn unwrap-exception
+  "Unwraps the exception from a CompletionStage or Future to the underlying cause."
+  [^Throwable t]
+  (if (or (instance? CompletionException t)
+          (instance? ExecutionException t))
+    (or (.getCause t) t)
+    t))
+
+(defn- future->stage
+  "Bridges a Future to a CompletionStage, using a core.async thread (not a go block dispatch thread)
+  to wait for the Future."
+  [^Future f]
+  (let [stage (CompletableFuture.)]
+    (thread
+      (try
+        (.complete stage (.get f))
+        (catch Throwable t
+          (.completeExceptionally stage (unwrap-exception t)))))
+    stage))
+
+(defn await-future
+  "If the value is a Future (but not also a CompletionStage), blocks until the future is realized, and
+  returns its value when blocking? is true (the current thread may block, typically because it is a virtual thread);
+  otherwise the Future is converted to a CompletionStage.  Other values are returned unchanged."
+  [v blocking?]
+  (if (and (instance? Future v)
+           (not (instance? CompletionStage v)))
+    (if blocking?
+      (try
+        (.get ^Future v)
+        (catch ExecutionException e
+          (throw (unwrap-exception e))))
+      (future->stage v))
+    v))
+
 (defn wrap-handler
   [handler-fn]
   (fn [context]
@@ -18,6 +18,7 @@
             [io.pedestal.http.response :as response]
             [io.pedestal.http.servlet :as servlet]
             [io.pedestal.internal :refer [deprecated with-deprecations-suppressed]]
+            [io.pedestal.metrics :as metrics]
             [io.pedestal.http.impl.servlet-interceptor :as si]
             [io.pedestal.service.protocols :as p]
             [io.pedestal.connector.test :as test]
@@ -33,7 +34,9 @@
                                      HttpConnectionFactory
                                      ServerConnector
                                      SslConnectionFactory)
+           (org.eclipse.jetty.util BlockingArrayQueue VirtualThreads)
            (org.eclipse.jetty.util.thread QueuedThreadPool ThreadPool)
+           (java.util.concurrent BlockingQueue Executor)
            (org.eclipse.jetty.util.ssl SslContextFactory SslContextFactory$Server KeyStoreScanner)
            (org.eclipse.jetty.alpn.server ALPNServerConnectionFactory)
            (jakarta.servlet Servlet ServletContext)
@@ -134,15 +137,104 @@
   ([connectors acceptors selectors]
    (* (Math/round ^Double (+ acceptors selectors)) connectors)))
 
+(deftype RejectionCountingQueue [^BlockingQueue delegate rejected-fn]
+
+  ;; Wraps the bounded job queue of a QueuedThreadPool; the pool rejects a task (throwing
+  ;; RejectedExecutionException) when offer returns false.
+
+  BlockingQueue
+
+  (offer [_ e]
+    (or (.offer delegate e)
+        (do
+          (rejected-fn)
+          false)))
+
+  (offer [_ e timeout unit] (.offer delegate e timeout unit))
+  (add [_ e] (.add delegate e))
+  (put [_ e] (.put delegate e))
+  (take [_] (.take delegate))
+  (poll [_] (.poll delegate))
+  (poll [_ timeout unit] (.poll delegate timeout unit))
+  (peek [_] (.peek delegate))
+  (element [_] (.element delegate))
+  (remove [_] (.remove delegate))
+  (remove [_ o] (.remove delegate o))
+  (remainingCapacity [_] (.remainingCapacity delegate))
+  (drainTo [_ c] (.drainTo delegate c))
+  (drainTo [_ c max-elements] (.drainTo delegate c max-elements))
+  (contains [_ o] (.contains delegate o))
+  (containsAll [_ c] (.containsAll delegate c))
+  (addAll [_ c] (.addAll delegate c))
+  (removeAll [_ c] (.removeAll delegate c))
+  (retainAll [_ c] (.retainAll delegate c))
+  (clear [_] (.clear delegate))
+  (size [_] (.size delegate))
+  (isEmpty [_] (.isEmpty delegate))
+  (iterator [_] (.iterator delegate))
+  (toArray [_] (.toArray delegate))
+  (toArray [_ ^objects a] (.toArray delegate a)))
+
+;; Thread pools, keyed on port, for the gauges to sample.  Gauges can't be removed once created, so
+;; a gauge reads from this map (which is updated when a server on the same port is restarted).
+(def ^:private *instrumented-pools (atom {}))
+
+(defn- instrument-thread-pool
+  [^QueuedThreadPool pool port]
+  (let [attributes {:port port}
+        sample     (fn [f]
+                     #(if-let [pool (get @*instrumented-pools port)]
+                        (f pool)
+                        0))]
+    (swap! *instrumented-pools assoc port pool)
+    (metrics/gauge ::thread-pool-utilization attributes
+                   (sample #(.getUtilizationRate ^QueuedThreadPool %)))
+    (metrics/gauge ::thread-pool-busy-threads attributes
+                   (sample #(.getBusyThreads ^QueuedThreadPool %)))
+    (metrics/gauge ::thread-pool-threads attributes
+                   (sample #(.getThreads ^QueuedThreadPool %)))
+    (metrics/gauge ::thread-pool-queue-size attributes
+                   (sample #(.getQueueSize ^QueuedThreadPool %)))
+    pool))
+
+(defn- virtual-threads-executor
+  ^Executor []
+  (when-not (VirtualThreads/areSupported)
+    (throw (ex-info "Virtual threads require Java 21 or later"
+                    {:java-version (System/getProperty "java.version")})))
+  (VirtualThreads/getDefaultVirtualThreadsExecutor))
+
 (defn- thread-pool
   "Returns a thread pool for the Jetty server. Can be overridden
-  with [:container-options :thread-pool] in options. max-threads is
-  ignored if the pool is overridden."
-  [{{:keys [max-threads thread-pool]
-     :or   {max-threads (max 50 (needed-pool-size))}}
-    :container-options}]
-  (or thread-pool
-      (QueuedThreadPool. ^Integer max-threads)))
+  with [:container-options :thread-pool] in options. The other thread pool
+  options are ignored if the pool is overridden.
+
+  When :max-queued is specified, the pool's job queue is bounded, and tasks are rejected
+  once the queue is full.
+
+  When :virtual-threads? is true, the pool uses virtual threads to execute tasks (such as
+  processing a request) that may block; platform threads are still used for Jetty's
+  internal, non-blocking tasks."
+  [{:keys [port container-options]}]
+  (let [{:keys [max-threads min-threads idle-timeout reserved-threads max-queued
+                virtual-threads? thread-pool ssl-port]
+         :or   {max-threads      (max 50 (needed-pool-size))
+                idle-timeout     60000
+                reserved-threads -1}} container-options
+        port' (or port ssl-port)]
+    (or thread-pool
+        (let [queue (when max-queued
+                      (RejectionCountingQueue. (BlockingArrayQueue. (int max-queued))
+                                               (metrics/counter ::thread-pool-rejected-tasks {:port port'})))
+              pool  (QueuedThreadPool. (int max-threads)
+                                       (int (or min-threads (min 8 max-threads)))
+                                       (int idle-timeout)
+                                       (int reserved-threads)
+                                       ^BlockingQueue queue
+                                       nil)]
+          (when virtual-threads?
+            (.setVirtualThreadsExecutor pool (virtual-threads-executor)))
+          (instrument-thread-pool pool port')))))
 
 (defn- add-connection-factories
   ^ServerConnector [^Server server factories]
@@ -282,9 +374,11 @@
 
   Returns a connector in an unstarted state."
   [service-map options]
-  (let [{:keys [interceptors initial-context join?]} service-map
-        ;; The options may include an :exception-analyzer function.
-        service-fn        (si/http-interceptor-service-fn interceptors initial-context options)
+  (let [{:keys [interceptors initial-context join? virtual-threads?]} service-map
+        ;; The options may include an :exception-analyzer function, and the :lazy-request-map? flag.
+        service-fn        (si/http-interceptor-service-fn interceptors initial-context
+                                                          (cond-> options
+                                                            virtual-threads? (assoc :virtual-threads? true)))
         servlet           (servlet/servlet :service service-fn)
         ;; Mixing service-map and options; another bit of relic that maybe can be fixed
         ;; with changes to io.pedestal.http (that are probably ok to do as it only concerns implementation
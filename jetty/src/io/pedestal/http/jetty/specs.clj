@@ -24,6 +24,12 @@
 (s/def ::container-options
   (s/keys :opt-un [::daemon?
                    ::max-threads
+                   ::min-threads
+                   ::idle-timeout
+                   ::reserved-threads
+                   ::max-queued
+                   ::virtual-threads?
+                   ::thread-pool
                    ::max-streams
                    ::reuse-addr?
                    ::configurator
@@ -51,6 +57,11 @@
 
 (s/def ::daemon? boolean?)
 (s/def ::max-threads pos-int?)
+(s/def ::min-threads pos-int?)
+(s/def ::idle-timeout pos-int?)
+(s/def ::reserved-threads int?)
+(s/def ::max-queued pos-int?)
+(s/def ::virtual-threads? boolean?)
 (s/def ::max-streams pos-int?)
 (s/def ::reuse-addr? boolean?)
 (s/def ::thread-pool (is-a ThreadPool))
@@ -16,7 +16,6 @@
             [io.pedestal.http.route.types :as types]
             [io.pedestal.interceptor :as interceptor]
             [io.pedestal.interceptor.chain :as interceptor.chain]
-            [io.pedestal.log :as log]
             [io.pedestal.http.route.definition :as definition]
             [io.pedestal.http.route.definition.terse :as terse]
             [io.pedestal.http.route.definition.table :as table]
@@ -25,10 +24,15 @@
             [io.pedestal.http.route.prefix-tree :as prefix-tree]
             [io.pedestal.http.route.sawtooth :as sawtooth]
             [io.pedestal.environment :refer [dev-mode?]]
+            [io.pedestal.internal :as i]
+            [io.pedestal.metrics :as metrics]
+            [io.pedestal.tracing :as tracing]
             [io.pedestal.http.route.internal :as internal])
-  (:import (clojure.lang APersistentMap APersistentSet APersistentVector)
+  (:import (clojure.lang AFn APersistentMap APersistentSet APersistentVector IFn IHashEq ILookup IMeta IObj
+                        IPersistentMap MapEntry MapEquivalence)
            (io.pedestal.http.route.types RoutingFragment)
-           (java.net URLEncoder URLDecoder)))
+           (java.net URLEncoder URLDecoder)
+           (java.util Map)))
 
 (defn is-routing-table?
   "Returns true if the value is a routing table (as returned from [[expand-routes]])."
@@ -43,6 +47,22 @@
   Defaults to [[dev-mode?]]."
   dev-mode?)
 
+(def ^{:added   "0.8.2"
+       :dynamic true} *bind-url-for*
+  "If true (the default), then the router interceptor binds a hidden dynamic var, used by [[url-for]],
+  for the remaining interceptors.
+
+  When false, the router does not modify the context's :bindings; this avoids establishing thread bindings
+  around each subsequent interceptor (and keeps a compiled interceptor chain on its fast path).
+  Interceptors must then use [[url-for-context]] rather than [[url-for]].
+
+  This is read when the router interceptor is constructed by [[router]]; the default may be
+  changed with JVM property `io.pedestal.disable-url-for-binding` or environment variable
+  `PEDESTAL_DISABLE_URL_FOR_BINDING`."
+  (not (i/read-config "io.pedestal.disable-url-for-binding"
+                      "PEDESTAL_DISABLE_URL_FOR_BINDING"
+                      :as :boolean)))
+
 ;;; Parsing URL query strings (RFC 3986)
 
 ;; Java's URLEncoder/URLDecoder are only correct when applied on
@@ -71,6 +91,22 @@
             (if (vector? p) (conj p v) [p v])
             v)))
 
+(defn- count-params
+  "Counts the parameters in a non-blank query string, without parsing it."
+  ^long [^String string]
+  (let [end (.length string)]
+    (loop [i 0
+           n 1]
+      (if (= i end)
+        n
+        (recur (inc i)
+               (if (= \& (.charAt string i)) (inc n) n))))))
+
+(defn- check-param-count
+  [^String string max-params]
+  (when (> (count-params string) (long max-params))
+    (throw (IllegalArgumentException. (str "Query string exceeds " max-params " parameters")))))
+
 (defn parse-query-string
   "Parses URL query string (not including the leading '?') into1 a map.
   options are key-value pairs, valid options are:
@@ -81,14 +117,20 @@
 
      :value-fn  Function to call on the key (after passing through
                 key-fn) and parameter value (after URL decoding),
-                returns value for the map, default does nothing."
+                returns value for the map, default does nothing.
+
+     :max-params  If non-nil, the maximum number of parameters; a query
+                  string with more parameters throws an IllegalArgumentException
+                  (added in 0.8.2)."
   [^String string & options]
   (if (str/blank? string)
     {}
-    (let [{:keys [key-fn value-fn]
+    (let [{:keys [key-fn value-fn max-params]
            :or   {key-fn   keyword
                   value-fn (fn [_ v] v)}} options
           end (count string)]
+      (when max-params
+        (check-param-count string max-params))
       (loop [i   0
              m   (transient {})
              key nil
@@ -139,6 +181,169 @@
                   (let [params (parse-query-string string)]
                     {:query-params params :params params})))))
 
+;; A lazy view of the query parameters: lookups of a simple keyword scan the raw query string,
+;; decoding only the matching values; anything else parses the query string into a map.
+
+(defn- encoded?
+  [^String string ^long start ^long end]
+  (loop [i start]
+    (cond
+      (= i end) false
+      (let [c (.charAt string i)]
+        (or (= \% c) (= \+ c))) true
+      :else (recur (inc i)))))
+
+(defn- key-matches?
+  [^String string ^long start ^long end ^String k]
+  (if (encoded? string start end)
+    (= k (decode-query-part (subs string start end)))
+    (and (= (.length k) (- end start))
+         (.regionMatches string (int start) k 0 (.length k)))))
+
+(defn- lookup-query-param
+  "Returns the decoded value of the named parameter, a vector of values if the parameter is repeated,
+  or nil if not present; matches the values produced by [[parse-query-string]]."
+  [^String string ^String k]
+  (let [end (.length string)]
+    (loop [start  0
+           eq     (.indexOf string (int \=))
+           result nil]
+      (let [amp     (let [i (.indexOf string (int \&) (int start))]
+                      (if (neg? i) end i))
+            ;; Only search for = again once past the previous one; this keeps the scan linear.
+            eq      (if (< -1 eq start)
+                      (.indexOf string (int \=) (int start))
+                      eq)
+            result' (if (and (< -1 eq amp)
+                             (key-matches? string start eq k))
+                      (let [v (decode-query-part (subs string (inc eq) amp))]
+                        (cond
+                          (nil? result) v
+                          (vector? result) (conj result v)
+                          :else [result v]))
+                      result)]
+        (if (= amp end)
+          result'
+          (recur (inc amp) eq result'))))))
+
+(defn- simple-keyword?
+  [k]
+  (and (keyword? k)
+       (nil? (namespace k))))
+
+(deftype ^:no-doc LazyQueryParams [^String query-string parsed meta-map]
+
+  ;; query-string - the raw, non-blank query string
+  ;; parsed - a Delay of the query string parsed to a map
+
+  ILookup
+  (valAt [this k]
+    (.valAt this k nil))
+  (valAt [_ k not-found]
+    (if (and (simple-keyword? k)
+             (not (realized? parsed)))
+      (let [v (lookup-query-param query-string (name k))]
+        (if (nil? v) not-found v))
+      (get @parsed k not-found)))
+
+  IFn
+  (invoke [this k]
+    (.valAt this k nil))
+  (invoke [this k not-found]
+    (.valAt this k not-found))
+  (applyTo [this args]
+    (AFn/applyToHelper this args))
+
+  IPersistentMap
+  (assoc [_ k v]
+    (with-meta (assoc @parsed k v) meta-map))
+  (assocEx [this k v]
+    (if (.containsKey this k)
+      (throw (IllegalArgumentException. (str "Key already present: " k)))
+      (.assoc this k v)))
+  (without [_ k]
+    (with-meta (dissoc @parsed k) meta-map))
+  (containsKey [this k]
+    (if (and (simple-keyword? k)
+             (not (realized? parsed)))
+      (some? (.valAt this k nil))
+      (contains? @parsed k)))
+  (entryAt [this k]
+    (when (.containsKey this k)
+      (MapEntry/create k (.valAt this k))))
+  (count [_]
+    (count @parsed))
+  (cons [_ o]
+    (with-meta (conj @parsed o) meta-map))
+  (empty [_]
+    (with-meta {} meta-map))
+  (equiv [_ o]
+    (= @parsed o))
+  (seq [_]
+    (seq @parsed))
+  (iterator [_]
+    (.iterator ^Iterable @parsed))
+
+  MapEquivalence
+
+  IHashEq
+  (hasheq [_]
+    (hash @parsed))
+
+  IMeta
+  (meta [_] meta-map)
+
+  IObj
+  (withMeta [_ m]
+    (LazyQueryParams. query-string parsed m))
+
+  Map
+  (size [_]
+    (count @parsed))
+  (isEmpty [_]
+    (empty? @parsed))
+  (containsValue [_ v]
+    (.containsValue ^Map @parsed v))
+  (get [this k]
+    (.valAt this k nil))
+  (keySet [_]
+    (.keySet ^Map @parsed))
+  (values [_]
+    (.values ^Map @parsed))
+  (entrySet [_]
+    (.entrySet ^Map @parsed))
+  (put [_ _ _]
+    (throw (UnsupportedOperationException.)))
+  (remove [_ _]
+    (throw (UnsupportedOperationException.)))
+  (putAll [_ _]
+    (throw (UnsupportedOperationException.)))
+  (clear [_]
+    (throw (UnsupportedOperationException.)))
+
+  Object
+  (hashCode [_]
+    (.hashCode ^Object @parsed))
+  (equals [_ o]
+    (.equals ^Object @parsed o))
+  (toString [_]
+    (str @parsed)))
+
+(defn- lazy-query-params-map
+  [^String query-string]
+  (LazyQueryParams. query-string (delay (parse-query-string query-string)) nil))
+
+(defn- parse-lazy-query-params
+  [request max-params]
+  (let [query-string (:query-string request)]
+    (if (or (:query-string-params request)
+            (str/blank? query-string))
+      (parse-query-params request)
+      (do
+        (check-param-count query-string max-params)
+        (let [params (lazy-query-params-map query-string)]
+          (merge-with merge request {:query-params params :params params}))))))
+
 (defn parse-param-map [m]
   (persistent! (reduce-kv (fn [acc k v] (assoc! acc k (decode-query-part v))) (transient {}) m)))
 
@@ -184,10 +389,6 @@
   :params are added to :query-params. Returns updated opts."
   [opts route]
   (let [{:keys [params request]} opts]
-    (log/debug :msg "MERGE-PARAM-OPTIONS"
-               :opts opts
-               :params params
-               :request request)
     (-> opts
         (dissoc :params)
         (update :path-params #(merge (:path-params request) params %))
@@ -214,18 +415,21 @@
       (merge-method-param route)))
 
 (defn- context-path
+  "Returns the context path string from the :context option, or from the request, or nil."
   [{:keys [context request]}]
-  (log/debug :in :context-path
-             :context context
-             :context-type (type context)
-             :resolved-context (when (symbol? context) (resolve context))
-             :request request)
-  (when-let [context-str (cond
-                           (string? context) context
-                           (fn? context) (context)
-                           (symbol? context) ((resolve context))
-                           :else (:context-path request))]
-    (str/split context-str #"/")))
+  (cond
+    (string? context) context
+    (fn? context) (context)
+    (symbol? context) ((resolve context))
+    :else (:context-path request)))
+
+(defn- trim-trailing-slashes
+  ^String [^String s]
+  (loop [end (.length s)]
+    (if (and (pos? end)
+             (= \/ (.charAt s (dec end))))
+      (recur (dec end))
+      (subs s 0 end))))
 
 (def ^{:private true} standard-scheme->port {:http  80
                                              :https 443})
@@ -234,10 +438,90 @@
   [scheme port]
   (not= port (standard-scheme->port scheme)))
 
+;; URL templates are compiled from each route's path parts when a linker is created.
+;; A template is a vector of literal strings (including the separating slashes) and path param keywords;
+;; rendering the template is equivalent to joining the path parts with slashes.
+
+(defn- path-template
+  [path-parts]
+  (->> (interpose "/" path-parts)
+       (partition-by string?)
+       (mapcat (fn [run]
+                 (if (string? (first run))
+                   [(apply str run)]
+                   run)))
+       vec))
+
+(defn- url-template
+  [route]
+  (let [{:keys [path path-parts]} route]
+    {:template         (path-template path-parts)
+     ;; Used when there is a context path, which replaces a leading empty path part
+     :context-template (path-template (if (= "" (first path-parts))
+                                        (rest path-parts)
+                                        path-parts))
+     :trailing-slash?  (and (some? path)
+                            (str/ends-with? path "/"))}))
+
+(defn- append-template!
+  [^StringBuilder sb template path-params]
+  (let [n (count template)]
+    (loop [i 0]
+      (when (< i n)
+        (let [part (nth template i)]
+          (.append sb (if (string? part)
+                        ^String part
+                        (str (get path-params part part)))))
+        (recur (inc i))))))
+
+(defn- append-path!
+  "Appends the path, combined with the context path (if any), to the StringBuilder."
+  [^StringBuilder sb route path-params opts]
+  (let [{:keys [template context-template trailing-slash?]} (::url-template route)
+        context    (context-path opts)
+        path-start (.length sb)]
+    (if (nil? context)
+      (append-template! sb template path-params)
+      ;; Equivalent to joining the parts of the context path with the path parts
+      (let [prefix (trim-trailing-slashes context)]
+        (if (and (= "" prefix)
+                 (not= "" context))
+          (append-template! sb context-template path-params)
+          (do
+            (.append sb prefix)
+            (when (seq context-template)
+              (.append sb "/")
+              (append-template! sb context-template path-params))))))
+    (when (and trailing-slash?
+               (or (= path-start (.length sb))
+                   (not= \/ (.charAt sb (dec (.length sb))))))
+      (.append sb "/"))
+    (when (or (= path-start (.length sb))
+              (not= \/ (.charAt sb path-start)))
+      (.insert sb (int path-start) "/"))))
+
+(defn- check-strict-path-params
+  [route opts]
+  (let [{:keys [path-params]} opts]
+    (when (or
+            (not= (set (keys path-params)) ;; Do the params passed in...
+                  (set (seq (:path-params route))) ;; match the params from the route?  `seq` is used to handle cases where no `path-params` are required
+                  )
+            ;; nils are not allowed.
+            (reduce-kv #(if (nil? %3) (reduced true) false) nil path-params))
+      (throw (ex-info "Attempted to create a URL with `url-for`, but missing required :path-params - :strict-path-params was set to true.
+                            Either include all path-params (`nil` is not allowed), or if your URL actually contains ':' in the path, set :strict-path-params to false in the options"
+                      {:path-parts  (:path-parts route)
+                       :path-params path-params
+                       :options     opts
+                       :route       route})))))
+
 (defn- link-str
   "Returns a string for a route, providing the minimum URL necessary
   given the route and opts. opts is a map as described in the
-  docstring for 'url-for'."
+  docstring for 'url-for'.
+
+  The route must have a compiled URL template (see [[templated-linker-map]])."
   [route opts]
   (let [{:keys           [path-params
                           strict-path-params?
@@ -248,58 +532,44 @@
          override-host   :host
          override-port   :port
          override-scheme :scheme} opts
-        {:keys [scheme host port path-parts path]} route
-        context-path-parts (context-path opts)
-        path-parts         (do (log/debug :in :link-str
-                                          :path-parts path-parts
-                                          :context-path-parts context-path-parts)
-                               (cond
-                                 (and context-path-parts (= "" (first path-parts))) (concat context-path-parts (rest path-parts))
-                                 context-path-parts (concat context-path-parts path-parts)
-                                 :else path-parts))
-        _                  (when (and (true? strict-path-params?)
-                                      (or
-                                        (not= (set (keys path-params)) ;; Do the params passed in...
-                                              (set (seq (:path-params route))) ;; match the params from the route?  `seq` is used to handle cases where no `path-params` are required
-                                              )
-                                        ;; nils are not allowed.
-                                        (reduce-kv #(if (nil? %3) (reduced true) false) nil path-params)))
-                             (throw (ex-info "Attempted to create a URL with `url-for`, but missing required :path-params - :strict-path-params was set to true.
-                            Either include all path-params (`nil` is not allowed), or if your URL actually contains ':' in the path, set :strict-path-params to false in the options"
-                                             {:path-parts  path-parts
-                                              :path-params path-params
-                                              :options     opts
-                                              :route       route})))
-        path-chunk         (str/join \/ (map #(get path-params % %) path-parts))
-        path               (if (and (= \/ (last path))
-                                    (not= \/ (last path-chunk)))
-                             (str path-chunk "/")
-                             path-chunk)
-        request-scheme     (:scheme request)
-        request-host       (:server-name request)
-        request-port       (:server-port request)
-        scheme             (or override-scheme scheme request-scheme)
-        host               (or override-host host request-host)
-        port               (or override-port port request-port)
-        scheme-mismatch    (not= scheme request-scheme)
-        host-mismatch      (not= host request-host)
-        port-mismatch      (not= port request-port)]
-    (str
-      (when (or absolute? scheme-mismatch host-mismatch port-mismatch)
-        (str (when (or absolute? scheme-mismatch) (str (name scheme) \:))
-             "//"
-             host
-             (when (non-standard-port? scheme port) (str \: port))))
-      (when-not (.startsWith path "/") "/")
-      path
-      (when-not (str/blank? fragment) (str "#" fragment))
-      (when (seq query-params)
-        (str \?
-             (str/join \& (map (fn [[k v]]
-                                 (str (encode-query-part (name k))
-                                      \=
-                                      (encode-query-part (str v))))
-                               query-params)))))))
+        {:keys [scheme host port]} route
+        _               (when (true? strict-path-params?)
+                          (check-strict-path-params route opts))
+        request-scheme  (:scheme request)
+        request-host    (:server-name request)
+        request-port    (:server-port request)
+        scheme          (or override-scheme scheme request-scheme)
+        host            (or override-host host request-host)
+        port            (or override-port port request-port)
+        scheme-mismatch (not= scheme request-scheme)
+        host-mismatch   (not= host request-host)
+        port-mismatch   (not= port request-port)
+        sb              (StringBuilder.)]
+    (when (or absolute? scheme-mismatch host-mismatch port-mismatch)
+      (when (or absolute? scheme-mismatch)
+        (.append sb (name scheme))
+        (.append sb ":"))
+      (.append sb "//")
+      (.append sb (str host))
+      (when (non-standard-port? scheme port)
+        (.append sb ":")
+        (.append sb (str port))))
+    (append-path! sb route path-params opts)
+    (when-not (str/blank? fragment)
+      (.append sb "#")
+      (.append sb ^String fragment))
+    (when (seq query-params)
+      (.append sb "?")
+      (reduce-kv (fn [first? k v]
+                   (when-not first?
+                     (.append sb "&"))
+                   (.append sb (encode-query-part (name k)))
+                   (.append sb "=")
+                   (.append sb (encode-query-part (str v)))
+                   false)
+                 true
+                 query-params))
+    (.toString sb)))
 
 (defn- linker-map
   "Returns a map like {app-name {route-name route}}.
@@ -310,6 +580,12 @@
               (assoc-in m [app-name route-name] route)))
           {} routes))
 
+(defn- templated-linker-map
+  "As [[linker-map]], for the routes of the routing table, with each route's URL template compiled."
+  [routing-table]
+  (linker-map (map #(assoc % ::url-template (url-template %))
+                   (internal/extract-routes routing-table))))
+
 (defn- find-route
   "Finds and returns a route in the map returned by linker-map, or
   throws an exception if not found."
@@ -320,6 +596,18 @@
                       {:app-name   app-name
                        :route-name route-name}))))
 
+(defn- compile-linker
+  "Returns a function of default options, route name, and options (a seq of keys and values) that
+  returns a URL string. The linker is independent of any request, and is shared by all requests
+  routed with the same routing table."
+  [routing-table]
+  (let [m (templated-linker-map routing-table)]
+    (fn [default-opts route-name options]
+      (let [{:keys [app-name] :as options-map} options
+            route (find-route m (or app-name (:app-name default-opts)) route-name)
+            opts  (combine-opts options-map default-opts route)]
+        (link-str route opts)))))
+
 (defn url-for-routes
   "Returns a function that generates URL routes (as strings) from the
   routing table. The returned function has the signature:
@@ -351,15 +639,10 @@
   function."
   [routing-table & default-options]
   {:pre []}
-  (let [routes (internal/extract-routes routing-table)
-        {:as default-opts} default-options
-        m      (linker-map routes)]
+  (let [{:as default-opts} default-options
+        linker (compile-linker routing-table)]
     (fn [route-name & options]
-      (let [{:keys [app-name] :as options-map} options
-            default-app-name (:app-name default-opts)
-            route            (find-route m (or app-name default-app-name) route-name)
-            opts             (combine-opts options-map default-opts route)]
-        (link-str route opts)))))
+      (linker default-opts route-name options))))
 
 (def ^:private ^:dynamic *url-for*
   "Dynamic var which holds the 'contextual' linker. The contextual
@@ -379,7 +662,9 @@
   from request processing threads, and only *after* the routing interceptor has routed
   the request.
 
-  The available options are as described in [[url-for-routes]]."
+  The available options are as described in [[url-for-routes]].
+
+  When [[*bind-url-for*]] is false, the hidden variable is not bound; use [[url-for-context]] instead."
   [route-name & options]
   (if *url-for*
     ;; The linker (stored in *url-for*) is rarely used outside of tests, so it is a delay object
@@ -387,6 +672,18 @@
     (apply @*url-for* route-name options)
     (throw (ex-info "*url-for* not bound" {}))))
 
+(defn url-for-context
+  "Generates a URL, as with [[url-for]], but obtains the linker explicitly from the :url-for key of the
+  context or request map (both are set by the router), rather than from a dynamic variable.
+
+  This works whether or not the router binds the dynamic variable (see [[*bind-url-for*]]), and
+  is not affected by which thread is executing the interceptor."
+  {:added "0.8.2"}
+  [context-or-request route-name & options]
+  (if-let [linker (:url-for context-or-request)]
+    (apply @linker route-name options)
+    (throw (ex-info "No :url-for linker in context or request; the request has not been routed" {}))))
+
 (defprotocol ExpandableRoutes
   "A protocol extended onto types that can be used to convert instances into a
   [[RoutingFragment]].  The fragments are combined into a routing table
@@ -422,6 +719,14 @@
                     {:value route-spec})))
   route-spec)
 
+(defn- expand-route-spec
+  [route-spec]
+  (->> route-spec
+       check-satifies-expandable-routes
+       -expand-routes
+       types/fragment-routes
+       (mapv internal/inject-path-re)))
+
 (defn expand-routes
   "Converts any number of route fragments into a fully expanded routing table.
 
@@ -438,51 +743,110 @@
   (when-not (seq route-specs)
     (throw (IllegalArgumentException. "Must provide at least one routing specification")))
   (->> route-specs
-       (map check-satifies-expandable-routes)
-       (map -expand-routes)
-       (mapcat types/fragment-routes)
-       (map internal/inject-path-re)
+       (mapcat expand-route-spec)
        definition/verify-unique-route-names
        types/->RoutingTable))
 
+(defn ^:no-doc expand-routes-cached
+  "Used by [[routes-from]] in development mode; a variant of [[expand-routes]] that reuses the
+  expanded routes of any route specification that is unchanged (equal to a specification
+  from the prior invocation).  The cache is stored in the provided atom.
+
+  When no route specification has changed, the resulting routing table is equal to the prior
+  routing table, which allows the router to be reused rather than rebuilt."
+  {:added "0.8.2"}
+  [*expansions & route-specs]
+  (when-not (seq route-specs)
+    (throw (IllegalArgumentException. "Must provide at least one routing specification")))
+  (let [route-specs (vec route-specs)
+        {:keys [expansions routing-table] :as prior} @*expansions]
+    ;; Order matters (and a specification may be repeated), so compare against the prior specifications
+    (if (and routing-table
+             (= route-specs (:route-specs prior)))
+      routing-table
+      (let [expanded       (mapv #(or (get expansions %)
+                                      (expand-route-spec %))
+                                 route-specs)
+            routing-table' (->> expanded
+                                (apply concat)
+                                definition/verify-unique-route-names
+                                types/->RoutingTable)]
+        (reset! *expansions {:route-specs   route-specs
+                             :expansions    (zipmap route-specs expanded)
+                             :routing-table routing-table'})
+        routing-table'))))
+
 
 (defn- route-context
-  [context router-fn routing-table]
+  [context router-fn linker bind-url-for?]
   (if-let [[route path-params] (router-fn (:request context))]
     ;;  This is where path-params are added to the request.
     (let [request' (assoc (:request context) :path-params path-params)
-          ;; Rarely used, potentially expensive to create, delay creation until needed.
-          linker   (delay (url-for-routes routing-table :request request'))]
+          ;; The compiled linker is shared; this only captures the request.
+          linker   (delay
+                     (let [default-opts {:request request'}]
+                       (fn [route-name & options]
+                         (linker default-opts route-name options))))]
       (-> context
           (assoc :route route
                  :request (assoc request' :url-for linker)
                  :url-for linker)
-          (assoc-in [:bindings #'*url-for*] linker)
+          (cond-> bind-url-for? (assoc-in [:bindings #'*url-for*] linker))
           (interceptor.chain/enqueue (:interceptors route))))
     ;; Key present but nil indicates that routing failed (the request could not be
     ;; mapped to a route).
     (assoc context :route nil)))
 
+(defn- with-span-data
+  "Precomputes, as metadata on the route, the span name and attributes used
+  by io.pedestal.http.tracing once a request is routed; metadata does not affect route equality.
+  The span name is omitted for routes that match any method."
+  [route]
+  (let [{:keys [method path route-name]} route]
+    (vary-meta route assoc ::span-data
+               {:span-name  (when (and method path (not= :any method))
+                              (str (-> method name str/upper-case) " " path))
+                :attributes (tracing/attributes (cond-> {}
+                                                  path (assoc :http.route path)
+                                                  route-name (assoc :route.name route-name)))})))
+
+(defn- build-router
+  [router-ctor routing-table]
+  (metrics/timed ::router-build nil
+    (router-ctor (mapv with-span-data (:routes routing-table)))))
+
 (defn- construct-router-interceptor-from-table
-  [routing-table router-ctor]
+  [routing-table router-ctor bind-url-for?]
   {:pre [is-routing-table?]}
-  (let [routes    (:routes routing-table)
-        router-fn (router-ctor routes)]
+  (let [router-fn (build-router router-ctor routing-table)
+        linker    (compile-linker routing-table)]
     (interceptor/interceptor
       {:name  ::router
-       :enter #(route-context % router-fn routing-table)})))
+       :enter #(route-context % router-fn linker bind-url-for?)})))
 
 (defn- construct-router-interceptor-from-fn
-  [f router-ctor]
-  (interceptor/interceptor
-    {:name  ::router
-     :enter (fn [context]
-              ;; The table and the router are rebuilt on each execution; good for development,
-              ;; very, very, very bad for production.
-              (let [routing-table (f)
-                    routes        (:routes routing-table)
-                    router-fn     (router-ctor routes)]
-                (route-context context router-fn routing-table)))}))
+  [f router-ctor bind-url-for?]
+  ;; The routing table is obtained on each execution; good for development,
+  ;; very, very, very bad for production.  The router is only rebuilt when the routing
+  ;; table changes; the new router is swapped in atomically, and other requests continue
+  ;; to use the prior router until then.
+  (let [*current   (atom nil)
+        rebuild-fn (metrics/counter ::router-rebuild nil)]
+    (interceptor/interceptor
+      {:name  ::router
+       :enter (fn [context]
+                (let [routing-table (f)
+                      current       @*current
+                      current'      (if (= routing-table (:routing-table current))
+                                      current
+                                      (let [current' {:routing-table routing-table
+                                                      :router-fn     (build-router router-ctor routing-table)
+                                                      :linker        (compile-linker routing-table)}]
+                                        (when current
+                                          (rebuild-fn))
+                                        (reset! *current current')
+                                        current'))]
+                  (route-context context (:router-fn current') (:linker current') bind-url-for?)))})))
 
 (def router-implementations
   "Maps from the common router implementations (:map-tree, :prefix-tree, :sawtooth,
@@ -501,6 +865,13 @@
 
   A router function will be passed the request map, and return nil, or a matching route.
 
+  When routing-table is a function (as with [[routes-from]] in development mode), it is invoked on each request,
+  but the router is only rebuilt when the returned routing table changes; the :sawtooth router rebuilds
+  only the portions of the router affected by changed routes.
+
+  The time to build the router is recorded by the :io.pedestal.http.route/router-build timer metric, and
+  each rebuild (after a change to the routing table) increments the :io.pedestal.http.route/router-rebuild counter.
+
   The default router type is :sawtooth."
   ([routing-table]
    (router routing-table :sawtooth))
@@ -512,14 +883,22 @@
                    (keys router-implementations)))
    (assert (or (fn? routing-table)
                (is-routing-table? routing-table)))
-   (let [router-ctor    (if (fn? router-type)
+   (let [router-ctor    (cond
+                          (fn? router-type)
                           router-type
+
+                          ;; Sawtooth can rebuild just the portions of the router affected by changed routes.
+                          (and (fn? routing-table)
+                               (= :sawtooth router-type))
+                          (sawtooth/incremental-router)
+
+                          :else
                           (router-type router-implementations))
          routing-table' (cond-> routing-table
                           *print-routing-table* internal/wrap-routing-table)]
      (if (fn? routing-table')
-       (construct-router-interceptor-from-fn routing-table' router-ctor)
-       (construct-router-interceptor-from-table routing-table' router-ctor)))))
+       (construct-router-interceptor-from-fn routing-table' router-ctor *bind-url-for*)
+       (construct-router-interceptor-from-table routing-table' router-ctor *bind-url-for*)))))
 
 (defn- attach-bad-request-response
   [context exception]
@@ -541,6 +920,30 @@
                 (catch IllegalArgumentException e
                   (attach-bad-request-response ctx e))))}))
 
+(defn lazy-query-params
+  "Returns an interceptor that, like [[query-params]], provides query-string parameters as the :query-params
+  (and :params) of the request.
+
+  The parameters are a lazy map: looking up a parameter (by an unqualified keyword) scans the raw query string,
+  decoding only the matching values; any other use of the map, such as iterating it, parses the entire
+  query string.  Because parsing is deferred, a malformed encoding in a value only throws an exception when that value
+  is looked up.
+
+  Requests with more than :max-params parameters (default 1024) are rejected with a 400 Bad Request response."
+  {:added "0.8.2"}
+  ([]
+   (lazy-query-params nil))
+  ([options]
+   (let [{:keys [max-params]
+          :or   {max-params 1024}} options]
+     (interceptor/interceptor
+       {:name  ::lazy-query-params
+        :enter (fn [ctx]
+                 (try
+                   (update ctx :request parse-lazy-query-params max-params)
+                   (catch IllegalArgumentException e
+                     (attach-bad-request-response ctx e))))}))))
+
 (def path-params-decoder
   "An Interceptor which URL-decodes path parameters.
   The path parameters are assoc'd into the :request map with key :path-parameters.
@@ -600,9 +1003,8 @@
   The routing-table is obtained from [[expand-routes]].
   "
   [routing-table & default-options]
-  (let [routes (internal/extract-routes routing-table)
-        {:as default-opts} default-options
-        m      (linker-map routes)]
+  (let [{:as default-opts} default-options
+        m (templated-linker-map routing-table)]
     (fn [route-name & options]
       (let [{:keys [app-name] :as options-map} options
             {:keys [method] :as route} (find-route m app-name route-name)
@@ -662,4 +1064,4 @@
   [& route-exprs]
   (if-not dev-mode?
     `(expand-routes ~@route-exprs)
-    (internal/create-routes-from-fn route-exprs &env `expand-routes)))
+    (internal/create-routes-from-fn route-exprs &env `expand-routes-cached)))
@@ -134,14 +134,18 @@
         expr))))
 
 (defn create-routes-from-fn
-  "Core of the route/routes-from macro."
-  [route-spec-exprs env expand-routes]
+  "Core of the route/routes-from macro.
+
+  expand-routes-cached is passed an atom (used to cache expansions between invocations), followed by the
+  route specifications."
+  [route-spec-exprs env expand-routes-cached]
   (let [exprs (map (rewrite-for-reload env) route-spec-exprs)
         code  `(fn []
-                 (~expand-routes ~@exprs))]
+                 (~expand-routes-cached *expansions# ~@exprs))]
     ;; This is very handy and, of course, only occurs in development mode.
-    `(with-meta ~code
-                {:code '~code})))
+    `(let [*expansions# (atom nil)]
+       (with-meta ~code
+                  {:code '~code}))))
 
 (defn- satisfies-query-constraints
   "Given a map of query constraints, return a predicate function of
@@ -16,6 +16,14 @@
   (:require [io.pedestal.http.route.internal :as internal]
             [io.pedestal.http.route.sawtooth.impl :as impl]))
 
+(defn- matcher->router
+  [matcher]
+  (fn [request]
+    (when-let [[route path-params] (matcher request)]
+      (when (internal/satisfies-constraints? request route path-params)
+        ;; tests fail if path-params is nil
+        [route (or path-params {})]))))
+
 (defn router
   [routes]
   (let [[matcher conflicts] (->> routes
@@ -24,8 +32,27 @@
                                  impl/create-matcher-from-routes)]
     (when (seq conflicts)
       (impl/report-conflicts conflicts routes))
-    (fn [request]
-      (when-let [[route path-params] (matcher request)]
-        (when (internal/satisfies-constraints? request route path-params)
-          ;; tests fail if path-params is nil
-          [route (or path-params {})])))))
+    (matcher->router matcher)))
+
+(defn incremental-router
+  "Returns a router constructor: a function that is passed routes, and returns a router function (as with [[router]]).
+
+  The constructor retains state from each invocation to the next; when invoked again (with a changed
+  set of routes), only the portions of the router affected by the changed routes are rebuilt.
+  This supports efficient rebuilds of the router during development."
+  {:added "0.8.2"}
+  []
+  (let [*state (atom nil)]
+    (fn [routes]
+      (let [{:keys [prepared cache]} @*state
+            routes'         (internal/extract-routes routes)
+            ;; Reusing the prepared routes allows the impl to identify unchanged portions of the router
+            prepared-routes (mapv #(or (get prepared %)
+                                       (internal/add-satisfies-constraints? %))
+                                  routes')
+            [matcher conflicts cache'] (impl/create-matcher-from-routes prepared-routes cache)]
+        (reset! *state {:prepared (zipmap routes' prepared-routes)
+                        :cache    cache'})
+        (when (seq conflicts)
+          (impl/report-conflicts conflicts routes'))
+        (matcher->router matcher)))))
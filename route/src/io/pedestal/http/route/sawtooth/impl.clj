@@ -16,18 +16,74 @@
 
 (def ^:dynamic *squash-conflicts-report* false)
 
-(defmacro with-split-path
-  [path [path-term remaining-path] & body]
+;; Matching works on offsets into the request path, rather than on substrings of it; Strings are only
+;; created for the values of path parameters.  Each matcher function is passed the path, the start offset of the
+;; remaining (unmatched) portion of the path, and the map of path params.  When the start offset is greater than the
+;; length of the path, the path has been completely consumed (this is distinct from a trailing slash, where the start
+;; offset is equal to the length of the path, and the remaining path is the empty string).
+
+(defmacro with-term-end
+  "Binds term-end to the offset of the end of the path term that starts at start: the index of the next slash,
+  or the length of the path.  The remaining path after the term starts at (inc term-end)."
+  [path start term-end & body]
   `(let [^String path# ~path
-         slashx#       (.indexOf path# "/")
-         at-end?#      (neg? slashx#)
-         ~path-term (if at-end?#
-                      path#
-                      (.substring path# 0 slashx#))
-         ~remaining-path (when-not at-end?#
-                           (.substring path# (inc slashx#)))]
+         slashx#       (.indexOf path# (int \/) (int ~start))
+         ~term-end (if (neg? slashx#)
+                     (.length path#)
+                     slashx#)]
      ~@body))
 
+(defn- consumed?
+  [^String path ^long start]
+  (> start (.length path)))
+
+(defn- region-hash
+  "Computes the hash code of the region of the path, identical to the hash code of
+  the equivalent substring."
+  ^long [^String path ^long start ^long end]
+  (loop [i start
+         h (int 0)]
+    (if (< i end)
+      (recur (inc i)
+             (unchecked-add-int (unchecked-multiply-int 31 h) (int (.charAt path i))))
+      h)))
+
+(defn- region-lookup
+  "Given a map with String keys, returns a function that is passed a path, start, and end offsets, and returns
+  the value for the matching key (without creating a String for the region)."
+  [m]
+  ;; An open hash table: keys, their hashes, and values are stored in parallel arrays, grouped by bucket;
+  ;; bucket b occupies indexes from (aget starts b) up to (aget starts (inc b)).
+  (let [bucket-count (loop [n 1]
+                       (if (< n (* 2 (count m)))
+                         (recur (* 2 n))
+                         n))
+        mask         (dec bucket-count)
+        bucket-of    (fn [^String k] (bit-and (.hashCode k) mask))
+        entries      (sort-by (comp bucket-of key) m)
+        ^ints hashes (int-array (map #(.hashCode ^String (key %)) entries))
+        ^objects ks  (object-array (map key entries))
+        ^objects vs  (object-array (map val entries))
+        ^ints starts (int-array (inc bucket-count))]
+    (doseq [e entries]
+      (let [b (long (bucket-of (key e)))]
+        (aset starts (inc b) (int (inc (aget starts (inc b)))))))
+    (dotimes [b bucket-count]
+      (aset starts (inc b) (int (+ (aget starts (inc b)) (aget starts b)))))
+    (fn lookup-region [^String path ^long start ^long end]
+      (let [n     (int (- end start))
+            h     (int (region-hash path start end))
+            b     (bit-and h (int mask))
+            limit (aget starts (inc b))]
+        (loop [i (aget starts b)]
+          (when (< i limit)
+            (let [^String k (aget ks i)]
+              (if (and (== h (aget hashes i))
+                       (== n (.length k))
+                       (.regionMatches path (int start) k 0 n))
+                (aget vs i)
+                (recur (inc i))))))))))
+
 (defn- return-nil [_request] nil)
 
 (defn- categorize-by
@@ -124,43 +180,54 @@
 (defn- literal-suffix-matcher
   "Used when all the path terms are literals (no :param or :wild)."
   [expected-terms route]
-  (let [expected-path (when (seq expected-terms)
-                        (string/join "/" expected-terms))]
-    (fn match-literal-suffix [remaining-path params-map]
-      (when (= remaining-path expected-path)
-        [route params-map]))))
+  (if-not (seq expected-terms)
+    (fn match-consumed [path start params-map]
+      (when (consumed? path start)
+        [route params-map]))
+    (let [^String expected-path (string/join "/" expected-terms)
+          n                     (.length expected-path)]
+      (fn match-literal-suffix [^String path start params-map]
+        (let [start (long start)]
+          (when (and (= n (- (.length path) start))
+                     (.startsWith path expected-path (int start)))
+            [route params-map]))))))
 
 (defn- literal-prefix-matcher
   "Matches some literal path terms before delegating to another path matcher."
   [expected-terms-prefix next-fn]
   (let [expected-prefix (str (string/join "/" expected-terms-prefix) "/")
         n               (count expected-prefix)]
-    (fn match-literal-prefix [remaining-path params-map]
-      (when (string/starts-with? remaining-path expected-prefix)
-        (next-fn (subs remaining-path n) params-map)))))
+    (fn match-literal-prefix [^String path start params-map]
+      (let [start (long start)]
+        (when (and (not (consumed? path start))
+                   (.startsWith path expected-prefix (int start)))
+          (next-fn path (+ start n) params-map))))))
 
 (defn- tail-param-matcher
   [param-id route]
-  (fn match-tail-param [remaining-path params-map]
-    (when remaining-path
-      (with-split-path remaining-path [term more-path]
-                       (when (nil? more-path)
-                         [route (assoc params-map param-id term)])))))
+  (fn match-tail-param [^String path start params-map]
+    (let [start (long start)]
+      (when-not (consumed? path start)
+        (with-term-end path start term-end
+          (when (= term-end (.length path))
+            [route (assoc params-map param-id (.substring path (int start) (int term-end)))]))))))
 
 (defn- param-matcher
   [param-id next-fn]
-  (fn match-param [remaining-path params-map]
-    (when remaining-path
-      (with-split-path remaining-path [term more-path]
-                       (when more-path
-                         (next-fn more-path (assoc params-map param-id term)))))))
+  (fn match-param [^String path start params-map]
+    (let [start (long start)]
+      (when-not (consumed? path start)
+        (with-term-end path start term-end
+          (when (< term-end (.length path))
+            (next-fn path (inc term-end) (assoc params-map param-id (.substring path (int start) (int term-end))))))))))
 
 (defn- wild-matcher
   ;; Wild is always at the end
   [param-id route]
-  (fn match-wild [remaining-path params-map]
-    (when (pos? (count remaining-path))
-      [route (assoc params-map param-id remaining-path)])))
+  (fn match-wild [^String path start params-map]
+    (let [start (long start)]
+      (when (< start (.length path))
+        [route (assoc params-map param-id (.substring path (int start)))]))))
 
 (defn- prefix-length
   [pred coll]
@@ -220,20 +287,20 @@
       1 (first matcher-fns)
 
       2 (let [[m1 m2] matcher-fns]
-          (fn match-one-of-two [remaining-path params-map]
-            (or (m1 remaining-path params-map)
-                (m2 remaining-path params-map))))
+          (fn match-one-of-two [path start params-map]
+            (or (m1 path start params-map)
+                (m2 path start params-map))))
 
       3 (let [[m1 m2 m3] matcher-fns]
-          (fn match-one-of-three [remaining-path params-map]
-            (or (m1 remaining-path params-map)
-                (m2 remaining-path params-map)
-                (m3 remaining-path params-map))))
+          (fn match-one-of-three [path start params-map]
+            (or (m1 path start params-map)
+                (m2 path start params-map)
+                (m3 path start params-map))))
 
       ;; Default, general case
-      (fn [remaining-path params-map]
+      (fn [path start params-map]
         (reduce (fn match-one-of-several [_ matcher]
-                  (when-some [result (matcher remaining-path params-map)]
+                  (when-some [result (matcher path start params-map)]
                     (reduced result)))
                 nil
                 matcher-fns)))))
@@ -246,18 +313,22 @@
 
 (defn- match-via-lookup
   [paths]
-  (let [path->route (reduce (fn [m path]
-                              (assoc m
-                                     (let [tokens (->> path :unmatched-terms (mapv :token))]
-                                       ;; nil is a valid key that matches when all the unmatched tokens in the path
-                                       ;; have been consumed by prior matchers.
-                                       (when (seq tokens)
-                                         (string/join "/" tokens)))
-                                     (:route path)))
-                            {}
-                            paths)]
-    (fn match-by-remaining-path [remaining-path path-params]
-      (when-let [route (get path->route remaining-path)]
+  (let [path->route     (reduce (fn [m path]
+                                  (assoc m
+                                         (let [tokens (->> path :unmatched-terms (mapv :token))]
+                                           ;; nil is a valid key that matches when all the unmatched tokens in the path
+                                           ;; have been consumed by prior matchers.
+                                           (when (seq tokens)
+                                             (string/join "/" tokens)))
+                                         (:route path)))
+                                {}
+                                paths)
+        consumed-route  (get path->route nil)
+        remaining-route (region-lookup (dissoc path->route nil))]
+    (fn match-by-remaining-path [^String path start path-params]
+      (when-let [route (if (consumed? path start)
+                         consumed-route
+                         (remaining-route path start (.length path)))]
         [route path-params]))))
 
 (defn- matcher-by-first-token
@@ -283,12 +354,14 @@
                                                                (subdivide-by-path matched' paths-for-token'))]
                                         (assoc m literal-token matcher)))
                                     {}
-                                    token->paths)]
-        (fn [remaining-path params-map]
-          (when remaining-path
-            (with-split-path remaining-path [first-term more-path]
-                             (when-let [matcher (literal-term->matcher first-term)]
-                               (matcher more-path params-map)))))))))
+                                    token->paths)
+            term-matcher          (region-lookup literal-term->matcher)]
+        (fn [path start params-map]
+          (let [start (long start)]
+            (when-not (consumed? path start)
+              (with-term-end path start term-end
+                (when-let [matcher (term-matcher path start term-end)]
+                  (matcher path (inc term-end) params-map))))))))))
 
 (defn- subdivide-by-path
   [matched paths]
@@ -301,11 +374,11 @@
                                   ;; TODO: Should only be one, right? Unless conflicts.
                                   (let [route (-> completed-paths first :route)]
                                     (if (= "/" (:path route))
-                                      (fn root-match-completed [remaining-path params-map]
-                                        (when (= "" remaining-path)
+                                      (fn root-match-completed [^String path start params-map]
+                                        (when (= (long start) (.length path))
                                           [route params-map]))
-                                      (fn match-completed [remaining-path params-map]
-                                        (when (nil? remaining-path)
+                                      (fn match-completed [path start params-map]
+                                        (when (consumed? path start)
                                           [route params-map])))))
         by-first-token          (group-by #(-> % :unmatched-terms first :token) other-paths)
         {params :param
@@ -324,17 +397,30 @@
                                   wilds (into (mapv #(matcher-from-path matched %) wilds)))]
     (combine-matchers matched all-matchers)))
 
-(defn- match-by-path
-  [*conflicts matched routes]
+(defn- build-path-matcher
+  [matched routes]
   (let [paths   (mapv route->path routes)
         matcher (subdivide-by-path matched paths)]
-    (collect-conflicts *conflicts paths)                    ; Side effect
-    (fn match-on-path [{:keys [path-info]}]
-      ;; Strip off the leading slash and start matching
-      (matcher (subs path-info 1) nil))))
+    {:matcher   (fn match-on-path [{:keys [path-info]}]
+                  ;; Skip the leading slash and start matching
+                  (matcher path-info 1 nil))
+     :conflicts (collect-conflicts (volatile! nil) paths)}))
+
+(defn- match-by-path
+  [*conflicts *cache matched routes]
+  ;; *cache tracks the :prior path matchers (from a previous build of the router, if any) and the
+  ;; :current path matchers; path matchers are reused when the same set of routes is matched.
+  (let [cache-key [matched (set routes)]
+        {:keys [matcher conflicts]
+         :as   entry} (or (get-in @*cache [:prior cache-key])
+                          (build-path-matcher matched routes))]
+    (vswap! *cache assoc-in [:current cache-key] entry)
+    (when conflicts
+      (vswap! *conflicts #(merge-with into % conflicts)))   ; Side effect
+    matcher))
 
 (defn- subdivide-by-request-key
-  [filters matched routes *conflicts]
+  [filters matched routes *conflicts *cache]
   ;; matched here is a map, which becomes the first element in a vector once
   ;; we start matching by path (the other elements are terms from the path).
   ;; This isn't actually needed at all for the logic, but it's very handy
@@ -342,7 +428,7 @@
   ;; construction of the routing function, with no cost during execution of that
   ;; function.
   (if-not (seq filters)
-    (match-by-path *conflicts [matched] routes)
+    (match-by-path *conflicts *cache [matched] routes)
     (let [[first-filter & more-filters] filters
           [request-key route-key match-any-value] first-filter
           grouped           (group-by route-key routes)
@@ -354,7 +440,8 @@
                               (subdivide-by-request-key more-filters
                                                         (assoc matched route-key match-any-value)
                                                         match-any-routes
-                                                        *conflicts)
+                                                        *conflicts
+                                                        *cache)
                               return-nil)]
       ;; So, if none of the routes care about this particular request key, then we can optimize:
       ;; we can skip right to the match-any-matcher as if we looked it up in the dispatch-map
@@ -368,7 +455,8 @@
                                                   more-filters
                                                   (assoc matched route-key match-value)
                                                   all-routes
-                                                  *conflicts)]
+                                                  *conflicts
+                                                  *cache)]
                                  (assoc m match-value matcher)))
                              {}
                              grouped')]
@@ -389,20 +477,29 @@
   "Given a routing table, constructs a function that can be passed a request map,
   and returns a tuple of [route params-map] or nil if no match.
 
-  This function returns a tuple of [matcher-fn conflicts]."
-  [routes]
-  (let [*conflicts (volatile! nil)
-        matcher-fn (subdivide-by-request-key
-                     ;; Could be that some analysis of the routes would identify an optimum order
-                     ;; for these.
-                     [[:server-port :port nil]
-                      [:server-name :host nil]
-                      [:scheme :scheme nil]
-                      [:request-method :method :any]]
-                     {}
-                     routes
-                     *conflicts)]
-    [matcher-fn @*conflicts]))
+  This function returns a tuple of [matcher-fn conflicts].
+
+  With the cache arity, the cache (from a prior invocation, or nil) is used to reuse portions of
+  the matcher whose routes are unchanged, and the result is a tuple of [matcher-fn conflicts cache]."
+  ([routes]
+   (let [[matcher-fn conflicts _] (create-matcher-from-routes routes nil)]
+     [matcher-fn conflicts]))
+  ([routes cache]
+   (let [*conflicts (volatile! nil)
+         *cache     (volatile! {:prior   cache
+                                :current {}})
+         matcher-fn (subdivide-by-request-key
+                      ;; Could be that some analysis of the routes would identify an optimum order
+                      ;; for these.
+                      [[:server-port :port nil]
+                       [:server-name :host nil]
+                       [:scheme :scheme nil]
+                       [:request-method :method :any]]
+                      {}
+                      routes
+                      *conflicts
+                      *cache)]
+     [matcher-fn @*conflicts (:current @*cache)])))
 
 
 (defn- format-route
@@ -14,7 +14,8 @@
             [io.pedestal.interceptor.specs :as interceptor]))
 
 (s/def ::connector-map (s/keys
-                         :req-un [::port ::host ::interceptors ::initial-context ::join?]))
+                         :req-un [::port ::host ::interceptors ::initial-context ::join?]
+                         :opt-un [::virtual-threads?]))
 
 (s/def ::port integer?)
 (s/def ::host string?)
@@ -25,4 +26,5 @@
                                  :into []))
 (s/def ::initial-context map?)
 (s/def ::join boolean?)
+(s/def ::virtual-threads? boolean?)
 
@@ -16,13 +16,17 @@
   the content type header.  This results in new keys on the request map, depending on the type
   of data parsed."
   (:require [clojure.edn :as edn]
+            [clojure.string :as string]
             [io.pedestal.json :as json]
             [io.pedestal.http.params :as pedestal-params]
             [io.pedestal.interceptor :refer [interceptor]]
             [cognitect.transit :as transit]
             [io.pedestal.internal :refer [deprecated]]
             [ring.middleware.params :as params])
-  (:import (java.io EOFException InputStream InputStreamReader PushbackInputStream PushbackReader)
+  (:import (clojure.lang AFn ILookup IFn IHashEq IMeta IObj IPersistentMap MapEntry MapEquivalence)
+           (java.io BufferedReader EOFException FilterInputStream InputStream InputStreamReader OutputStream
+                    PushbackInputStream PushbackReader StringReader)
+           (java.util Map)
            (java.util.regex Pattern)))
 
 (defn- search-for-parser
@@ -122,6 +126,33 @@
             json-params (json/read-json reader options')]
         (assoc request :json-params json-params)))))
 
+(defn custom-ndjson-parser
+  "Returns a function that, given a request, parses the body as newline-delimited JSON (one JSON value per line),
+  useful for bulk-ingest endpoints.
+
+  The :json-params key of the request is a lazy sequence of the parsed values; the body is read as the
+  sequence is consumed, so it should be consumed before the response is sent.  Blank lines are ignored.
+
+  Options are as with [[custom-json-parser]].
+
+  This parser is not part of the [[default-parser-map]]; it can be added with [[add-parser]]:
+
+      (add-parser (default-parser-map) #"^application/(x-)?ndjson" (custom-ndjson-parser))"
+  {:added "0.8.2"}
+  [& {:as options}]
+  (let [options' (merge {:key-fn     keyword
+                         :eof-error? false
+                         :eof-value  nil} options)]
+    (fn [request]
+      (let [encoding (or (:character-encoding request) "UTF-8")
+            reader   (BufferedReader. (InputStreamReader.
+                                        ^InputStream (:body request)
+                                        ^String encoding))]
+        (assoc request
+               :json-params (->> (line-seq reader)
+                                 (remove string/blank?)
+                                 (map #(json/read-json (StringReader. %) options'))))))))
+
 (defn custom-transit-parser
   "Return a transit-parser fn that, given a request, will read the
   body of that request with `transit/read`. options is a sequence to
@@ -186,6 +217,203 @@
         (add-parser #"^application/transit\+json" (apply custom-transit-parser :json transit-options))
         (add-parser #"^application/transit\+msgpack" (apply custom-transit-parser :msgpack transit-options)))))
 
+;; Lazy parsing: the request map is wrapped, and the body is parsed on first access to any of
+;; the keys a parser may add or change.
+
+(defn- lazy-value
+  [parsed base k not-found]
+  (let [parsed-request @parsed]
+    (if (contains? parsed-request k)
+      (get parsed-request k)
+      (get base k not-found))))
+
+(declare realize-request)
+
+(deftype ^:no-doc LazyBodyRequest [base lazy-keys parsed meta-map]
+
+  ;; base - the request map, not yet parsed
+  ;; lazy-keys - the keys whose values are from the parsed request
+  ;; parsed - a Delay of the parsed request
+
+  ILookup
+  (valAt [this k]
+    (.valAt this k nil))
+  (valAt [_ k not-found]
+    (if (contains? lazy-keys k)
+      (lazy-value parsed base k not-found)
+      (get base k not-found)))
+
+  IFn
+  (invoke [this k]
+    (.valAt this k nil))
+  (invoke [this k not-found]
+    (.valAt this k not-found))
+  (applyTo [this args]
+    (AFn/applyToHelper this args))
+
+  IPersistentMap
+  ;; A key that is explicitly assoc'ed (or dissoc'ed) is no longer lazy.
+  (assoc [_ k v]
+    (LazyBodyRequest. (assoc base k v) (disj lazy-keys k) parsed meta-map))
+  (assocEx [this k v]
+    (if (.containsKey this k)
+      (throw (IllegalArgumentException. (str "Key already present: " k)))
+      (.assoc this k v)))
+  (without [_ k]
+    (LazyBodyRequest. (dissoc base k) (disj lazy-keys k) parsed meta-map))
+  (containsKey [_ k]
+    (or (contains? base k)
+        (and (contains? lazy-keys k)
+             (contains? @parsed k))))
+  (entryAt [this k]
+    (when (.containsKey this k)
+      (MapEntry/create k (.valAt this k))))
+  (count [this]
+    (count (realize-request this)))
+  (cons [this o]
+    (if (map? o)
+      (reduce-kv assoc this o)
+      (let [[k v] o]
+        (.assoc this k v))))
+  (empty [_]
+    (with-meta {} meta-map))
+  (equiv [this o]
+    (= (realize-request this) o))
+  (seq [this]
+    (seq (realize-request this)))
+  (iterator [this]
+    (.iterator ^Iterable (realize-request this)))
+
+  MapEquivalence
+
+  IHashEq
+  (hasheq [this]
+    (hash (realize-request this)))
+
+  IMeta
+  (meta [_] meta-map)
+
+  IObj
+  (withMeta [_ m]
+    (LazyBodyRequest. base lazy-keys parsed m))
+
+  Map
+  (size [this]
+    (count (realize-request this)))
+  (isEmpty [this]
+    (empty? (realize-request this)))
+  (containsValue [this v]
+    (.containsValue ^Map (realize-request this) v))
+  (get [this k]
+    (.valAt this k nil))
+  (keySet [this]
+    (.keySet ^Map (realize-request this)))
+  (values [this]
+    (.values ^Map (realize-request this)))
+  (entrySet [this]
+    (.entrySet ^Map (realize-request this)))
+  (put [_ _ _]
+    (throw (UnsupportedOperationException.)))
+  (remove [_ _]
+    (throw (UnsupportedOperationException.)))
+  (putAll [_ _]
+    (throw (UnsupportedOperationException.)))
+  (clear [_]
+    (throw (UnsupportedOperationException.)))
+
+  Object
+  (hashCode [this]
+    (.hashCode ^Object (realize-request this)))
+  (equals [this o]
+    (.equals ^Object (realize-request this) o))
+  (toString [this]
+    (str (realize-request this))))
+
+(defn- realize-request
+  "Parses the body, and returns the request as an ordinary map."
+  [^LazyBodyRequest request]
+  (let [base   (.base request)
+        parsed @(.parsed request)]
+    (with-meta
+      (reduce (fn [m k]
+                (if (contains? parsed k)
+                  (assoc m k (get parsed k))
+                  m))
+              base
+              (.lazy-keys request))
+      (.meta-map request))))
+
+(defn- lazy-request
+  [parser-map lazy-keys request]
+  (if (instance? InputStream (:body request))
+    (LazyBodyRequest. request lazy-keys (delay (parse-content-type parser-map request)) (meta request))
+    request))
+
+(defn- too-large-exception
+  [max-body-size]
+  (ex-info "Request body exceeds maximum size"
+           {::too-large     true
+            :status         413
+            :max-body-size  max-body-size}))
+
+(defn- too-large?
+  [t]
+  (some #(::too-large (ex-data %))
+        (take-while some? (iterate ex-cause t))))
+
+(defn- limit-body
+  "Wraps an InputStream body so that reading (or skipping) past max-body-size bytes throws an exception."
+  [body max-body-size]
+  (if-not (instance? InputStream body)
+    body
+    (let [*remaining (volatile! (long max-body-size))
+          consume    (fn [^long n]
+                       (when (pos? n)
+                         (let [remaining (- (long @*remaining) n)]
+                           (when (neg? remaining)
+                             (throw (too-large-exception max-body-size)))
+                           (vreset! *remaining remaining)))
+                       n)]
+      (proxy [FilterInputStream] [body]
+        (read
+          ([]
+           (let [b (.read ^InputStream body)]
+             (when-not (= -1 b)
+               (consume 1))
+             b))
+          ([bytes]
+           (consume (.read ^InputStream body ^bytes bytes)))
+          ([bytes offset length]
+           (consume (.read ^InputStream body ^bytes bytes (int offset) (int length)))))
+        (skip [n]
+          (consume (.skip ^InputStream body (long n))))
+        ;; FilterInputStream delegates these to the wrapped stream, bypassing the limit
+        (transferTo [^OutputStream out]
+          (let [buffer (byte-array 8192)]
+            (loop [total 0]
+              (let [n (.read ^InputStream this buffer)]
+                (if (neg? n)
+                  total
+                  (do
+                    (.write out buffer 0 n)
+                    (recur (+ total n))))))))
+        ;; Re-reading after reset would count the bytes twice
+        (markSupported [] false)))))
+
+(defn- content-length
+  [request]
+  (or (:content-length request)
+      (some-> (get-in request [:headers "content-length"]) parse-long)))
+
+(def ^:private too-large-response
+  {:status  413
+   :headers {}
+   :body    "Request body too large"})
+
+(def ^{:added "0.8.2"} default-lazy-keys
+  "The request keys that, when lazy parsing is enabled, cause the body to be parsed when accessed."
+  #{:json-params :edn-params :form-params :transit-params :params})
+
 (defn body-params
   "Returns an interceptor that will parse the body of the request according to the content type.
   The normal rules are provided by [[default-parser-map]] which maps a regular expression identifying a content type
@@ -200,10 +428,49 @@
   - :transit-params
 
   When the body is absent (or nil), then the request is not changed (no new keys are added, no
-  parsing is attempted)."
+  parsing is attempted).
+
+  Options:
+
+  Key            | Type             | Description
+  ---            |---               |---
+  :lazy?         | boolean          | If true, the body is parsed when one of the :lazy-keys is first accessed
+  :lazy-keys     | set of keywords  | Keys added or changed by parsers, defaults to [[default-lazy-keys]]
+  :max-body-size | long             | Maximum size of the request body, in bytes
+
+  With :lazy?, the request is wrapped in a map that parses the body only when one of the :lazy-keys is
+  accessed; requests to routes that never access those keys are never parsed.  Keys added by
+  custom parsers must be included in :lazy-keys.
+
+  With :max-body-size, a request whose Content-Length exceeds the maximum receives a 413 (Content Too Large) response,
+  without the body being read.  When the Content-Length is not known, reading beyond the maximum throws an exception;
+  this results in a 413 response, unless lazy parsing is enabled (in which case, the exception is thrown
+  when the parsed value is accessed, and its ex-data includes :status 413)."
   ([] (body-params (default-parser-map)))
   ([parser-map]
    (interceptor
      {:name  ::body-params
       :enter (fn [context]
-               (update context :request #(parse-content-type parser-map %)))})))
+               (update context :request #(parse-content-type parser-map %)))}))
+  ([parser-map options]
+   (let [{:keys [lazy? lazy-keys max-body-size]
+          :or   {lazy-keys default-lazy-keys}} options
+         limit    (if max-body-size
+                    #(update % :body limit-body max-body-size)
+                    identity)
+         parse-fn (if lazy?
+                    #(lazy-request parser-map lazy-keys %)
+                    #(parse-content-type parser-map %))]
+     (interceptor
+       {:name  ::body-params
+        :enter (fn [context]
+                 (let [request (:request context)]
+                   (if (and max-body-size
+                            (> (long (or (content-length request) 0)) (long max-body-size)))
+                     (assoc context :response too-large-response)
+                     (try
+                       (assoc context :request (-> request limit parse-fn))
+                       (catch Exception e
+                         (if (too-large? e)
+                           (assoc context :response too-large-response)
+                           (throw e)))))))}))))
@@ -0,0 +1,479 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.compression
+  "Streaming gzip compression of response bodies."
+  {:added "0.8.2"}
+  (:require [clojure.core.async :as async :refer [go-loop <! >!]]
+            [clojure.java.io :as io]
+            [clojure.string :as string]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.log :as log]
+            [io.pedestal.metrics :as metrics])
+  (:import (clojure.core.async.impl.protocols ReadPort)
+           (clojure.lang Fn IPersistentCollection)
+           (java.io ByteArrayOutputStream File FileInputStream InputStream OutputStream)
+           (java.nio ByteBuffer)
+           (java.nio.channels ReadableByteChannel)
+           (java.nio.charset StandardCharsets)
+           (java.util Arrays)
+           (java.util.concurrent ConcurrentLinkedQueue)
+           (java.util.concurrent.atomic AtomicInteger)
+           (java.util.zip CRC32 Deflater)))
+
+;; Deflaters hold native memory, and are relatively expensive to create; they are pooled and reused.
+
+(defn- new-pool
+  [level max-size]
+  {:queue    (ConcurrentLinkedQueue.)
+   :*size    (AtomicInteger.)
+   :level    level
+   :max-size max-size})
+
+(defn- acquire
+  ^Deflater [pool]
+  (let [{:keys [^ConcurrentLinkedQueue queue ^AtomicInteger *size level]} pool]
+    (if-let [deflater (.poll queue)]
+      (do
+        (.decrementAndGet *size)
+        deflater)
+      ;; nowrap: gzip provides its own header and trailer
+      (Deflater. (int level) true))))
+
+(defn- release
+  [pool ^Deflater deflater]
+  (let [{:keys [^ConcurrentLinkedQueue queue ^AtomicInteger *size max-size]} pool]
+    (if (< (.getAndIncrement *size) (long max-size))
+      (do
+        (.reset deflater)
+        (.offer queue deflater))
+      (do
+        (.decrementAndGet *size)
+        (.end deflater)))))
+
+;; A compressor performs streaming gzip compression: the gzip header, the raw deflate
+;; stream, and a trailer with the CRC and the uncompressed length.
+
+(def ^:private ^bytes gzip-header
+  (byte-array [0x1f 0x8b Deflater/DEFLATED 0 0 0 0 0 0 0xff]))
+
+(defn- new-compressor
+  [pool]
+  {:pool     pool
+   :deflater (acquire pool)
+   :crc      (CRC32.)
+   :buffer   (byte-array 8192)
+   :*header? (volatile! false)})
+
+(defn- drain
+  "Writes all currently available output of the deflater to out."
+  [compressor ^OutputStream out flush-mode]
+  (let [{:keys [^Deflater deflater ^bytes buffer]} compressor
+        n      (alength buffer)
+        flush? (= Deflater/SYNC_FLUSH flush-mode)]
+    (loop []
+      (let [written (.deflate deflater buffer 0 n (int flush-mode))]
+        (when (pos? written)
+          (.write out buffer 0 written))
+        (when (if flush?
+                (= written n)
+                (not (.needsInput deflater)))
+          (recur))))))
+
+(defn- write-header
+  [compressor ^OutputStream out]
+  (let [*header? (:*header? compressor)]
+    (when-not @*header?
+      (.write out gzip-header)
+      (vreset! *header? true))))
+
+(defn- compress!
+  "Compresses len bytes of input, writing the available compressed output to out.  When flush? is true,
+  all input so far is flushed to out (this is used when streaming, so that the client receives
+  data promptly)."
+  [compressor ^bytes input offset len flush? ^OutputStream out]
+  (let [{:keys [^Deflater deflater ^CRC32 crc]} compressor]
+    (write-header compressor out)
+    (.update crc input (int offset) (int len))
+    (.setInput deflater input (int offset) (int len))
+    (drain compressor out (if flush? Deflater/SYNC_FLUSH Deflater/NO_FLUSH))))
+
+(defn- write-int-le
+  [^OutputStream out ^long value]
+  (.write out (int (bit-and value 0xff)))
+  (.write out (int (bit-and (bit-shift-right value 8) 0xff)))
+  (.write out (int (bit-and (bit-shift-right value 16) 0xff)))
+  (.write out (int (bit-and (bit-shift-right value 24) 0xff))))
+
+(defn- finish!
+  "Completes compression, writing the remaining compressed output and the gzip trailer to out.
+  The compressor's Deflater is returned to the pool."
+  [compressor ^OutputStream out]
+  (let [{:keys [^Deflater deflater ^CRC32 crc ^bytes buffer pool]} compressor]
+    (try
+      (write-header compressor out)
+      (.finish deflater)
+      (while (not (.finished deflater))
+        (let [written (.deflate deflater buffer)]
+          (when (pos? written)
+            (.write out buffer 0 written))))
+      (write-int-le out (.getValue crc))
+      (write-int-le out (.getBytesRead deflater))
+      (finally
+        (release pool deflater)))))
+
+(defn- abandon!
+  [compressor]
+  (release (:pool compressor) (:deflater compressor)))
+
+(defn- compress-bytes
+  ^bytes [pool ^bytes input]
+  (let [compressor (new-compressor pool)
+        out        (ByteArrayOutputStream. (max 64 (quot (alength input) 3)))]
+    (try
+      (compress! compressor input 0 (alength input) false out)
+      (finally
+        (finish! compressor out)))
+    (.toByteArray out)))
+
+(defn- compressing-output-stream
+  "Returns an OutputStream that compresses, and writes to the delegate stream.
+  Closing the stream finishes compression, but does not close the delegate."
+  ^OutputStream [compressor ^OutputStream delegate]
+  (let [*closed? (volatile! false)]
+    (proxy [OutputStream] []
+      (write
+        ([b]
+         (if (bytes? b)
+           (compress! compressor b 0 (alength ^bytes b) false delegate)
+           (compress! compressor (byte-array [(unchecked-byte b)]) 0 1 false delegate)))
+        ([b off len]
+         (compress! compressor b off len false delegate)))
+      (flush []
+        (drain compressor delegate Deflater/SYNC_FLUSH)
+        (.flush delegate))
+      (close []
+        (when-not @*closed?
+          (vreset! *closed? true)
+          (finish! compressor delegate)
+          (.flush delegate))))))
+
+(defn- streaming-body
+  "Returns a function body that invokes write-fn, passing it an OutputStream that compresses."
+  [pool write-fn]
+  (fn [^OutputStream out]
+    (let [compressor (new-compressor pool)
+          gz         (compressing-output-stream compressor out)]
+      (try
+        (write-fn gz)
+        (catch Throwable t
+          (abandon! compressor)
+          (throw t)))
+      (.close gz))))
+
+(defn- chunk->bytes
+  ^bytes [chunk]
+  (cond
+    (bytes? chunk) chunk
+    (string? chunk) (.getBytes ^String chunk StandardCharsets/UTF_8)
+    (instance? ByteBuffer chunk) (let [buffer (.duplicate ^ByteBuffer chunk)
+                                       result (byte-array (.remaining buffer))]
+                                   (.get buffer result)
+                                   result)
+    :else (.getBytes (pr-str chunk) StandardCharsets/UTF_8)))
+
+(defn- compressed-chunk
+  ^bytes [compressor ^bytes input flush?]
+  (let [out (ByteArrayOutputStream.)]
+    (compress! compressor input 0 (alength input) flush? out)
+    (.toByteArray out)))
+
+(defn- final-chunk
+  ^bytes [compressor]
+  (let [out (ByteArrayOutputStream.)]
+    (finish! compressor out)
+    (.toByteArray out)))
+
+(defn- compress-channel
+  "Compresses chunks from a core.async channel, returning a new channel of compressed chunks
+  (as byte arrays).  Each chunk is flushed, as this is typically used for streaming content."
+  [pool response-ch]
+  (let [out-ch     (async/chan 8)
+        compressor (new-compressor pool)]
+    (go-loop []
+      (if-let [chunk (<! response-ch)]
+        (let [compressed (compressed-chunk compressor (chunk->bytes chunk) true)]
+          (if (>! out-ch compressed)
+            (recur)
+            ;; The client went away
+            (do
+              (abandon! compressor)
+              (async/close! response-ch))))
+        (do
+          (>! out-ch (final-chunk compressor))
+          (async/close! out-ch))))
+    out-ch))
+
+(defn- compress-byte-channel
+  "Compresses a ReadableByteChannel (typically, a file) to a core.async channel of compressed chunks."
+  [pool ^ReadableByteChannel byte-channel]
+  (let [out-ch     (async/chan 8)
+        compressor (new-compressor pool)]
+    (async/thread
+      (try
+        (let [buffer (ByteBuffer/allocate 16384)]
+          (loop []
+            (.clear buffer)
+            (let [n (.read byte-channel buffer)]
+              (if (neg? n)
+                (do
+                  (async/>!! out-ch (final-chunk compressor))
+                  (async/close! out-ch))
+                (let [compressed (compressed-chunk compressor
+                                                   (Arrays/copyOf (.array buffer) n)
+                                                   false)]
+                  (if (or (zero? (alength compressed))
+                          (async/>!! out-ch compressed))
+                    (recur)
+                    (abandon! compressor)))))))
+        (catch Throwable t
+          (log/error :msg "Exception compressing response body"
+                     :exception t)
+          (abandon! compressor)
+          (async/close! out-ch))
+        (finally
+          (.close byte-channel))))
+    out-ch))
+
+(defn- utf8-length
+  "Returns the number of bytes needed to encode the string as UTF-8, without encoding it."
+  ^long [^String s]
+  (let [n (.length s)]
+    (loop [i      0
+           result 0]
+      (if (< i n)
+        (let [c (.charAt s i)]
+          (cond
+            (< (int c) 0x80) (recur (inc i) (inc result))
+            (< (int c) 0x800) (recur (inc i) (+ result 2))
+            ;; A surrogate pair encodes as four bytes.
+            (Character/isHighSurrogate c) (recur (+ i 2) (+ result 4))
+            :else (recur (inc i) (+ result 3))))
+        result))))
+
+(defprotocol CompressibleBody
+  "Compresses a response body, returning a new body of a type supported by all connectors."
+
+  (body-size [body]
+    "Returns the size, in bytes, of the body (before compression) if known, or nil if not known.")
+
+  (compress-body [body pool]
+    "Returns the compressed body.  The pool is passed to internal functions that perform the compression."))
+
+(extend-protocol CompressibleBody
+
+  String
+  (body-size [s] (utf8-length s))
+  (compress-body [s pool]
+    (compress-bytes pool (.getBytes s StandardCharsets/UTF_8)))
+
+  ByteBuffer
+  (body-size [buffer] (.remaining buffer))
+  (compress-body [buffer pool]
+    (compress-bytes pool (chunk->bytes buffer)))
+
+  IPersistentCollection
+  (body-size [_] nil)
+  (compress-body [coll pool]
+    (compress-bytes pool (.getBytes (pr-str coll) StandardCharsets/UTF_8)))
+
+  File
+  (body-size [file] (.length file))
+  (compress-body [file pool]
+    (streaming-body pool
+                    (fn [out]
+                      (with-open [in (FileInputStream. file)]
+                        (io/copy in out)))))
+
+  InputStream
+  (body-size [_] nil)
+  (compress-body [stream pool]
+    (streaming-body pool
+                    (fn [out]
+                      (with-open [in stream]
+                        (io/copy in out)))))
+
+  Fn
+  (body-size [_] nil)
+  (compress-body [f pool]
+    (streaming-body pool f))
+
+  ReadableByteChannel
+  (body-size [_] nil)
+  (compress-body [channel pool]
+    (compress-byte-channel pool channel))
+
+  ReadPort
+  (body-size [_] nil)
+  (compress-body [channel pool]
+    (compress-channel pool channel))
+
+  Object
+  (body-size [_] nil)
+  (compress-body [_ _] nil)
+
+  nil
+  (body-size [_] nil)
+  (compress-body [_ _] nil))
+
+(extend (Class/forName "[B")
+
+  CompressibleBody
+
+  {:body-size     (fn [^bytes body] (alength body))
+   :compress-body (fn [body pool]
+                    (compress-bytes pool body))})
+
+(def default-content-types
+  "Content types compressed by default; a response content type is matched if it starts with
+  one of these values."
+  ["text/"
+   "application/json"
+   "application/edn"
+   "application/transit+json"
+   "application/javascript"
+   "application/xml"
+   "image/svg+xml"])
+
+(defn- accepts-gzip?
+  [request]
+  (when-let [header (get-in request [:headers "accept-encoding"])]
+    (some (fn [element]
+            (let [[encoding & params] (string/split (string/trim element) #"\s*;\s*")]
+              (and (#{"gzip" "*"} (string/lower-case encoding))
+                   (not (some #(re-matches #"q=0(\.0*)?" %) params)))))
+          (string/split header #","))))
+
+(defn- get-header
+  [headers header-name]
+  (some (fn [[k v]]
+          (when (.equalsIgnoreCase ^String header-name (name k))
+            v))
+        headers))
+
+(defn- remove-header
+  [headers header-name]
+  (reduce-kv (fn [m k _]
+               (if (.equalsIgnoreCase ^String header-name (name k))
+                 (dissoc m k)
+                 m))
+             headers
+             headers))
+
+(defn- add-vary
+  [headers]
+  (let [vary (get-header headers "Vary")]
+    (cond
+      (nil? vary)
+      (assoc headers "Vary" "Accept-Encoding")
+
+      (re-find #"(?i)accept-encoding|\*" vary)
+      headers
+
+      :else
+      (-> headers
+          (remove-header "Vary")
+          (assoc "Vary" (str vary ", Accept-Encoding"))))))
+
+(defn- weaken-etag
+  "A strong ETag identifies a byte-for-byte representation, and the compressed body is
+  a different representation than the uncompressed one; the ETag is converted to a weak ETag."
+  [headers]
+  (let [etag (get-header headers "ETag")]
+    (if (or (nil? etag)
+            (string/starts-with? etag "W/"))
+      headers
+      (-> headers
+          (remove-header "ETag")
+          (assoc "ETag" (str "W/" etag))))))
+
+(defn compress-response
+  "Returns an interceptor that compresses response bodies using gzip, when the client
+  accepts gzip (via the Accept-Encoding header).
+
+  This interceptor should be placed early in the interceptor chain (before any interceptors that set the Content-Type
+  header of the response), as compression occurs in its :leave function.
+
+  A response is compressed only when:
+
+  * the response has a Content-Type header that matches the allowed content types
+  * the response does not already have a Content-Encoding header
+  * the body is at least :min-size bytes (if the size of the body is known)
+
+  Compressible responses have `Accept-Encoding` added to their Vary header, whether compressed or not.
+  The Content-Length header is replaced for bodies that are compressed in memory (strings, byte arrays, ByteBuffers, and
+  collections) and removed for streamed bodies (files, InputStreams, functions, NIO channels, and core.async channels).
+  Chunks from core.async channels are compressed and flushed individually.
+  A strong ETag header on a compressed response is converted to a weak ETag (prefixed with `W/`).
+
+  Options:
+
+  Key            | Type              | Description
+  ---            |---                |---
+  :min-size      | long              | Minimum body size to compress, default 1024
+  :content-types | seq of String     | Allowed content type prefixes, default [[default-content-types]]
+  :level         | int               | Deflater compression level (0 to 9), default 6
+  :pool-size     | int               | Maximum number of idle Deflaters retained for reuse, default is twice the number of processors
+
+  The :io.pedestal.http.compression/compressed counter tracks the number of compressed responses."
+  ([]
+   (compress-response nil))
+  ([options]
+   (let [{:keys [min-size content-types level pool-size]
+          :or   {min-size      1024
+                 content-types default-content-types
+                 level         6
+                 pool-size     (* 2 (.availableProcessors (Runtime/getRuntime)))}} options
+         pool           (new-pool level pool-size)
+         compressed-fn  (metrics/counter ::compressed nil)
+         content-types' (vec content-types)
+         allowed?       (fn [content-type]
+                          (and content-type
+                               (some #(string/starts-with? content-type %) content-types')))]
+     (interceptor
+       {:name  ::compress-response
+        :leave (fn [context]
+                 (let [{:keys [request response]} context
+                       {:keys [headers body status]} response]
+                   (if (or (nil? response)
+                           (= :head (:request-method request))
+                           (#{204 206 304} status)
+                           (get-header headers "Content-Encoding")
+                           (not (allowed? (get-header headers "Content-Type"))))
+                     context
+                     (let [headers' (add-vary headers)
+                           size     (body-size body)]
+                       (if-let [compressed (when (and (accepts-gzip? request)
+                                                      (or (nil? size)
+                                                          (<= (long min-size) (long size))))
+                                             (compress-body body pool))]
+                         (do
+                           (compressed-fn)
+                           (assoc context :response
+                                  (assoc response
+                                         :body compressed
+                                         :headers (cond-> (-> headers'
+                                                              (remove-header "Content-Length")
+                                                              weaken-etag
+                                                              (assoc "Content-Encoding" "gzip"))
+                                                    (bytes? compressed)
+                                                    (assoc "Content-Length" (str (alength ^bytes compressed)))))))
+                         (assoc-in context [:response :headers] headers'))))))}))))
@@ -12,7 +12,9 @@
 
 (ns io.pedestal.http.content-negotiation
   (:require [clojure.string :as string]
-            [io.pedestal.interceptor :as interceptor])
+            [io.pedestal.interceptor :as interceptor]
+            [io.pedestal.metrics :as metrics]
+            [io.pedestal.service.impl :as impl])
   (:import (java.util List)))
 
 ;; Parsing the headers, building the map
@@ -86,8 +88,19 @@
            true)]}
   (let [supported-type-strs (if (coll? supported-type-strs)
                           supported-type-strs [supported-type-strs])
-        supported-types (map parse-accept-element supported-type-strs)
-        weight-fn #(weighted-accept-qs supported-types %)]
+        supported-types (mapv parse-accept-element supported-type-strs)
+        ;; Only supported types with the same type (or any type, for */*) can match; the
+        ;; candidates retain the preference order of supported-types.
+        by-type (reduce (fn [m t]
+                          (update m (:type t) (fnil conj []) t))
+                        {}
+                        supported-types)
+        weight-fn (fn [accept-elem]
+                    (let [accept-type (:type accept-elem)]
+                      (if (= "*" accept-type)
+                        (weighted-accept-qs supported-types accept-elem)
+                        (when-let [candidates (get by-type accept-type)]
+                          (weighted-accept-qs candidates accept-elem)))))]
     (fn [parsed-accept-maps]
       (persistent!
         (reduce (fn [acc accept-map]
@@ -147,6 +160,30 @@
 
 ;; Interceptor
 ;; -----------
+
+(defn- cached-negotiation
+  "Wraps the negotiate function with a bounded cache from the accept string to the negotiated result;
+  accept strings not recently used are evicted when the cache is full."
+  [negotiate ^long cache-size ^long max-cached-length attributes]
+  (let [cache   (impl/bounded-cache)
+        hit-fn  (metrics/counter ::cache-hit attributes)
+        miss-fn (metrics/counter ::cache-miss attributes)]
+    (fn [accept-param]
+      (if-not (and (string? accept-param)
+                   (<= (.length ^String accept-param) max-cached-length))
+        (negotiate accept-param)
+        (let [cached (impl/cache-get cache accept-param)]
+          (if (some? cached)
+            (do
+              (hit-fn)
+              ;; A cached ::no-match represents a failed negotiation
+              (when-not (identical? ::no-match cached)
+                cached))
+            (let [result (negotiate accept-param)]
+              (miss-fn)
+              (impl/cache-put! cache cache-size accept-param (if (some? result) result ::no-match))
+              result)))))))
+
 (defn negotiate-content
   "Given a vector of strings (supported types mime-types) and
   optionally a map of additional options,
@@ -158,7 +195,15 @@
   Additional options:
 
    * :no-match-fn - A function that takes a context; Called when no acceptable format/mime-type is found
-   * :content-param-paths - a vector of vectors; paths into the context to find 'accept' format strings"
+   * :content-param-paths - a vector of vectors; paths into the context to find 'accept' format strings
+   * :cache-size - maximum number of distinct accept strings whose negotiated result is cached, default 256 (0 to disable)
+   * :max-cached-length - accept strings longer than this are negotiated but not cached, default 256
+   * :metric-name - optional keyword, added as the :negotiator attribute of metrics
+
+  Once the cache is full, accept strings that have not been recently used are evicted to make room for new ones;
+  lookups in the cache do not lock.
+  The :io.pedestal.http.content-negotiation/cache-hit and :io.pedestal.http.content-negotiation/cache-miss
+  counters track the effectiveness of the cache."
   ([supported-type-strs]
    (negotiate-content supported-type-strs {}))
   ([supported-type-strs opts-map]
@@ -169,13 +214,21 @@
   (assert (if (coll? supported-type-strs) (every? string? supported-type-strs) true)
           (str "All content-negotiated types must be strings.  Found: " (pr-str supported-type-strs)))
   (let [match-fn (best-match-fn supported-type-strs)
-        {:keys [no-match-fn content-param-paths]
+        {:keys [no-match-fn content-param-paths cache-size max-cached-length metric-name]
          :or {no-match-fn (fn [ctx]
                             (assoc ctx :response {:status 406
                                                   :body "Not Acceptable"
                                                   :headers {}}))
               content-param-paths [[:request :headers "accept"]
-                                   [:request :headers :accept]]}} opts-map]
+                                   [:request :headers :accept]]
+              cache-size 256
+              max-cached-length 256}} opts-map
+        negotiate (fn [accept-param]
+                    (best-match match-fn (parse-accept-* accept-param)))
+        negotiate' (if (pos? cache-size)
+                     (cached-negotiation negotiate cache-size max-cached-length
+                                         (when metric-name {:negotiator metric-name}))
+                     negotiate)]
     (interceptor/interceptor
       {:name ::negotiate-content
        :enter (fn [ctx]
@@ -185,7 +238,7 @@
                                           (if (empty? paths)
                                             nil
                                             (recur paths))))]
-                  (if-let [content-match (best-match match-fn (parse-accept-* accept-param))]
+                  (if-let [content-match (negotiate' accept-param)]
                     (assoc-in ctx [:request :accept] content-match)
                     (no-match-fn ctx))
                   ctx))}))))
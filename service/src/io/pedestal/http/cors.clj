@@ -15,39 +15,91 @@
   (:require [io.pedestal.interceptor :refer [interceptor]]
             [io.pedestal.log :as log]
             [clojure.string :as str]
-            [io.pedestal.metrics :as metrics]))
+            [io.pedestal.metrics :as metrics]
+            [io.pedestal.service.impl :as impl]))
+
+;; Caches are bounded, with lock-free reads; entries not recently used are evicted once a cache is full.
+
+(defn- cached
+  "Returns the value cached for k, or computes it with f, caching it unless it is false or nil."
+  [cache ^long max-size k f]
+  (or (impl/cache-get cache k)
+      (let [v (f k)]
+        (if v
+          (impl/cache-put! cache max-size k v)
+          v))))
+
+;; Each interceptor caches its converted header names; names come from request and response headers,
+;; so the cache is bounded.
+
+(def ^:private header-names-cache-size 256)
 
 (defn- convert-header-name
   [header-name]
   (str/join "-" (map str/capitalize (str/split (name header-name) #"-"))))
 
 (defn- convert-header-names
-  [header-names]
-  (str/join ", " (map convert-header-name header-names)))
+  [header-names-cache header-names]
+  (let [sb (StringBuilder.)]
+    (doseq [header-name header-names]
+      (when (pos? (.length sb))
+        (.append sb ", "))
+      (.append sb ^String (cached header-names-cache header-names-cache-size header-name convert-header-name)))
+    (.toString sb)))
+
+(def ^:private default-methods "GET, POST, PUT, DELETE, HEAD, PATCH, OPTIONS")
 
 (def ^:private preflight-fn (metrics/counter ::preflight nil))
 
-(defn- preflight
-  [{request :request :as context} level origin {:keys [creds max-age methods]}]
-  (let [requested-headers (get-in request [:headers "access-control-request-headers"])
-        cors-headers      (merge {"Access-Control-Allow-Origin"  origin
-                                  "Access-Control-Allow-Headers"
-                                  (str "Content-Type, "
-                                       (when requested-headers (str requested-headers ", "))
-                                       (convert-header-names (keys (:headers request))))
-                                  "Access-Control-Allow-Methods" (if methods
-                                                                   methods
-                                                                   "GET, POST, PUT, DELETE, HEAD, PATCH, OPTIONS")}
-                                 (when creds {"Access-Control-Allow-Credentials" (str creds)})
-                                 (when max-age {"Access-Control-Max-Age" (str max-age)}))]
+(defn- preflight-response
+  [request level origin requested-headers header-names-cache {:keys [creds max-age methods]}]
+  (let [cors-headers (cond-> {"Access-Control-Allow-Origin"  origin
+                              "Access-Control-Allow-Headers" (str "Content-Type, "
+                                                                  (when requested-headers (str requested-headers ", "))
+                                                                  (convert-header-names header-names-cache (keys (:headers request))))
+                              "Access-Control-Allow-Methods" (or methods default-methods)}
+                       creds (assoc "Access-Control-Allow-Credentials" (str creds))
+                       max-age (assoc "Access-Control-Max-Age" (str max-age)))]
     (log/log level
              :msg "cors preflight"
-              :requested-headers requested-headers
-              :headers (:headers request)
-              :cors-headers cors-headers)
-    (preflight-fn)
-    (assoc context :response {:status  200
-                              :headers cors-headers})))
+             :requested-headers requested-headers
+             :headers (:headers request)
+             :cors-headers cors-headers)
+    {:status  200
+     :headers cors-headers}))
+
+(defn- preflight-fn-for
+  "Returns a function of context and origin that returns the context with the preflight response attached.
+
+  Responses are cached by origin and requested headers."
+  [level args header-names-cache ^long cache-size]
+  (let [cache (impl/bounded-cache)]
+    (fn [{request :request :as context} origin]
+      (let [requested-headers (get-in request [:headers "access-control-request-headers"])
+            respond           (fn [_k]
+                                (preflight-response request level origin requested-headers header-names-cache args))
+            response          (if (pos? cache-size)
+                                (cached cache cache-size [origin requested-headers] respond)
+                                (respond nil))]
+        (preflight-fn)
+        (assoc context :response response)))))
+
+(defn- origin-headers-fn
+  "Returns a function of an origin that returns the CORS headers for the origin, or false if the origin is not allowed.
+
+  The headers of allowed origins are cached by origin.  Denied origins are not cached, so that requests from
+  arbitrary origins can not displace allowed origins from the cache."
+  [allowed-origins creds ^long cache-size]
+  (let [cache     (impl/bounded-cache)
+        creds-str (when creds (str creds))
+        decide    (fn [origin]
+                    (if (allowed-origins origin)
+                      (cond-> {"Access-Control-Allow-Origin" origin}
+                        creds-str (assoc "Access-Control-Allow-Credentials" creds-str))
+                      false))]
+    (if (pos? cache-size)
+      #(cached cache cache-size % decide)
+      decide)))
 
 (defn- normalize-args
   [arg]
@@ -74,50 +126,62 @@
   * :max-age - a long, indicates the number of seconds a client should cache the response from a preflight request
   * :methods - a string, indicates the accepted HTTP methods.  Defaults to \"GET, POST, PUT, DELETE, HEAD, PATCH, OPTIONS\"
   * :level - logging level, defaults to :debug
+  * :origin-cache-size - maximum number of allowed origins whose headers are cached, default 1024 (0 to disable)
+  * :preflight-cache-size - maximum number of cached preflight responses, default 256 (0 to disable)
+
+  Allowed origins are cached, so an :allowed-origins function should continue to allow an origin
+  once it has allowed it; set :origin-cache-size to 0 otherwise.  Denied origins are evaluated on each request.
+  Preflight responses are cached by origin and the Access-Control-Request-Headers request header.
+  Once a cache is full, origins (or preflights) that have not been recently used are evicted; cache lookups do not lock.
 
-  The :level option was added in 0.8.0 (previously, logging was always at the :info level)."
+  The :level option was added in 0.8.0 (previously, logging was always at the :info level).
+  The cache options were added in 0.8.2."
   [allowed-origins]
-  (let [{:keys [creds allowed-origins level]
-         :or   {level :debug}
+  (let [{:keys [creds allowed-origins level origin-cache-size preflight-cache-size]
+         :or   {level                :debug
+                origin-cache-size    1024
+                preflight-cache-size 256}
          :as   args} (normalize-args allowed-origins)
+        header-names   (impl/bounded-cache)
+        origin-headers (origin-headers-fn allowed-origins creds origin-cache-size)
+        preflight      (preflight-fn-for level args header-names preflight-cache-size)
         origin-real-fn (metrics/counter ::origin-real nil)]
     (interceptor
       {:name  ::allow-origin
        :enter (fn [context]
-                (let [origin            (get-in context [:request :headers "origin"])
-                      allowed           (allowed-origins origin)
-                      preflight-request (= :options (get-in context [:request :request-method]))]
+                (let [origin       (get-in context [:request :headers "origin"])
+                      cors-headers (when origin
+                                     (origin-headers origin))]
                   (log/log level
                            :msg "cors request processing"
                            :origin origin
-                           :allowed allowed)
+                           :allowed (boolean cors-headers))
                   (cond
-                    ;; origin is allowed and this is preflight
-                    (and origin allowed preflight-request)
-                    (preflight  context level origin args)
-
-                    ;; origin is allowed and this is real
-                    (and origin allowed (not preflight-request))
-                    (do (origin-real-fn)
-                        (assoc context :cors-headers (merge {"Access-Control-Allow-Origin" origin}
-                                                            (when creds {"Access-Control-Allow-Credentials" (str creds)}))))
+                    ;; no origin
+                    (nil? origin)
+                    context
 
                     ;; origin is not allowed
-                    (and origin (not allowed))
+                    (false? cors-headers)
                     (assoc context :response {:status 403 :body "Forbidden" :headers {}})
 
-                    ;; no origin
+                    ;; origin is allowed and this is preflight
+                    (= :options (get-in context [:request :request-method]))
+                    (preflight context origin)
+
+                    ;; origin is allowed and this is real
                     :else
-                    context)))
+                    (do (origin-real-fn)
+                        (assoc context :cors-headers cors-headers)))))
        :leave (fn [{:keys [response cors-headers] :as context}]
                 (if (and cors-headers response)
-                  (let [cors-headers (merge cors-headers
-                                            {"Access-Control-Expose-Headers"
-                                             (convert-header-names (keys (:headers response)))})]
+                  (let [headers      (:headers response)
+                        cors-headers (assoc cors-headers
+                                            "Access-Control-Expose-Headers" (convert-header-names header-names (keys headers)))]
                     (log/log level
                              :msg "cors response processing"
                              :cors-headers cors-headers)
-                    (update-in context [:response :headers] merge cors-headers))
+                    (assoc-in context [:response :headers] (into (or headers {}) cors-headers)))
                   context))})))
 
 (def dev-allow-origin
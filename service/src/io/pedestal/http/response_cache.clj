@@ -0,0 +1,281 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.response-cache
+  "A server-side cache of responses to idempotent requests, with bounded size and a time-to-live.
+
+  Cached responses are served without executing the remainder of the interceptor chain (including the handler)."
+  {:added "0.8.2"}
+  (:require [clojure.string :as string]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.metrics :as metrics])
+  (:import (java.nio ByteBuffer)
+           (java.nio.charset StandardCharsets)
+           (java.util Iterator LinkedHashMap Map$Entry)
+           (java.util.concurrent.atomic AtomicLong)
+           (java.util.zip CRC32)))
+
+(defn- body->bytes
+  "Converts a response body to a byte array, or returns nil if the body can't be cached."
+  ^bytes [body]
+  (cond
+    (bytes? body) body
+    (string? body) (.getBytes ^String body StandardCharsets/UTF_8)
+    :else nil))
+
+(defn- compute-etag
+  [^bytes body]
+  (let [crc (CRC32.)]
+    (.update crc body)
+    (str \" (alength body) \- (Long/toHexString (.getValue crc)) \")))
+
+(defn- etag-matches?
+  [if-none-match etag]
+  (and if-none-match
+       (or (= "*" if-none-match)
+           (->> (string/split if-none-match #"\s*,\s*")
+                (some #(or (= % etag)
+                           ;; Weak comparison, as per RFC 9110 section 13.1.2
+                           (= % (str "W/" etag))))))))
+
+(defn- get-header
+  "Returns the value of a response header, matching the header name case-insensitively."
+  [headers header-name]
+  (or (get headers header-name)
+      (some (fn [[k v]]
+              (when (.equalsIgnoreCase ^String header-name (name k))
+                v))
+            headers)))
+
+(defn- cache-control-matches?
+  [response re]
+  (when-let [cache-control (get-header (:headers response) "Cache-Control")]
+    (re-find re cache-control)))
+
+(defn- public?
+  [response]
+  (cache-control-matches? response #"(?i)\bpublic\b"))
+
+(defn- credentialed?
+  "Returns true if the request identifies a particular user (via Authorization or Cookie headers); responses to such
+  requests are specific to the user, unless explicitly marked as public."
+  [request]
+  (let [headers (:headers request)]
+    (boolean (or (get headers "authorization")
+                 (get headers "cookie")))))
+
+(defn- cacheable?
+  [request response]
+  (let [headers (:headers response)]
+    (and (= 200 (:status response))
+         (not (cache-control-matches? response #"(?i)no-store|private"))
+         ;; Cookies are set for a particular client, and must never be replayed to other clients.
+         (nil? (get-header headers "Set-Cookie"))
+         (not (some-> (get-header headers "Vary") string/trim (= "*")))
+         (or (not (credentialed? request))
+             (public? response)))))
+
+(defn- merge-vary
+  "Adds the vary-headers (already capitalized) to the response's Vary header, omitting any already present."
+  [headers vary-headers vary-value]
+  (if-let [existing (not-empty (some-> (get headers "Vary") string/trim))]
+    (let [present (into #{}
+                        (map string/lower-case)
+                        (string/split existing #"\s*,\s*"))
+          missing (remove #(or (contains? present "*")
+                               (contains? present (string/lower-case %)))
+                          vary-headers)]
+      (if (seq missing)
+        (assoc headers "Vary" (string/join ", " (cons existing missing)))
+        headers))
+    (assoc headers "Vary" vary-value)))
+
+(defn- cached-body
+  "Returns the body for a response from a cache entry; a direct ByteBuffer is duplicated, so that each
+  response has its own position."
+  [{:keys [body]}]
+  (if (instance? ByteBuffer body)
+    (.duplicate ^ByteBuffer body)
+    body))
+
+(defn- entry->response
+  [entry request]
+  (let [{:keys [status headers etag]} entry]
+    (if (etag-matches? (get-in request [:headers "if-none-match"]) etag)
+      {:status  304
+       :headers (select-keys headers ["ETag" "Vary" "Cache-Control"])}
+      {:status  status
+       :headers headers
+       :body    (when-not (= :head (:request-method request))
+                  (cached-body entry))})))
+
+(defn- new-cache
+  [max-entries max-bytes eviction-fn]
+  ;; A LinkedHashMap in access order is used for least-recently-used eviction;
+  ;; all access is synchronized on the map.
+  {:map         (LinkedHashMap. 16 0.75 true)
+   :*bytes      (AtomicLong.)
+   :max-entries max-entries
+   :max-bytes   max-bytes
+   :eviction-fn eviction-fn})
+
+(defn- cache-lookup
+  [cache k now]
+  (let [{^LinkedHashMap m :map
+         ^AtomicLong *bytes :*bytes
+         eviction-fn :eviction-fn} cache]
+    (locking m
+      (when-let [entry (.get m k)]
+        (if (< (long now) (long (:expires-at entry)))
+          entry
+          (do
+            (.remove m k)
+            (.addAndGet *bytes (- (long (:size entry))))
+            (eviction-fn)
+            nil))))))
+
+(defn- cache-store!
+  [cache k entry]
+  (let [{^LinkedHashMap m :map
+         ^AtomicLong *bytes :*bytes
+         eviction-fn :eviction-fn} cache
+        max-entries (long (:max-entries cache))
+        max-bytes   (long (:max-bytes cache))]
+    (locking m
+      (when-let [prior (.put m k entry)]
+        (.addAndGet *bytes (- (long (:size prior)))))
+      (.addAndGet *bytes (long (:size entry)))
+      (let [^Iterator iterator (.iterator (.entrySet m))]
+        (while (and (.hasNext iterator)
+                    (or (> (.size m) max-entries)
+                        (> (.get *bytes) max-bytes)))
+          (let [^Map$Entry eldest (.next iterator)]
+            (.addAndGet *bytes (- (long (:size (.getValue eldest)))))
+            (.remove iterator)
+            (eviction-fn)))))))
+
+(defn- cache-entries
+  [cache]
+  (let [^LinkedHashMap m (:map cache)]
+    (locking m
+      (.size m))))
+
+(defn- request-key
+  [context vary-headers]
+  (let [{:keys [request route]} context]
+    ;; The route name is nil when no route was matched, so the URI is also part of the key.
+    [(:route-name route)
+     (:uri request)
+     (:path-params request)
+     (or (:query-params request)
+         (:query-string request))
+     (mapv #(get-in request [:headers %]) vary-headers)]))
+
+(defn response-cache
+  "Returns an interceptor that caches responses to GET (and HEAD) requests; it should be included in the
+  interceptors for a route, after any content negotiation.
+
+  Responses are cached based on the route name, the request URI, the path and query parameters, and the values of
+  the request headers identified by :vary-headers; these headers are also added to the response's Vary header.
+
+  Only responses with status 200, and whose body is a String or byte array, are cached; a response whose
+  Cache-Control header includes `no-store` or `private`, that sets a cookie (via Set-Cookie), or whose Vary header
+  is `*`, is not cached.  Cached String bodies are stored as UTF-8 bytes.
+
+  Responses to requests with an Authorization or Cookie header are cached only when the response's Cache-Control
+  header includes `public`; likewise, such requests are only served cached responses that were marked `public`.
+
+  Each cached response has an ETag header (if the response did not already provide one); a request whose
+  If-None-Match header matches receives a 304 (Not Modified) response.
+
+  Options:
+
+  Key            | Type              | Description
+  ---            |---                |---
+  :max-entries   | long              | Maximum number of cached responses, default 1000
+  :max-bytes     | long              | Maximum total size of cached bodies, default 16 MiB
+  :ttl           | long              | Milliseconds a response remains cached, default 60000
+  :vary-headers  | seq of String     | Lower-case request header names, default [\"accept\"]
+  :off-heap?     | boolean           | If true, bodies are stored in direct ByteBuffers, written asynchronously by servlet connectors
+  :metric-name   | keyword           | Optional, added as the :cache attribute of metrics
+
+  When the least recently used responses are evicted (due to size), or an expired response is
+  discarded, the :io.pedestal.http.response-cache/eviction counter is incremented.
+  The :io.pedestal.http.response-cache/hit and :io.pedestal.http.response-cache/miss counters
+  track cache effectiveness, and the :io.pedestal.http.response-cache/entries
+  and :io.pedestal.http.response-cache/bytes gauges track the cache's size."
+  ([]
+   (response-cache nil))
+  ([options]
+   (let [{:keys [max-entries max-bytes ttl vary-headers off-heap? metric-name]
+          :or   {max-entries  1000
+                 max-bytes    (* 16 1024 1024)
+                 ttl          60000
+                 vary-headers ["accept"]}} options
+         attributes  (when metric-name {:cache metric-name})
+         hit-fn      (metrics/counter ::hit attributes)
+         miss-fn     (metrics/counter ::miss attributes)
+         cache       (new-cache max-entries max-bytes (metrics/counter ::eviction attributes))
+         vary-names  (mapv #(string/join "-" (map string/capitalize (string/split % #"-")))
+                           vary-headers)
+         vary-value  (string/join ", " vary-names)
+         max-bytes'  (long max-bytes)
+         ->body      (if off-heap?
+                       (fn [^bytes body]
+                         (-> (ByteBuffer/allocateDirect (alength body))
+                             (.put body)
+                             .flip))
+                       identity)
+         ttl'        (long ttl)]
+     (metrics/gauge ::entries attributes #(cache-entries cache))
+     (metrics/gauge ::bytes attributes #(.get ^AtomicLong (:*bytes cache)))
+     (interceptor
+       {:name  ::response-cache
+        :enter (fn [context]
+                 (let [request (:request context)]
+                   (if-not (#{:get :head} (:request-method request))
+                     context
+                     (let [k     (request-key context vary-headers)
+                           entry (cache-lookup cache k (System/currentTimeMillis))]
+                       ;; Only public responses are served to requests with credentials.
+                       (if (and entry
+                                (or (:public? entry)
+                                    (not (credentialed? request))))
+                         (do
+                           (hit-fn)
+                           (assoc context :response (entry->response entry request)))
+                         (do
+                           (miss-fn)
+                           (assoc context ::key k)))))))
+        :leave (fn [context]
+                 (let [k        (::key context)
+                       response (:response context)
+                       body     (when (and k (cacheable? (:request context) response))
+                                  (let [body (body->bytes (:body response))]
+                                    ;; A body larger than the entire cache is not cached, rather than
+                                    ;; evicting every other entry.
+                                    (when (and body
+                                               (<= (alength body) max-bytes'))
+                                      body)))]
+                   (if-not body
+                     context
+                     (let [headers (cond-> (merge-vary (:headers response) vary-names vary-value)
+                                     (string? (:body response)) (update "Content-Type" #(or % "text/plain"))
+                                     true (update "ETag" #(or % (compute-etag body))))
+                           entry   {:status     200
+                                    :headers    headers
+                                    :etag       (get headers "ETag")
+                                    :public?    (boolean (public? response))
+                                    :body       (->body body)
+                                    :size       (alength ^bytes body)
+                                    :expires-at (+ (System/currentTimeMillis) ttl')}]
+                       (cache-store! cache k entry)
+                       (assoc context :response (entry->response entry (:request context)))))))}))))
@@ -15,12 +15,15 @@
   "Support for Server Sent Events."
   (:require [io.pedestal.metrics :as metrics]
             [ring.util.response :as ring-response]
-            [clojure.core.async :refer [go chan >! <!! timeout alts! put! close! thread]]
+            [clojure.core.async :refer [go chan >! >!! <! <!! timeout alts! put! close! thread offer! poll!]]
             [io.pedestal.log :as log]
             [io.pedestal.internal :as i]
             [io.pedestal.interceptor :as interceptor]
             [clojure.string :as string])
-  (:import (com.fasterxml.jackson.core.util ByteArrayBuilder)))
+  (:import (com.fasterxml.jackson.core.util ByteArrayBuilder)
+           (java.util HashMap Set)
+           (java.util.concurrent ConcurrentHashMap)
+           (java.util.function BiFunction Function)))
 
 (def ^:private ^String UTF-8 "UTF-8")
 
@@ -55,6 +58,14 @@
 
 (def ^:private payload-size-fn (metrics/histogram ::payload-size nil))
 
+(defrecord ^:no-doc EncodedEvent [^bytes payload id])
+
+(defn- record-payload
+  ^bytes [^bytes payload]
+  ;; In 0.7 and earlier, this was the size of data, which isn't the full payload size.
+  (payload-size-fn (alength payload))
+  payload)
+
 (defn- send-event
   [response-channel name data id]
   (log/trace :msg "writing event to stream"
@@ -62,10 +73,7 @@
              :data data
              :id id)
   (try
-    (let [event-bytes (event->bytes name data id)]
-      ;; In 0.7 and earlier, this was the size of data, which isn't the full payload size.
-      (payload-size-fn (count event-bytes))
-      (put! response-channel event-bytes))
+    (put! response-channel (record-payload (event->bytes name data id)))
     (catch Throwable t
       (close! response-channel)
       (log/error :msg "exception sending event"
@@ -88,6 +96,19 @@
       :else
       (str value))))
 
+(defn encode-event
+  "Encodes an event (a map, or a simple value, as with [[start-stream]]) to the bytes sent to the client.
+
+  The result may be put onto the event channel of any number of streams; the event is sent
+  as is, without being encoded again for each stream."
+  {:added "0.8.2"}
+  [event]
+  (let [id (extract-string event :id)]
+    (->EncodedEvent (event->bytes (extract-string event :name)
+                                  (str (if (map? event) (:data event) event))
+                                  id)
+                    id)))
+
 (def ^:private *active-streams (atom 0))
 
 ;; This is extracted as a separate function mainly to support advanced
@@ -107,14 +128,25 @@
     (swap! *active-streams inc)
     (try
       (loop []
-        (let [hb-timeout (timeout (* 1000 heartbeat-delay))
-              [event port] (alts! [event-channel hb-timeout])]
+        ;; A heartbeat is sent only when no event arrives within the heartbeat delay.
+        (let [hb-timeout (when heartbeat-delay
+                           (timeout (* 1000 heartbeat-delay)))
+              [event port] (if hb-timeout
+                             (alts! [event-channel hb-timeout])
+                             [(<! event-channel) event-channel])]
           (cond
             (= port hb-timeout)
             (if (>! response-channel EOL)
               (recur)
               (log/info :msg "Response channel was closed when sending heartbeat. Shutting down SSE stream."))
 
+            ;; Encoded events are parked on, so that a slow client applies back pressure
+            ;; to the event channel.
+            (instance? EncodedEvent event)
+            (if (>! response-channel (record-payload (:payload event)))
+              (recur)
+              (log/info :msg "Response channel was closed when sending event. Shutting down SSE stream."))
+
             (and (some? event) (= port event-channel))
             ;; You can name your events using the maps
             ;; {:name "my-event" :data "some message data here"}
@@ -145,7 +177,8 @@
   channel. The application can then put values on that channel to cause SSE events to be sent to the client.
 
   Values are either maps or simple values; maps will contain keys :name, :data, and :id.
-  These are converted to UTF-8 strings and sent to the client.
+  These are converted to UTF-8 strings and sent to the client.  Values may also be
+  the result of [[encode-event]], which are sent without further conversion.
 
   Non-map values are treated as if a map with just a :data key; the value is converted to a string
   and sent to the client.
@@ -163,7 +196,7 @@
   Arguments:
   - stream-ready-fn: passed the channel on which events may be conveyed, and the context
   - context - interceptor context
-  - heartbeat-delay: time, in seconds, between heartbeats (defaults to 1)
+  - heartbeat-delay: time, in seconds, between heartbeats (defaults to 1), or nil for no heartbeats
   - bufferfn-or-n: a channel buffer size, or a no-args function that returns a buffer or buffer size
 
   Options:
@@ -190,7 +223,8 @@
          context*             (assoc context
                                      :response-channel response-channel
                                      :response response)
-         response-commited-ch (get-in context [:request :io.pedestal.http.request/response-commited-ch])]
+         ;; May be a Delay (with Http-Kit), which must be realized before the response is committed
+         response-commited-ch (force (get-in context [:request :io.pedestal.http.request/response-commited-ch]))]
      (thread
        (when response-commited-ch
          (<!! response-commited-ch))
@@ -203,6 +237,320 @@
                                      {:on-client-disconnect #(on-client-disconnect context*)}))))
      context*)))
 
+;; Hubs: many streams subscribed to topics, each event encoded once and offered to each subscriber.
+
+(defn- topic-attributes
+  [hub topic]
+  (let [{:keys [metric-name]} hub]
+    (cond-> {:topic (if (keyword? topic)
+                      (subs (str topic) 1)
+                      (str topic))}
+      metric-name (assoc :hub metric-name))))
+
+(defn- new-replay-buffer
+  [size]
+  ;; A ring of the most recently published events; each event is assigned a sequence number,
+  ;; which identifies its slot in the ring.  Events with an id are indexed by it.
+  ;; All access is synchronized on the buffer.
+  {:events    (object-array size)
+   :id->seq   (HashMap.)
+   :*next-seq (long-array 1)})
+
+(defn- replay-append!
+  [replay-buffer ^EncodedEvent event]
+  (let [{^objects events :events
+         ^HashMap id->seq :id->seq
+         ^longs *next-seq :*next-seq} replay-buffer
+        seq-no (aget *next-seq 0)
+        slot   (int (mod seq-no (alength events)))]
+    (when-let [^EncodedEvent evicted (aget events slot)]
+      (when-let [evicted-id (.id evicted)]
+        (when (= (- seq-no (alength events)) (.get id->seq evicted-id))
+          (.remove id->seq evicted-id))))
+    (aset events slot event)
+    (when-let [id (.id event)]
+      (.put id->seq id seq-no))
+    (aset *next-seq 0 (inc seq-no))))
+
+(defn- replay-since
+  "Returns the events published after the event with the given id, or nil if the event
+  is no longer in the buffer."
+  [replay-buffer id]
+  (let [{^objects events :events
+         ^HashMap id->seq :id->seq
+         ^longs *next-seq :*next-seq} replay-buffer]
+    (when-let [seq-no (.get id->seq id)]
+      (mapv #(aget events (int (mod (long %) (alength events))))
+            (range (inc (long seq-no)) (aget *next-seq 0))))))
+
+(defn- topic-state
+  "Returns the state of the topic, or nil if the topic has no subscribers (and no replay buffer)."
+  [hub topic]
+  (.get ^ConcurrentHashMap (:topics hub) topic))
+
+(defn- new-topic
+  [hub topic]
+  (let [{:keys [policy replay-size ^ConcurrentHashMap topics]} hub
+        attributes (topic-attributes hub topic)]
+    ;; Metrics can't be unregistered; topic state is recreated after it is removed, and the gauge
+    ;; always reads the current state.
+    (metrics/gauge ::active-streams attributes
+                   #(if-let [state (.get topics topic)]
+                      (.size ^Set (:subscribers state))
+                      0))
+    {:subscribers   (ConcurrentHashMap/newKeySet)
+     :replay-buffer (when (pos? replay-size)
+                      (new-replay-buffer replay-size))
+     :published-fn  (metrics/counter ::published attributes)
+     :dropped-fn    (metrics/counter ::slow-consumer (assoc attributes :policy (name policy)))
+     :replayed-fn   (metrics/counter ::replayed attributes)
+     :resync-fn     (metrics/counter ::resync attributes)}))
+
+(defn- ensure-topic-state
+  [hub topic]
+  (.computeIfAbsent ^ConcurrentHashMap (:topics hub) topic
+                    (reify Function
+                      (apply [_ topic]
+                        (new-topic hub topic)))))
+
+(defn- offer-event!
+  "Offers the event to the channel, applying the slow consumer policy if the channel's buffer is full.
+  Returns true if the event was queued."
+  [policy dropped-fn ch event]
+  (let [result (offer! ch event)]
+    (cond
+      result true
+
+      ;; The channel is closed, the stream is shutting down.
+      (false? result) false
+
+      :else
+      (do
+        (dropped-fn)
+        (case policy
+          :drop false
+          ;; Discard the oldest queued event to make room for the new one.
+          :coalesce (do
+                      (poll! ch)
+                      (boolean (offer! ch event)))
+          :disconnect (do
+                        (close! ch)
+                        false))))))
+
+(defn create-hub
+  "Creates a hub, used to broadcast events to many streams that have subscribed to a topic.
+
+  Each published event is encoded once, then offered to each subscribed stream's
+  bounded queue.  A stream is sent a heartbeat when no event has been sent to it within the heartbeat delay;
+  heartbeats do not occupy the stream's queue.
+
+  Options:
+
+  Key                   | Type    | Description
+  ---                   |---      |---
+  :queue-size           | long    | Number of events buffered for each stream, default 64
+  :slow-consumer-policy | keyword | :drop (default), :coalesce, or :disconnect
+  :heartbeat-delay      | long    | Seconds between heartbeats, default 10
+  :replay-size          | long    | Number of recent events retained per topic for replay, default 0 (no replay)
+  :metric-name          | keyword | Optional, added as the :hub attribute of metrics
+
+  The slow consumer policy is applied when a stream's queue is full:
+
+  - :drop - the new event is not sent to the stream
+  - :coalesce - the oldest queued event is discarded to make room for the new event
+  - :disconnect - the stream is closed
+
+  When :replay-size is positive, a reconnecting client that provides a Last-Event-ID header
+  is sent the events it missed, rather than being treated as a new client; see [[subscribe]].
+
+  Topics may be any value; the topic (as a string) is the :topic attribute of the hub's metrics.
+  Hubs that share topic names should have distinct :metric-name values, so that their metrics are distinct.
+
+  A topic's state is created when a stream subscribes, and discarded when its last stream disconnects.
+  When :replay-size is positive, a topic's state (including its replay buffer) is created when an event is
+  published to it, and retained for the life of the hub.
+
+  The hub should be closed with [[close-hub]] when no longer needed."
+  {:added "0.8.2"}
+  ([]
+   (create-hub nil))
+  ([options]
+   (let [{:keys [queue-size slow-consumer-policy heartbeat-delay replay-size metric-name]
+          :or   {queue-size           64
+                 slow-consumer-policy :drop
+                 heartbeat-delay      10
+                 replay-size          0}} options
+         _ (when-not (#{:drop :coalesce :disconnect} slow-consumer-policy)
+             (throw (ex-info (str "Unknown slow consumer policy: " slow-consumer-policy)
+                             {:slow-consumer-policy slow-consumer-policy})))]
+     {:topics          (ConcurrentHashMap.)
+      :queue-size      queue-size
+      :policy          slow-consumer-policy
+      :heartbeat-delay heartbeat-delay
+      :replay-size     replay-size
+      :metric-name     metric-name})))
+
+(defn- register!
+  "Adds the event channel to the topic's subscribers, creating the topic's state if necessary.
+  Returns the topic state, and (when the client is resuming from the last event id) the events it missed,
+  or nil if they are not available."
+  [hub topic event-channel last-event-id]
+  (if (pos? (long (:replay-size hub)))
+    ;; Topics with a replay buffer are never removed.
+    (let [{:keys [^Set subscribers replay-buffer] :as state} (ensure-topic-state hub topic)]
+      (if-not last-event-id
+        (do
+          (.add subscribers event-channel)
+          [state nil])
+        ;; Publishing also locks the buffer, so the stream receives each event exactly once: either
+        ;; replayed here, or offered to the event channel once subscribed.
+        (locking replay-buffer
+          (.add subscribers event-channel)
+          [state (replay-since replay-buffer last-event-id)])))
+    ;; Subscribers are only changed inside compute, so the topic is never removed (when emptied)
+    ;; while a stream is being added to it.
+    [(.compute ^ConcurrentHashMap (:topics hub) topic
+               (reify BiFunction
+                 (apply [_ _ state]
+                   (let [state (or state (new-topic hub topic))]
+                     (.add ^Set (:subscribers state) event-channel)
+                     state))))
+     nil]))
+
+(defn- unregister!
+  "Removes the event channel from the topic's subscribers, discarding the topic's state once the last subscriber
+  is removed (unless it has a replay buffer)."
+  [hub topic event-channel]
+  (.computeIfPresent ^ConcurrentHashMap (:topics hub) topic
+                     (reify BiFunction
+                       (apply [_ _ state]
+                         (let [^Set subscribers (:subscribers state)]
+                           (.remove subscribers event-channel)
+                           (when (or (:replay-buffer state)
+                                     (not (.isEmpty subscribers)))
+                             state))))))
+
+(defn- replay!
+  [response-channel events]
+  ;; The dispatch loop hasn't started yet, so the missed events are written ahead of any
+  ;; events queued for the stream since it subscribed.
+  (loop [[^EncodedEvent event & more] events]
+    (when (and event
+               (>!! response-channel (record-payload (.payload event))))
+      (recur more))))
+
+(defn subscribe
+  "Starts an event stream (as with [[start-stream]]) that receives the events published to the topic.
+
+  When the hub retains events for replay (its :replay-size option), a client reconnecting with a
+  Last-Event-ID header is sent the events published after that event, then receives new events as they are
+  published.  If that event is no longer retained, the :resync-fn is called, to send the client
+  its full state.
+
+  Options:
+  :stream-ready-fn - called with the event channel and context, once the stream is subscribed,
+  typically to send an initial event; not called when the client is resuming via replay
+  :resync-fn - called like :stream-ready-fn, when a reconnecting client can't be resumed;
+  defaults to the :stream-ready-fn
+  :on-client-disconnect - callback passed the context when the stream closes
+
+  The application may also put events directly onto the event channel; closing the channel
+  unsubscribes the stream.
+
+  Returns the context, as with start-stream."
+  {:added "0.8.2"}
+  ([hub topic context]
+   (subscribe hub topic context nil))
+  ([hub topic context opts]
+   (let [{:keys [stream-ready-fn resync-fn on-client-disconnect]} opts
+         last-event-id  (extract-string (get-in context [:request :headers]) "last-event-id")
+         *event-channel (atom nil)
+         ready-fn       (fn [event-channel context]
+                          (reset! *event-channel event-channel)
+                          (try
+                            (let [[{:keys [replayed-fn]
+                                    resync-counter-fn :resync-fn} missed] (register! hub topic event-channel last-event-id)]
+                              (cond
+                                (nil? last-event-id)
+                                (when stream-ready-fn
+                                  (stream-ready-fn event-channel context))
+
+                                missed
+                                (do
+                                  (replayed-fn (count missed))
+                                  (replay! (:response-channel context) missed))
+
+                                :else
+                                (do
+                                  (resync-counter-fn)
+                                  (when-let [f (or resync-fn stream-ready-fn)]
+                                    (f event-channel context)))))
+                            (catch Throwable t
+                              ;; The stream is unsubscribed immediately; with its channels closed, the dispatch loop
+                              ;; ends as soon as it starts.
+                              (log/error :msg "Exception starting subscribed SSE stream"
+                                         :topic topic
+                                         :exception t)
+                              (unregister! hub topic event-channel)
+                              (close! event-channel)
+                              (close! (:response-channel context)))))
+         disconnect-fn  (fn [context]
+                          (unregister! hub topic @*event-channel)
+                          (when on-client-disconnect
+                            (on-client-disconnect context)))]
+     (start-stream ready-fn context (:heartbeat-delay hub) (:queue-size hub) {:on-client-disconnect disconnect-fn}))))
+
+(defn- fan-out
+  [policy dropped-fn ^Set subscribers encoded]
+  (reduce (fn [n ch]
+            (if (offer-event! policy dropped-fn ch encoded)
+              (inc n)
+              n))
+          0
+          subscribers))
+
+(defn publish
+  "Publishes an event to all streams subscribed to the topic.  The event is encoded once,
+  via [[encode-event]], and offered to each stream.
+
+  When the hub retains events for replay, the event is also added to the topic's replay buffer;
+  only events with an :id can be resumed from.
+
+  Returns the number of streams to which the event was queued."
+  {:added "0.8.2"}
+  [hub topic event]
+  ;; Without replay, there's nothing to do for a topic without subscribers.
+  (if-let [{:keys [subscribers replay-buffer published-fn dropped-fn]} (if (pos? (long (:replay-size hub)))
+                                                                         (ensure-topic-state hub topic)
+                                                                         (topic-state hub topic))]
+    (let [encoded (if (instance? EncodedEvent event)
+                    event
+                    (encode-event event))
+          policy  (:policy hub)]
+      (published-fn)
+      (if replay-buffer
+        (locking replay-buffer
+          (replay-append! replay-buffer encoded)
+          (fan-out policy dropped-fn subscribers encoded))
+        (fan-out policy dropped-fn subscribers encoded)))
+    0))
+
+(defn subscriber-count
+  "Returns the number of streams currently subscribed to the topic."
+  {:added "0.8.2"}
+  [hub topic]
+  (if-let [{:keys [^Set subscribers]} (topic-state hub topic)]
+    (.size subscribers)
+    0))
+
+(defn close-hub
+  "Closes the event channel of every subscribed stream."
+  {:added "0.8.2"}
+  [hub]
+  (doseq [{:keys [^Set subscribers]} (-> ^ConcurrentHashMap (:topics hub) .values)
+          ch subscribers]
+    (close! ch)))
+
 (defn ^{:deprecated "0.8.0"} start-event-stream
   "Returns an interceptor which will start a Server Sent Event stream
   with the requesting client, and set the ServletResponse to go
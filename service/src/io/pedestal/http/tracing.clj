@@ -1,4 +1,4 @@
-; Copyright 2024-2025 Nubank NA
+; Copyright 2024-2026 Nubank NA
 
 ; The use and distribution terms for this software are covered by the
 ; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
@@ -15,7 +15,9 @@
   (:require [clojure.string :as string]
             [io.pedestal.tracing :as tracing]
             [io.pedestal.interceptor :refer [interceptor]]
-            [io.pedestal.interceptor.chain :as chain]))
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.http.route :as route])
+  (:import (java.util.concurrent ThreadLocalRandom)))
 
 (defn mark-routed
   "Marks the currently active span as routed, using route-name as the
@@ -42,13 +44,19 @@
 (defn- update-span-if-routed
   [context]
   (when-let [route (:route context)]
-    (let [{:keys [route-name path]} route]
-      (mark-routed context route-name path)))
+    ;; The router precomputes the span name and attributes for each route.
+    (if-let [{:keys [span-name attributes]} (-> route meta ::route/span-data)]
+      (-> (::span context)
+          (tracing/rename-span (or span-name
+                                   (str (-> context :request :request-method name string/upper-case)
+                                        " " (:path route))))
+          (tracing/add-attributes attributes))
+      (let [{:keys [route-name path]} route]
+        (mark-routed context route-name path))))
   context)
 
-
 (defn- trace-enter
-  [context]
+  [context parent-context]
   (let [{:keys [request]} context
         {:keys [server-port request-method scheme]} request
         ;; Use a placeholder name; it will be overwritten and further details added
@@ -59,6 +67,7 @@
                                                        ;; :scheme can be nil when using response-for, in tests
                                                        :scheme              (or scheme "unknown")
                                                        :server.port         server-port})
+                                 (cond-> parent-context (tracing/with-parent parent-context))
                                  (tracing/with-kind :server)
                                  tracing/start)
         otel-context         (tracing/make-span-context span)
@@ -74,7 +83,7 @@
         ;; to other threads the way a dynamic var will).
         (chain/bind tracing/*context* otel-context))))
 
-(defn- trace-leave
+(defn- trace-span-leave
   [context]
   (let [{:keys  [response]
          ::keys [span otel-context-cleanup prior-otel-context]} context
@@ -96,32 +105,91 @@
       (chain/bind context' tracing/*context* prior-otel-context)
       (chain/unbind context' tracing/*context*))))
 
+(defn- trace-leave
+  [context]
+  (if-not (::span context)
+    ;; Not sampled
+    (cond-> context
+      (::otel-context context) (dissoc ::otel-context))
+    (trace-span-leave context)))
+
 (defn- trace-error
   [context error]
   ;; If an exception is thrown inside trace-enter, trace-error will be called with the
   ;; unmodified context, which does not have a context.
   (let [{:keys [::span]} context]
     (if-not span
-      (assoc context ::chain/error error)
+      (-> context
+          (dissoc ::otel-context)
+          (assoc ::chain/error error))
       (-> context
           (assoc ::span (-> (tracing/record-exception span error)
                             (tracing/set-status-code :error)))
-          trace-leave
+          trace-span-leave
           ;; The exception is only reported here, not handled, so reattach for later interceptors to deal with.
           ;; Since this interceptor is usually first, it will fall back to stylobate logic to report the error
           ;; to the client, if not previously caught and handled.
           (chain/with-error error)))))
 
+(defn- sampler-for
+  [options]
+  (let [{:keys [sampler sample-rate]} options]
+    (cond
+      sampler sampler
+      (nil? sample-rate) (constantly true)
+      :else (let [sample-rate' (double sample-rate)]
+              (fn [_]
+                (< (.nextDouble (ThreadLocalRandom/current)) sample-rate'))))))
+
 (defn request-tracing-interceptor
   "A tracing interceptor traces the execution of the request.  When the request is
   successfully routed, the trace will identify the HTTP route and route name.
 
   This interceptor should come first (or at least, early) in the incoming pipeline to ensure
   that all execution time is accounted for.  This is less important when the OpenTelemetry Java agent is
-  in use, at that captures the overall request processing time, from start to finish, more accurately."
-  []
-  (interceptor
-    {:name  ::tracing
-     :enter trace-enter
-     :leave trace-leave
-     :error trace-error}))
+  in use, at that captures the overall request processing time, from start to finish, more accurately.
+
+  With no options, every request is traced. Options enable head-based sampling:
+
+  Key            | Type    | Description
+  ---            |---      |---
+  :sampler       | fn      | Passed the request map, returns true if the request should be traced
+  :sample-rate   | double  | Fraction of requests to trace, from 0.0 to 1.0; used when there's no :sampler
+  :parent-based? | boolean | If true (the default), a valid `traceparent` request header determines whether the request is traced
+
+  When sampling options are provided, a `traceparent` header (and `tracestate` header) also identifies the parent of
+  the request's span.
+
+  For a request that is not sampled, no span is created, and the interceptor chain's bindings are unchanged;
+  when there is a `traceparent` header, the remote trace context is stored in the context
+  as :io.pedestal.http.tracing/otel-context, so that it may be propagated to other services."
+  ([]
+   (interceptor
+     {:name  ::tracing
+      :enter #(trace-enter % nil)
+      :leave trace-leave
+      :error trace-error}))
+  ([options]
+   (let [sample?       (sampler-for options)
+         parent-based? (:parent-based? options true)]
+     (interceptor
+       {:name  ::tracing
+        :enter (fn [context]
+                 (let [request        (:request context)
+                       parent-context (tracing/extract-context (:headers request))]
+                   (cond
+                     (and parent-context parent-based?)
+                     (if (tracing/sampled? parent-context)
+                       (trace-enter context parent-context)
+                       (assoc context ::otel-context parent-context))
+
+                     (sample? request)
+                     (trace-enter context parent-context)
+
+                     parent-context
+                     (assoc context ::otel-context parent-context)
+
+                     :else
+                     context)))
+        :leave trace-leave
+        :error trace-error}))))
@@ -15,7 +15,9 @@
             [clojure.java.io :as io]
             [io.pedestal.json.protocols :as p])
   (:import (charred JSONWriter)
-           (java.io OutputStream)))
+           (java.io OutputStream)
+           (java.util.concurrent ArrayBlockingQueue ConcurrentHashMap)
+           (java.util.function Function)))
 
 (defn stream-json
   "Writes the object as JSON to the stream and returns the stream.  Some gymnastics occur to ensure
@@ -27,13 +29,45 @@
       (.flush json-writer))
     stream))
 
+;; Creating a charred parse function is relatively expensive, so parse functions are cached
+;; for each distinct options map (parsers, such as body-params, use the same options for every request).
+;; Parse functions reuse internal buffers, so each is borrowed from a small pool for the duration of a parse;
+;; unlike a ThreadLocal, this also works with virtual threads, which are not reused across requests.
+
+(def ^:private max-cached-parse-fns 64)
+
+(def ^:private pool-size (* 2 (.availableProcessors (Runtime/getRuntime))))
+
+(defn- parse-fn-pool
+  ^ArrayBlockingQueue [^ConcurrentHashMap cache options]
+  (or (.get cache options)
+      (when (< (.size cache) max-cached-parse-fns)
+        (.computeIfAbsent cache options
+                          (reify Function
+                            (apply [_ _]
+                              (ArrayBlockingQueue. (int pool-size))))))))
+
+(defn- read-json
+  [cache options reader]
+  (if-let [pool (parse-fn-pool cache options)]
+    (let [f (or (.poll pool)
+                (charred/parse-json-fn options))]
+      (try
+        (f reader)
+        (finally
+          ;; Discarded when the pool is already full
+          (.offer pool f))))
+    ;; Too many distinct options, don't cache
+    ((charred/parse-json-fn options) reader)))
+
 (defn processor
   "Returns a JSONProcessor that functions using the charred JSON library."
   []
-  (let [writer-fn (charred/json-writer-fn nil)]
+  (let [writer-fn (charred/json-writer-fn nil)
+        cache     (ConcurrentHashMap.)]
     (reify p/JSONProcessor
       (read-json [_ reader options]
-        (charred/read-json reader options))
+        (read-json cache (or options {}) reader))
 
       (stream-json [_ object stream]
         (stream-json object stream writer-fn)))))
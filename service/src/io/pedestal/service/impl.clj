@@ -15,9 +15,12 @@
   (:require [clj-commons.ansi :as ansi]
             [clj-commons.format.exceptions :as exceptions]
             [clojure.string :as string])
-  (:import (java.io ByteArrayInputStream ByteArrayOutputStream InputStream)
+  (:import (clojure.lang Volatile)
+           (java.io ByteArrayInputStream ByteArrayOutputStream InputStream)
            (java.nio ByteBuffer)
-           (java.nio.channels Channels ReadableByteChannel)))
+           (java.nio.channels Channels ReadableByteChannel)
+           (java.util Iterator Map$Entry)
+           (java.util.concurrent ConcurrentHashMap)))
 
 (defn byte-buffer->input-stream
   ^InputStream [^ByteBuffer bb]
@@ -58,3 +61,52 @@
   [exception]
   (binding [ansi/*color-enabled* false]
     (exceptions/format-exception exception)))
+
+;; A bounded cache with lock-free reads, and approximate least-recently-used eviction
+;; ("second chance", or CLOCK): each entry has a referenced flag, set when the entry is read.
+;; When the cache grows past its maximum size, a sweep clears the flag of referenced entries
+;; and evicts unreferenced ones.
+
+(defn bounded-cache
+  "Returns a new, empty cache for use with [[cache-get]] and [[cache-put!]]."
+  ^ConcurrentHashMap []
+  (ConcurrentHashMap.))
+
+(defn cache-get
+  "Returns the value cached for the (non-nil) key, or nil, marking the entry as recently used."
+  [^ConcurrentHashMap cache k]
+  (when-let [entry (.get cache k)]
+    (let [^Volatile referenced (nth entry 1)]
+      ;; Avoid a volatile write when the entry is already marked
+      (when-not @referenced
+        (vreset! referenced true))
+      (nth entry 0))))
+
+(defn- evict!
+  [^ConcurrentHashMap cache ^long max-size new-key]
+  ;; The first sweep may only clear flags; the second will find unreferenced entries.
+  ;; The newly added key is never evicted.
+  (loop [sweeps 2]
+    (let [^Iterator iterator (.iterator (.entrySet cache))]
+      (loop []
+        (when (and (.hasNext iterator)
+                   (> (.size cache) max-size))
+          (let [^Map$Entry map-entry (.next iterator)
+                ^Volatile referenced (nth (.getValue map-entry) 1)]
+            (cond
+              (= new-key (.getKey map-entry)) nil
+              @referenced (vreset! referenced false)
+              :else (.remove iterator))
+            (recur)))))
+    (when (and (> sweeps 1)
+               (> (.size cache) max-size))
+      (recur (dec sweeps)))))
+
+(defn cache-put!
+  "Stores a (non-nil) value into the cache, evicting entries not recently used when the cache
+  exceeds max-size. Concurrent puts may briefly exceed max-size. Returns the value."
+  [^ConcurrentHashMap cache ^long max-size k v]
+  (.put cache k [v (volatile! false)])
+  (when (> (.size cache) max-size)
+    (evict! cache max-size k))
+  v)
@@ -23,12 +23,15 @@
             [io.pedestal.http.route.definition.table :as table]))
 
 (def ^:private default-opts
-  {:allow-head?     true
-   :prefix          "/"
-   :route-namespace "io.pedestal.service.resources"
-   :index-files?    true
-   :cache?          true
-   :fast?           true})
+  {:allow-head?           true
+   :prefix                "/"
+   :route-namespace       "io.pedestal.service.resources"
+   :index-files?          true
+   :cache?                true
+   :fast?                 true
+   :memory-cache-max-size 65536
+   :mmap-size             1048576
+   :precompressed?        false})
 
 (defn- clean-path
   "The path may contain redundant slashes; remove all from the start and collapse the rest
@@ -40,10 +43,12 @@
 
 (defn- response
   [response-data body]
-  (let [{:keys [content-length last-modified]} response-data]
+  (let [{:keys [content-length last-modified content-encoding vary]} response-data]
     {:status  200
-     :headers {"Content-Length" (str content-length)
-               "Last-Modified"  (ring.util.time/format-date last-modified)}
+     :headers (cond-> {"Content-Length" (str content-length)
+                       "Last-Modified"  (ring.util.time/format-date last-modified)}
+                content-encoding (assoc "Content-Encoding" content-encoding)
+                vary (assoc "Vary" "Accept-Encoding"))
      :body    body}))
 
 (defn- create-get-handler
@@ -74,6 +79,40 @@
               (swap! *cache assoc path result)
               result))))))
 
+(defn- wrap-with-memory-cache
+  [delegate-supplier opts]
+  (let [{:keys [memory-cache-bytes memory-cache-max-size mmap-size prefix]} opts
+        cache (impl/memory-cache memory-cache-bytes {:prefix prefix})]
+    (fn memory-data-supplier [path]
+      (when-let [data (delegate-supplier path)]
+        (impl/in-memory-resource-data cache path data memory-cache-max-size mmap-size)))))
+
+(defn- accepted-encodings
+  "Returns a set of the encodings accepted by the client, from the Accept-Encoding header."
+  [request]
+  (when-let [header (get-in request [:headers "accept-encoding"])]
+    (->> (string/split header #"\s*,\s*")
+         (keep (fn [element]
+                 (let [[encoding & params] (string/split element #"\s*;\s*")]
+                   (when-not (some #(re-matches #"q=0(\.0*)?" %) params)
+                     (string/lower-case encoding)))))
+         set)))
+
+(defn- precompressed-data
+  "Returns data for the resource, or for a precompressed sibling (with a .br or .gz extension) if the
+  client accepts that encoding."
+  [supplier path request]
+  (when-let [data (supplier path)]
+    (let [encodings (accepted-encodings request)
+          variant   (fn [encoding extension]
+                      (when (contains? encodings encoding)
+                        (some-> (supplier (str path extension))
+                                (assoc :content-encoding encoding))))]
+      (-> (or (variant "br" ".br")
+              (variant "gzip" ".gz")
+              data)
+          (assoc :vary true)))))
+
 (defn- make-routes
   [response-supplier suffix opts]
   (let [{:keys [allow-head?
@@ -81,14 +120,20 @@
                 route-namespace
                 index-files?
                 cache?
-                fast?]} opts
+                fast?
+                memory-cache-bytes
+                precompressed?]} opts
         _                     (assert (and (valid-prefix? prefix)
                                            (string/starts-with? prefix "/")))
         response-supplier'    (cond-> response-supplier
-                                cache? wrap-with-cache)
+                                cache? wrap-with-cache
+                                memory-cache-bytes (wrap-with-memory-cache opts))
         handler-data-supplier (fn [request]
-                                (let [{:keys [path]} (:path-params request)]
-                                  (response-supplier' (clean-path (or path "")))))
+                                (let [{:keys [path]} (:path-params request)
+                                      path' (clean-path (or path ""))]
+                                  (if precompressed?
+                                    (precompressed-data response-supplier' path' request)
+                                    (response-supplier' path'))))
         ;; Avoid // in the route path when prefix is just "/" (as opposed to something like
         ;; "/public".
         route-path            (str prefix
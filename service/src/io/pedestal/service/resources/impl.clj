@@ -13,13 +13,16 @@
   "Implementation details for io.pedestal.http.resource; subject to change at any time."
   (:require [clojure.java.io :as io]
             [clojure.string :as string]
+            [io.pedestal.metrics :as metrics]
             [io.pedestal.service.protocols :as sp]
             [ring.util.io :as util.io])
   (:import (java.io BufferedInputStream File InputStream)
            (java.net URL URI)
-           (java.nio.channels Channels FileChannel)
-           (java.nio.file OpenOption StandardOpenOption)
-           (java.util Date)
+           (java.nio ByteBuffer)
+           (java.nio.channels Channels FileChannel FileChannel$MapMode)
+           (java.nio.file Files OpenOption StandardOpenOption)
+           (java.util Date Iterator LinkedHashMap Map$Entry)
+           (java.util.concurrent.atomic AtomicLong)
            (java.util.jar JarEntry JarFile)))
 
 ;; This adapts some of the ideas from ring.util.response
@@ -85,11 +88,17 @@
   (when-let [^File file (from-cache *cache url (io/as-file url))]
     {:last-modified   (util.io/last-modified-date file)
      :content-length  (.length file)
+     :file            file
+     :read-bytes      #(Files/readAllBytes (.toPath file))
      :response-body   (fn [_] file)
      :streamable-body (make-streamable-file-body file)}))
 
+;; JarFiles on the classpath are long-lived, so they are opened once and kept open, even
+;; when the caller does not provide a cache.
+(def ^:private *jar-files (atom {}))
+
 (defmethod resource-data :jar
-  [^URL url *cache]
+  [^URL url _*cache]
   (let [[_ file-path entry-path] (re-matches
                                    #"(?x)
     file:
@@ -101,14 +110,15 @@
         _             (assert entry-path)
         file-path     (-> file-path URI. .getPath)
         entry-path    (-> entry-path URI. .getPath)
-        ;; This opens the jar file, there's nothing to close it.
-        ^JarFile jar-file (from-cache *cache file-path (-> file-path io/file JarFile.))
+        ^JarFile jar-file (from-cache *jar-files file-path (-> file-path io/file JarFile.))
         jar-entry (.getJarEntry jar-file entry-path)
         ;; This should exist because we start at the URL for the file within the Jar
         _             (assert jar-entry)
         last-modified (-> jar-entry .getLastModifiedTime .toMillis Date.)]
     {:last-modified   last-modified
      :content-length  (.getSize jar-entry)                  ; uncompressed size
+     :read-bytes      #(with-open [is (.getInputStream jar-file jar-entry)]
+                         (.readAllBytes is))
      :response-body   (fn [_] (buffered (.getInputStream jar-file jar-entry)))
      :streamable-body (make-streamable-jar-entry-body jar-file jar-entry)}))
 
@@ -151,3 +161,107 @@
       (when file'
         (io/as-url file')))))
 
+
+;; Memory cache: small resources are held as byte arrays, and large files are memory mapped; both are
+;; held in a single cache, bounded by total size (with least-recently-used eviction).
+
+(defn memory-cache
+  "Creates a memory cache of resource content; attributes are used for the cache's metrics."
+  [max-bytes attributes]
+  (let [cache {:map            (LinkedHashMap. 16 0.75 true)
+               :max-bytes      max-bytes
+               :*bytes         (AtomicLong.)
+               :*mapped-bytes  (AtomicLong.)
+               :eviction-fn    (metrics/counter :io.pedestal.service.resources/cache-eviction attributes)}
+        ^LinkedHashMap m (:map cache)]
+    (metrics/gauge :io.pedestal.service.resources/cache-bytes attributes
+                   #(.get ^AtomicLong (:*bytes cache)))
+    (metrics/gauge :io.pedestal.service.resources/cache-entries attributes
+                   #(locking m (.size m)))
+    (metrics/gauge :io.pedestal.service.resources/mapped-bytes attributes
+                   #(.get ^AtomicLong (:*mapped-bytes cache)))
+    cache))
+
+(defn- cached-content
+  [cache k last-modified]
+  (let [^LinkedHashMap m (:map cache)
+        entry            (locking m (.get m k))]
+    (when (= last-modified (:last-modified entry))
+      (:content entry))))
+
+(defn- adjust-size!
+  "Adds (or, when sign is -1, subtracts) the entry's size to the cache's byte counts."
+  [cache entry ^long sign]
+  (let [size (* sign (long (:size entry)))]
+    (.addAndGet ^AtomicLong (:*bytes cache) size)
+    (when (instance? ByteBuffer (:content entry))
+      (.addAndGet ^AtomicLong (:*mapped-bytes cache) size))))
+
+(defn- store-content!
+  "Stores content (a byte array or mapped ByteBuffer) of the given size in the cache, evicting
+  the least recently used content as necessary, and returns the content.
+
+  Content larger than the cache's max-bytes is returned without being stored."
+  [cache k last-modified content size]
+  (let [{^LinkedHashMap m :map
+         ^AtomicLong *bytes :*bytes
+         eviction-fn :eviction-fn} cache
+        max-bytes (long (:max-bytes cache))
+        entry     {:last-modified last-modified
+                   :content       content
+                   :size          size}]
+    (when (<= (long size) max-bytes)
+      (locking m
+        ;; A superseded mapping is released once the ByteBuffer is garbage collected.
+        (when-let [prior (.put m k entry)]
+          (adjust-size! cache prior -1))
+        (adjust-size! cache entry 1)
+        (let [^Iterator iterator (.iterator (.entrySet m))]
+          (while (and (> (.get *bytes) max-bytes)
+                      (.hasNext iterator))
+            (let [^Map$Entry eldest (.next iterator)]
+              (adjust-size! cache (.getValue eldest) -1)
+              (.remove iterator)
+              (eviction-fn))))))
+    content))
+
+(defn- map-file
+  ^ByteBuffer [^File file]
+  ;; The mapping remains valid after the channel is closed.
+  (with-open [channel (FileChannel/open (.toPath file) open-options)]
+    (.map channel FileChannel$MapMode/READ_ONLY 0 (.size channel))))
+
+(defn- with-body
+  [data body-fn]
+  (assoc data
+         :response-body body-fn
+         :streamable-body body-fn))
+
+(defn in-memory-resource-data
+  "Converts resource data (from resource-data) to serve content from memory; small resources (up to max-size bytes)
+  are stored in the cache's byte arrays; files of at least mmap-size bytes are memory mapped.
+  Both count against the cache's max-bytes; resources larger than that are not cached.
+  Other resources are served normally."
+  [cache k data max-size mmap-size]
+  (let [{:keys [content-length last-modified file read-bytes]} data
+        content-length (long content-length)]
+    (cond
+      (> content-length (long (:max-bytes cache)))
+      data
+
+      (<= content-length (long max-size))
+      (let [content (or (cached-content cache k last-modified)
+                        (let [^bytes content (read-bytes)]
+                          (store-content! cache k last-modified content (alength content))))]
+        (with-body data (constantly content)))
+
+      (and file
+           (>= content-length (long mmap-size)))
+      (let [^ByteBuffer content (or (cached-content cache k last-modified)
+                                    (let [content (map-file file)]
+                                      (store-content! cache k last-modified content (.capacity content))))]
+        ;; Each response needs its own position within the buffer.
+        (with-body data (fn [_] (.duplicate content))))
+
+      :else
+      data)))
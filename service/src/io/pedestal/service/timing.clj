@@ -0,0 +1,66 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.service.timing
+  "Latency histograms for each interceptor, and for each route, built on
+  [[io.pedestal.interceptor.chain/with-timing]]."
+  {:added "0.8.2"}
+  (:require [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.metrics :as metrics]))
+
+(defn timing-fn
+  "Returns a timing function, for use with [[io.pedestal.interceptor.chain/with-timing]], that records
+  durations (in nanoseconds) into histograms:
+
+  - :io.pedestal.service.timing/interceptor, with attributes :interceptor (the interceptor name) and :stage
+  - :io.pedestal.service.timing/route, with attribute :route (the route name, or absent if no route matched)
+
+  Options:
+
+  Key          | Type    | Description
+  ---          |---      |---
+  :metric-name | keyword | Optional, added as the :service attribute of metrics"
+  ([]
+   (timing-fn nil))
+  ([options]
+   (let [{:keys [metric-name]} options
+         attributes  (cond-> {::metrics/unit "ns"}
+                       metric-name (assoc :service metric-name))
+         stage-fn    (fn [stage]
+                       (metrics/bind-histogram ::interceptor (assoc attributes :stage (name stage)) :interceptor))
+         enter-fn    (stage-fn :enter)
+         leave-fn    (stage-fn :leave)
+         error-fn    (stage-fn :error)
+         route-fn    (metrics/bind-histogram ::route attributes :route)]
+     (fn [context interceptor-name stage elapsed-nanos]
+       (let [bound-fn (case stage
+                        :enter enter-fn
+                        :leave leave-fn
+                        :error error-fn
+                        :execution route-fn)
+             value    (if (identical? :execution stage)
+                        (-> context :route :route-name)
+                        interceptor-name)]
+         ((bound-fn value) elapsed-nanos))))))
+
+(defn with-timing
+  "Enables interceptor and route latency histograms (see [[timing-fn]]) for a sample of executions; this is
+  typically applied to the :initial-context of a connector map.
+
+  Options are as for [[timing-fn]], plus:
+
+  Key          | Type   | Description
+  ---          |---     |---
+  :sample-rate | double | Fraction of executions that are timed, from 0.0 to 1.0 (the default)"
+  ([context]
+   (with-timing context nil))
+  ([context options]
+   (chain/with-timing context (timing-fn options) (:sample-rate options 1.0))))
@@ -0,0 +1,66 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.service.virtual-threads
+  "Support for executing the interceptor chain on virtual threads (which requires Java 21 or later).
+
+  Pedestal supports Java 17, so virtual threads are accessed reflectively."
+  {:added "0.8.2"}
+  (:require [io.pedestal.log :as log]
+            [io.pedestal.metrics :as metrics])
+  (:import (java.util.concurrent ExecutorService Executors)
+           (java.util.function Consumer)
+           (jdk.jfr.consumer RecordingStream)))
+
+(def ^:private new-executor-method
+  (try
+    (.getMethod Executors "newVirtualThreadPerTaskExecutor" (make-array Class 0))
+    (catch NoSuchMethodException _ nil)))
+
+(defn supported?
+  "Returns true if the JVM supports virtual threads."
+  []
+  (some? new-executor-method))
+
+(defn- start-pinned-monitor
+  "Uses a JFR event stream to count virtual thread pinning events (a virtual thread blocking
+  while pinned to its carrier thread, typically inside a synchronized block)."
+  []
+  (try
+    (let [pinned-fn (metrics/counter :io.pedestal/virtual-threads-pinned nil)
+          stream    (RecordingStream.)]
+      (.enable stream "jdk.VirtualThreadPinned")
+      (.onEvent stream "jdk.VirtualThreadPinned"
+                (reify Consumer
+                  (accept [_ _event]
+                    (pinned-fn))))
+      (.startAsync stream)
+      stream)
+    (catch Throwable t
+      (log/warn :msg "Unable to monitor virtual thread pinning"
+                :exception t)
+      nil)))
+
+(def ^:private *pinned-monitor (delay (start-pinned-monitor)))
+
+(defn executor
+  "Creates an ExecutorService that starts a new virtual thread for each task.
+
+  Also starts (once) a monitor that counts virtual thread pinning events,
+  as the :io.pedestal/virtual-threads-pinned counter metric.
+
+  Throws an exception if virtual threads are not supported."
+  ^ExecutorService []
+  (when-not (supported?)
+    (throw (ex-info "Virtual threads require Java 21 or later"
+                    {:java-version (System/getProperty "java.version")})))
+  @*pinned-monitor
+  (.invoke new-executor-method nil (object-array 0)))
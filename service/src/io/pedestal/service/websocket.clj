@@ -12,9 +12,14 @@
 (ns io.pedestal.service.websocket
   "WebSocket support abstracted away from the Servlet API."
   {:added "0.8.0"}
-  (:require [clojure.core.async :refer [go-loop thread chan <! put!]]
+  (:require [clojure.core.async :as async :refer [go-loop thread chan <! put!]]
             [io.pedestal.interceptor :refer [interceptor]]
-            [io.pedestal.log :as log]))
+            [io.pedestal.log :as log]
+            [io.pedestal.metrics :as metrics])
+  (:import (java.nio ByteBuffer)
+           (java.util Set)
+           (java.util.concurrent ConcurrentHashMap)
+           (java.util.function BiFunction Function)))
 
 (defprotocol WebSocketChannel
 
@@ -177,3 +182,229 @@
         (close! ws-channel)))
     ;; Return the channel used to send messages to the client
     send-ch))
+
+;; Hubs: publishing messages to the WebSocketChannels subscribed to a topic.
+
+(declare remove-subscriber)
+
+(defn- serialize-message
+  [serialize-fn message]
+  (cond
+    (or (string? message) (bytes? message)) message
+
+    (instance? ByteBuffer message)
+    (let [buffer ^ByteBuffer (.duplicate ^ByteBuffer message)
+          bytes  (byte-array (.remaining buffer))]
+      (.get buffer bytes)
+      bytes)
+
+    :else
+    (serialize-fn message)))
+
+(defn- offer-message!
+  "Offers the message to the subscriber's queue, applying the slow consumer policy if the queue is full.
+  Returns true if the message was queued."
+  [hub subscriber dropped-fn message]
+  (let [queue  (:queue subscriber)
+        result (async/offer! queue message)]
+    (cond
+      result true
+
+      ;; The queue is closed: the subscriber has been removed.
+      (false? result) false
+
+      :else
+      (do
+        (dropped-fn)
+        (case (:policy hub)
+          :drop false
+          ;; Discard the oldest queued message to make room for the new one.
+          :coalesce (do
+                      (async/poll! queue)
+                      (boolean (async/offer! queue message)))
+          :disconnect (do
+                        (remove-subscriber hub (:ws-channel subscriber))
+                        (close! (:ws-channel subscriber))
+                        false))))))
+
+(defn- start-sender
+  "Starts a loop that sends queued messages to the client, one at a time, until the queue is closed
+  or the client disconnects."
+  [hub ws-channel queue]
+  (go-loop []
+    (when-let [message (<! queue)]
+      (let [result (<! (async-send! ws-channel message))]
+        (cond
+          (= :closed result)
+          (remove-subscriber hub ws-channel)
+
+          (instance? Throwable result)
+          (do
+            (log/error :msg "Failed to send WebSocket message"
+                       :exception result)
+            (recur))
+
+          :else
+          (recur))))))
+
+(defn- new-subscriber
+  [hub ws-channel]
+  (let [buffer (async/buffer (:queue-size hub))
+        queue  (chan buffer)]
+    (start-sender hub ws-channel queue)
+    {:ws-channel ws-channel
+     :buffer     buffer
+     :queue      queue
+     :topics     (ConcurrentHashMap/newKeySet)}))
+
+(defn- topic-subscribers
+  "Returns the ids of channels subscribed to the topic, or nil if none."
+  ^Set [hub topic]
+  (.get ^ConcurrentHashMap (:topics hub) topic))
+
+;; Topic sets are only changed inside compute, so a set is never removed (when emptied) while
+;; a channel is being added to it.
+
+(defn- add-topic-subscriber!
+  [hub topic channel-id]
+  (.compute ^ConcurrentHashMap (:topics hub) topic
+            (reify BiFunction
+              (apply [_ _ channel-ids]
+                (doto ^Set (or channel-ids (ConcurrentHashMap/newKeySet))
+                  (.add channel-id))))))
+
+(defn- remove-topic-subscriber!
+  [hub topic channel-id]
+  (.computeIfPresent ^ConcurrentHashMap (:topics hub) topic
+                     (reify BiFunction
+                       (apply [_ _ channel-ids]
+                         (.remove ^Set channel-ids channel-id)
+                         (when-not (.isEmpty ^Set channel-ids)
+                           channel-ids)))))
+
+(defn- queue-depth
+  [hub]
+  (reduce (fn [n subscriber]
+            (+ n (count (:buffer subscriber))))
+          0
+          (.values ^ConcurrentHashMap (:subscribers hub))))
+
+(defn create-hub
+  "Creates a hub, used to publish messages to WebSocketChannels that have subscribed to topics; this works
+  with any network connector.
+
+  Each published message is serialized once, and the same String or byte array is queued for each subscriber.
+  Each subscribed WebSocketChannel has a single bounded queue of outgoing messages (shared by all of its topics),
+  and messages are sent to the client one at a time.
+
+  Options:
+
+  Key                   | Type    | Description
+  ---                   |---      |---
+  :queue-size           | long    | Number of messages queued for each channel, default 64
+  :slow-consumer-policy | keyword | :drop (default), :coalesce, or :disconnect
+  :serialize-fn         | fn      | Converts a message that is not a String, byte array, or ByteBuffer to a String or byte array, default pr-str
+  :metric-name          | keyword | Optional, added as the :hub attribute of metrics
+
+  The slow consumer policy is applied when a channel's queue is full:
+
+  - :drop - the new message is not sent to the channel
+  - :coalesce - the oldest queued message is discarded to make room for the new message
+  - :disconnect - the channel is closed
+
+  The :io.pedestal.service.websocket/queue-depth gauge is the total number of messages queued for all channels,
+  and the :io.pedestal.service.websocket/dropped counter (with :topic and :policy attributes) counts
+  the times the policy was applied."
+  {:added "0.8.2"}
+  ([]
+   (create-hub nil))
+  ([options]
+   (let [{:keys [queue-size slow-consumer-policy serialize-fn metric-name]
+          :or   {queue-size           64
+                 slow-consumer-policy :drop
+                 serialize-fn         pr-str}} options
+         _          (when-not (#{:drop :coalesce :disconnect} slow-consumer-policy)
+                      (throw (ex-info (str "Unknown slow consumer policy: " slow-consumer-policy)
+                                      {:slow-consumer-policy slow-consumer-policy})))
+         attributes (when metric-name {:hub metric-name})
+         hub        {:subscribers  (ConcurrentHashMap.)
+                     :topics       (ConcurrentHashMap.)
+                     :queue-size   queue-size
+                     :policy       slow-consumer-policy
+                     :serialize-fn serialize-fn
+                     :published-fn (metrics/bind-counter ::published attributes :topic)
+                     :dropped-fn   (metrics/bind-counter ::dropped
+                                                         (assoc attributes :policy (name slow-consumer-policy))
+                                                         :topic)}]
+     (metrics/gauge ::queue-depth attributes #(queue-depth hub))
+     (metrics/gauge ::subscribers attributes #(.size ^ConcurrentHashMap (:subscribers hub)))
+     hub)))
+
+(defn subscribe
+  "Subscribes the WebSocketChannel to the topic; a channel may be subscribed to any number of topics.
+
+  The application should invoke [[remove-subscriber]] when the channel closes (from the :on-close callback).
+
+  Returns nil."
+  {:added "0.8.2"}
+  [hub ws-channel topic]
+  (let [channel-id (id ws-channel)
+        subscriber (.computeIfAbsent ^ConcurrentHashMap (:subscribers hub) channel-id
+                                     (reify Function
+                                       (apply [_ _]
+                                         (new-subscriber hub ws-channel))))]
+    (.add ^Set (:topics subscriber) topic)
+    (add-topic-subscriber! hub topic channel-id)
+    nil))
+
+(defn unsubscribe
+  "Unsubscribes the WebSocketChannel from the topic.  Returns nil."
+  {:added "0.8.2"}
+  [hub ws-channel topic]
+  (let [channel-id (id ws-channel)]
+    (remove-topic-subscriber! hub topic channel-id)
+    (when-let [subscriber (.get ^ConcurrentHashMap (:subscribers hub) channel-id)]
+      (.remove ^Set (:topics subscriber) topic))
+    nil))
+
+(defn remove-subscriber
+  "Unsubscribes the WebSocketChannel from all topics, and discards any messages queued for it.
+
+  Returns nil."
+  {:added "0.8.2"}
+  [hub ws-channel]
+  (let [channel-id (id ws-channel)]
+    (when-let [subscriber (.remove ^ConcurrentHashMap (:subscribers hub) channel-id)]
+      (doseq [topic (:topics subscriber)]
+        (remove-topic-subscriber! hub topic channel-id))
+      (let [queue (:queue subscriber)]
+        (async/close! queue)
+        (while (async/poll! queue))))
+    nil))
+
+(defn publish
+  "Publishes a message to all WebSocketChannels subscribed to the topic.
+
+  A String is sent as a text message; a byte array or ByteBuffer is sent as a binary message.
+  Other values are first converted by the hub's :serialize-fn.  The message is serialized once,
+  regardless of the number of subscribers.
+
+  Returns the number of channels for which the message was queued."
+  {:added "0.8.2"}
+  [hub topic message]
+  (let [{:keys [^ConcurrentHashMap subscribers serialize-fn published-fn dropped-fn]} hub
+        ;; Keywords and strings are converted by the metric source
+        topic-value (if (or (keyword? topic) (string? topic))
+                      topic
+                      (str topic))
+        dropped-fn  (dropped-fn topic-value)
+        message'    (serialize-message serialize-fn message)]
+    ((published-fn topic-value))
+    (reduce (fn [n channel-id]
+              (if-let [subscriber (.get subscribers channel-id)]
+                (if (offer-message! hub subscriber dropped-fn message')
+                  (inc n)
+                  n)
+                n))
+            0
+            (topic-subscribers hub topic))))
@@ -0,0 +1,359 @@
+/* Copyright 2026 Nubank NA
+
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+ * which can be found in the file epl-v10.html at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package io.pedestal.servlet;
+
+import clojure.lang.*;
+import jakarta.servlet.Servlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Iterator;
+
+/**
+ * A Ring request map that reads values from the HttpServletRequest only when a key is first accessed,
+ * then caches the value.  The keys and values are identical to those produced by
+ * io.pedestal.http.request.map/servlet-request-map.
+ *
+ * <p>Any operation that modifies the map (assoc, dissoc, conj), or that needs to see every entry (seq, count,
+ * iteration, equality) first realizes the map as a normal persistent map; the realized map is cached, and modifying
+ * operations return ordinary Clojure maps.</p>
+ *
+ * <p>Instances are intended to be used by a single request processing thread at a time; at worst, concurrent access
+ * results in a value being computed more than once.</p>
+ *
+ * @since 0.8.2
+ */
+public final class LazyRequestMap extends APersistentMap implements IObj {
+
+    private static final Keyword SERVER_PORT = Keyword.intern("server-port");
+    private static final Keyword SERVER_NAME = Keyword.intern("server-name");
+    private static final Keyword REMOTE_ADDR = Keyword.intern("remote-addr");
+    private static final Keyword URI = Keyword.intern("uri");
+    private static final Keyword QUERY_STRING = Keyword.intern("query-string");
+    private static final Keyword SCHEME = Keyword.intern("scheme");
+    private static final Keyword REQUEST_METHOD = Keyword.intern("request-method");
+    private static final Keyword HEADERS = Keyword.intern("headers");
+    private static final Keyword BODY = Keyword.intern("body");
+    private static final Keyword PATH_INFO = Keyword.intern("path-info");
+    private static final Keyword PROTOCOL = Keyword.intern("protocol");
+    private static final Keyword ASYNC_SUPPORTED = Keyword.intern("async-supported?");
+    private static final Keyword CONTEXT_PATH = Keyword.intern("context-path");
+    private static final Keyword SERVLET = Keyword.intern("servlet");
+    private static final Keyword SERVLET_REQUEST = Keyword.intern("servlet-request");
+    private static final Keyword SERVLET_RESPONSE = Keyword.intern("servlet-response");
+    private static final Keyword CONTENT_LENGTH = Keyword.intern("content-length");
+    private static final Keyword CONTENT_TYPE = Keyword.intern("content-type");
+    private static final Keyword CHARACTER_ENCODING = Keyword.intern("character-encoding");
+    private static final Keyword SSL_CLIENT_CERT = Keyword.intern("ssl-client-cert");
+
+    /**
+     * Keys that are always present, in the order they are realized.
+     */
+    private static final Keyword[] REQUIRED_KEYS = {SERVER_PORT, SERVER_NAME, REMOTE_ADDR, URI, QUERY_STRING,
+            SCHEME, REQUEST_METHOD, HEADERS, BODY, PATH_INFO, PROTOCOL, ASYNC_SUPPORTED, CONTEXT_PATH,
+            SERVLET, SERVLET_REQUEST, SERVLET_RESPONSE};
+
+    /**
+     * Keys that are only present when the servlet request provides a non-null value.
+     */
+    private static final Keyword[] OPTIONAL_KEYS = {CONTENT_LENGTH, CONTENT_TYPE, CHARACTER_ENCODING,
+            SSL_CLIENT_CERT};
+
+    private static final Object ABSENT = new Object();
+
+    private final Servlet servlet;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+
+    // Values that are computed from the request, each initially null (not yet computed).
+    // Values that may legitimately be missing are stored as ABSENT.
+
+    private Object serverName, remoteAddr, uri, queryString, scheme, requestMethod, headers,
+            body, pathInfo, protocol, contextPath, contentLength, contentType, characterEncoding, sslClientCert;
+
+    private IPersistentMap realized;
+
+    public LazyRequestMap(Servlet servlet, HttpServletRequest request, HttpServletResponse response) {
+        this.servlet = servlet;
+        this.request = request;
+        this.response = response;
+    }
+
+    private static Object orAbsent(Object value) {
+        return value == null ? ABSENT : value;
+    }
+
+    private static Object present(Object value, Object notFound) {
+        return value == ABSENT ? notFound : value;
+    }
+
+    private Object contentLength() {
+        if (contentLength == null) {
+            long length = request.getContentLengthLong();
+            contentLength = length < 0 ? ABSENT : Long.valueOf(length);
+        }
+
+        return contentLength;
+    }
+
+    private Object contentType() {
+        if (contentType == null) {
+            contentType = orAbsent(request.getContentType());
+        }
+
+        return contentType;
+    }
+
+    private Object headers() {
+        if (headers == null) {
+            ITransientMap out = PersistentHashMap.EMPTY.asTransient();
+            Enumeration<String> names = request.getHeaderNames();
+
+            while (names.hasMoreElements()) {
+                String name = names.nextElement();
+                Enumeration<String> values = request.getHeaders(name);
+                StringBuilder builder = new StringBuilder();
+
+                while (values.hasMoreElements()) {
+                    if (builder.length() > 0) {
+                        builder.append(',');
+                    }
+                    builder.append(values.nextElement());
+                }
+
+                out = out.assoc(name.toLowerCase(), builder.toString());
+            }
+
+            Object length = contentLength();
+
+            if (length != ABSENT) {
+                out = out.assoc("content-length", length.toString());
+            }
+
+            Object type = contentType();
+
+            if (type != ABSENT) {
+                out = out.assoc("content-type", type);
+            }
+
+            headers = out.persistent();
+        }
+
+        return headers;
+    }
+
+    private Object pathInfo() {
+        if (pathInfo == null) {
+            String path = request.getRequestURI().substring(request.getContextPath().length());
+
+            pathInfo = path.isEmpty() ? "/" : path;
+        }
+
+        return pathInfo;
+    }
+
+    private Object body() {
+        if (body == null) {
+            try {
+                body = request.getInputStream();
+            } catch (IOException e) {
+                throw clojure.lang.Util.sneakyThrow(e);
+            }
+        }
+
+        return body;
+    }
+
+    @Override
+    public Object valAt(Object key, Object notFound) {
+        if (realized != null) {
+            return realized.valAt(key, notFound);
+        }
+
+        if (!(key instanceof Keyword)) {
+            return notFound;
+        }
+
+        // Keywords are interned, so identity comparisons are sufficient.
+
+        if (key == HEADERS) return headers();
+
+        if (key == URI) {
+            if (uri == null) uri = request.getRequestURI();
+            return uri;
+        }
+
+        if (key == PATH_INFO) return pathInfo();
+
+        if (key == REQUEST_METHOD) {
+            if (requestMethod == null) requestMethod = Keyword.intern(request.getMethod().toLowerCase());
+            return requestMethod;
+        }
+
+        if (key == QUERY_STRING) {
+            if (queryString == null) queryString = orAbsent(request.getQueryString());
+            // :query-string is always present, but may be nil
+            return present(queryString, null);
+        }
+
+        if (key == BODY) return body();
+
+        if (key == SERVLET_REQUEST) return request;
+        if (key == SERVLET_RESPONSE) return response;
+        if (key == SERVLET) return servlet;
+
+        if (key == CONTENT_TYPE) return present(contentType(), notFound);
+        if (key == CONTENT_LENGTH) return present(contentLength(), notFound);
+
+        if (key == CHARACTER_ENCODING) {
+            if (characterEncoding == null) characterEncoding = orAbsent(request.getCharacterEncoding());
+            return present(characterEncoding, notFound);
+        }
+
+        if (key == SCHEME) {
+            if (scheme == null) scheme = Keyword.intern(request.getScheme());
+            return scheme;
+        }
+
+        if (key == SERVER_PORT) return request.getServerPort();
+
+        if (key == SERVER_NAME) {
+            if (serverName == null) serverName = orAbsent(request.getServerName());
+            return present(serverName, null);
+        }
+
+        if (key == REMOTE_ADDR) {
+            if (remoteAddr == null) remoteAddr = orAbsent(request.getRemoteAddr());
+            return present(remoteAddr, null);
+        }
+
+        if (key == PROTOCOL) {
+            if (protocol == null) protocol = orAbsent(request.getProtocol());
+            return present(protocol, null);
+        }
+
+        if (key == ASYNC_SUPPORTED) return request.isAsyncSupported();
+
+        if (key == CONTEXT_PATH) {
+            if (contextPath == null) contextPath = orAbsent(request.getContextPath());
+            return present(contextPath, null);
+        }
+
+        if (key == SSL_CLIENT_CERT) {
+            if (sslClientCert == null)
+                sslClientCert = orAbsent(request.getAttribute("jakarta.servlet.request.X509Certificate"));
+            return present(sslClientCert, notFound);
+        }
+
+        return notFound;
+    }
+
+    @Override
+    public Object valAt(Object key) {
+        return valAt(key, null);
+    }
+
+    /**
+     * Realizes every key and value of the map, returning an ordinary persistent map.
+     * The result is cached; after realization, all lookups are delegated to the realized map.
+     */
+    public IPersistentMap realize() {
+        if (realized == null) {
+            ITransientMap out = PersistentArrayMap.EMPTY.asTransient();
+
+            for (Keyword k : REQUIRED_KEYS) {
+                out = out.assoc(k, valAt(k));
+            }
+
+            for (Keyword k : OPTIONAL_KEYS) {
+                Object value = valAt(k, ABSENT);
+
+                if (value != ABSENT) {
+                    out = out.assoc(k, value);
+                }
+            }
+
+            realized = out.persistent();
+        }
+
+        return realized;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return valAt(key, ABSENT) != ABSENT;
+    }
+
+    @Override
+    public IMapEntry entryAt(Object key) {
+        Object value = valAt(key, ABSENT);
+
+        return value == ABSENT ? null : MapEntry.create(key, value);
+    }
+
+    @Override
+    public IPersistentMap assoc(Object key, Object val) {
+        return realize().assoc(key, val);
+    }
+
+    @Override
+    public IPersistentMap assocEx(Object key, Object val) {
+        return realize().assocEx(key, val);
+    }
+
+    @Override
+    public IPersistentMap without(Object key) {
+        return realize().without(key);
+    }
+
+    @Override
+    public IPersistentCollection cons(Object o) {
+        return realize().cons(o);
+    }
+
+    @Override
+    public IPersistentCollection empty() {
+        return PersistentArrayMap.EMPTY;
+    }
+
+    @Override
+    public int count() {
+        return realize().count();
+    }
+
+    @Override
+    public ISeq seq() {
+        return realize().seq();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Iterator iterator() {
+        return ((Iterable) realize()).iterator();
+    }
+
+    @Override
+    public IPersistentMap meta() {
+        return null;
+    }
+
+    /**
+     * Realizes the map, and returns the realized map with the provided metadata.
+     */
+    @Override
+    public IObj withMeta(IPersistentMap meta) {
+        return ((IObj) realize()).withMeta(meta);
+    }
+}
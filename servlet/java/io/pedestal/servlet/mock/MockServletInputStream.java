@@ -22,13 +22,15 @@ class MockServletInputStream extends ServletInputStream {
 
     private final InputStream delegate;
 
+    private volatile boolean finished;
+
     MockServletInputStream(InputStream delegate) {
         this.delegate = delegate;
     }
 
     @Override
     public boolean isFinished() {
-        return false;
+        return finished;
     }
 
     @Override
@@ -38,22 +40,40 @@ class MockServletInputStream extends ServletInputStream {
 
     @Override
     public void setReadListener(ReadListener readListener) {
+        // The entire body is always available, so the listener is notified immediately, on the calling thread.
+        // A listener that stops reading early (before the end of the stream) is not notified again.
+        try {
+            readListener.onDataAvailable();
+
+            if (finished) {
+                readListener.onAllDataRead();
+            }
+        } catch (Throwable t) {
+            readListener.onError(t);
+        }
+    }
+
+    private int track(int result) {
+        if (result < 0) {
+            finished = true;
+        }
 
+        return result;
     }
 
     @Override
     public int read() throws IOException {
-        return delegate.read();
+        return track(delegate.read());
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        return delegate.read(b);
+        return track(delegate.read(b));
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        return delegate.read(b, off, len);
+        return track(delegate.read(b, off, len));
     }
 
     @Override
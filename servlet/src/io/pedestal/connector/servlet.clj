@@ -22,8 +22,8 @@
 
   Only the :interceptors and :initial-context keys of the connector map are used.
 
-  Options are as defined by [[http-interceptor-service-fn]] (:exception-analyzer is the only
-  current option)."
+  Options are as defined by [[http-interceptor-service-fn]] (:exception-analyzer and
+  :lazy-request-map?)."
   ([^Servlet servlet connector-map]
    (create-bridge servlet connector-map nil))
   ([^Servlet servlet connector-map options]
@@ -0,0 +1,218 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.async-body
+  "Non-blocking reads of the request body, for servlet-based connectors.
+
+  Normally, the request body is a blocking InputStream, and reading a slowly uploaded
+  body occupies a container thread for the entire upload.  The [[read-body]] interceptor
+  instead reads the body as data arrives, using a Servlet ReadListener."
+  {:added "0.8.2"}
+  (:require [clojure.core.async :as async]
+            [io.pedestal.http.impl.servlet-interceptor :as servlet-interceptor]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.log :as log])
+  (:import (jakarta.servlet ReadListener ServletInputStream)
+           (jakarta.servlet.http HttpServletRequest)
+           (java.io ByteArrayInputStream ByteArrayOutputStream)
+           (java.util Arrays)
+           (java.util.concurrent ConcurrentLinkedQueue)
+           (java.util.concurrent.atomic AtomicBoolean AtomicInteger)))
+
+;; Read buffers are pooled, and reused across requests.
+
+(defn- new-pool
+  [buffer-size max-size]
+  {:queue       (ConcurrentLinkedQueue.)
+   :*size       (AtomicInteger.)
+   :buffer-size buffer-size
+   :max-size    max-size})
+
+(defn- acquire
+  ^bytes [pool]
+  (let [{:keys [^ConcurrentLinkedQueue queue ^AtomicInteger *size buffer-size]} pool]
+    (if-let [buffer (.poll queue)]
+      (do
+        (.decrementAndGet *size)
+        buffer)
+      (byte-array buffer-size))))
+
+(defn- release
+  [pool ^bytes buffer]
+  (let [{:keys [^ConcurrentLinkedQueue queue ^AtomicInteger *size max-size]} pool]
+    (if (< (.getAndIncrement *size) (long max-size))
+      (.offer queue buffer)
+      (.decrementAndGet *size))))
+
+(def ^:private too-large-response
+  {:status  413
+   :headers {}
+   :body    "Request body too large"})
+
+;; A read-fn is passed the buffer, the number of bytes read, and the read-more function; it returns
+;; :more to continue reading, :paused if it will invoke read-more itself once it can accept more data,
+;; or :stop to abandon reading the body.
+
+(defn- buffered-reader
+  "Returns a [read-fn complete-fn abort-fn] triple that accumulates the body; on completion, the chain resumes
+  with the body as an InputStream.  Once the body exceeds max-body-size (if non-nil), reading stops and the
+  chain resumes with a 413 response."
+  [context ^HttpServletRequest servlet-request result-ch buffer-size max-body-size]
+  (let [length (.getContentLengthLong servlet-request)
+        ;; The Content-Length is provided by the client, so only a modest buffer is allocated up front.
+        out    (ByteArrayOutputStream. (int (if (pos? length)
+                                              (min length (long buffer-size))
+                                              buffer-size)))]
+    [(fn [^bytes buffer n _]
+       (.write out buffer 0 (int n))
+       (if (and max-body-size
+                (> (.size out) (long max-body-size)))
+         (do
+           (async/put! result-ch (assoc context :response too-large-response))
+           :stop)
+         :more))
+     (fn []
+       (async/put! result-ch (assoc-in context [:request :body] (ByteArrayInputStream. (.toByteArray out)))))
+     (fn [t]
+       (async/put! result-ch (chain/with-error context t)))]))
+
+(defn- chunked-reader
+  "Returns a [read-fn complete-fn abort-fn] triple that conveys each chunk of the body, as a byte array,
+  through a channel; the chain resumes immediately, with the channel as the body.
+
+  The chain has already resumed if reading fails, so the exception is conveyed on the channel (after any
+  chunks already read) and the channel is then closed."
+  [context chunk-buffer-or-n result-ch]
+  (let [body-ch (async/chan chunk-buffer-or-n)]
+    (async/put! result-ch (assoc-in context [:request :body] body-ch))
+    [(fn [^bytes buffer n read-more]
+       (let [chunk (Arrays/copyOf buffer (int n))]
+         (if (async/offer! body-ch chunk)
+           :more
+           ;; The channel is full: stop reading until the chunk is accepted.  The container
+           ;; does not notify the listener again until reading resumes.
+           (do
+             (async/put! body-ch chunk
+                         (fn [accepted?]
+                           (when accepted?
+                             (read-more)))
+                         false)
+             :paused))))
+     #(async/close! body-ch)
+     (fn [t]
+       ;; Closed only once the exception is accepted, as the channel may be full.
+       (async/put! body-ch t
+                   (fn [_]
+                     (async/close! body-ch))))]))
+
+(defn- start-reading
+  [pool ^ServletInputStream input [read-fn complete-fn abort-fn]]
+  (let [buffer     (acquire pool)
+        *completed (AtomicBoolean.)
+        finish     (fn []
+                     (when (.compareAndSet *completed false true)
+                       (release pool buffer)
+                       true))
+        complete   (fn []
+                     (when (finish)
+                       (complete-fn)))
+        error-fn   (fn [t]
+                     (when (finish)
+                       (log/error :msg "Error reading request body"
+                                  :exception t)
+                       (abort-fn t)))
+        read-more  (fn read-more []
+                     (try
+                       ;; Read while data is available without blocking; when isReady returns false,
+                       ;; the container invokes onDataAvailable once more data arrives.
+                       (loop []
+                         (when (and (not (.get *completed))
+                                    (.isReady input))
+                           (let [n (.read input buffer)]
+                             (cond
+                               (pos? n) (case (read-fn buffer n read-more)
+                                          :more (recur)
+                                          :paused nil
+                                          :stop (finish))
+                               (neg? n) (complete)
+                               :else (recur)))))
+                       (catch Throwable t
+                         (error-fn t))))]
+    (.setReadListener input
+                      (reify ReadListener
+                        (onDataAvailable [_]
+                          (read-more))
+                        (onAllDataRead [_]
+                          (complete))
+                        (onError [_ t]
+                          (error-fn t))))))
+
+(defn read-body
+  "Returns an interceptor that reads the request body without blocking, using a Servlet ReadListener;
+  the interceptor chain goes asynchronous while the body is read.
+
+  By default, the entire body is read into memory, and the chain resumes once the body is completely read;
+  the :body of the request is then an InputStream over the buffered content.
+
+  Alternately, when :mode is :chunks, the chain resumes immediately and the :body of the request is a core.async
+  channel that conveys the body as byte arrays; the channel closes after the final chunk.  Reading
+  pauses while the channel is full.  If reading fails part way through, the channel conveys the exception
+  (a Throwable) instead of further chunks, and then closes; consumers should check for this, rather than treat
+  the closed channel as the complete body.
+
+  Requests without a body (a Content-Length of zero), or that are not from a servlet-based connector, are not changed.
+
+  Options:
+
+  Key                | Type    | Description
+  ---                |---      |---
+  :mode              | keyword | :buffered (the default) or :chunks
+  :chunk-buffer-or-n | varies  | Passed to core.async/chan to create the body channel (:chunks only), default 8
+  :buffer-size       | long    | Size of read buffers, default 16 KiB
+  :pool-size         | long    | Maximum number of pooled read buffers, default 64
+  :max-body-size     | long    | Maximum size of the body, in bytes (:buffered only), default unlimited
+
+  With :max-body-size, a request whose Content-Length exceeds the maximum receives a 413 (Content Too Large)
+  response without the body being read; otherwise, reading stops with a 413 response once the body read
+  exceeds the maximum."
+  ([]
+   (read-body nil))
+  ([options]
+   (let [{:keys [mode chunk-buffer-or-n buffer-size pool-size max-body-size]
+          :or   {mode              :buffered
+                 chunk-buffer-or-n 8
+                 buffer-size       (* 16 1024)
+                 pool-size         64}} options
+         pool (new-pool buffer-size pool-size)]
+     (interceptor
+       {:name  ::read-body
+        :enter (fn [context]
+                 (let [^HttpServletRequest servlet-request (:servlet-request context)]
+                   (cond
+                     (or (nil? servlet-request)
+                         (zero? (.getContentLengthLong servlet-request)))
+                     context
+
+                     (and max-body-size
+                          (not= :chunks mode)
+                          (> (.getContentLengthLong servlet-request) (long max-body-size)))
+                     (assoc context :response too-large-response)
+
+                     :else
+                     (let [result-ch (async/promise-chan)
+                           reader    (if (= :chunks mode)
+                                       (chunked-reader context chunk-buffer-or-n result-ch)
+                                       (buffered-reader context servlet-request result-ch buffer-size max-body-size))]
+                       ;; A ReadListener may only be set once the request is asynchronous.
+                       (servlet-interceptor/start-servlet-async context)
+                       (start-reading pool (.getInputStream servlet-request) reader)
+                       result-ch))))}))))
@@ -26,19 +26,21 @@
             [io.pedestal.metrics :as metrics]
             [io.pedestal.service.websocket :as ws :refer [InitializeWebSocket WebSocketChannel]]
             [io.pedestal.service.data :refer [convert]]
+            [io.pedestal.service.virtual-threads :as virtual-threads]
     ;; for side effects:
             io.pedestal.http.route
             [io.pedestal.service.impl :as impl])
   (:import (clojure.core.async.impl.protocols ReadPort)
            (io.pedestal.websocket FnEndpoint)
-           (jakarta.servlet Servlet ServletRequest)
+           (jakarta.servlet AsyncListener Servlet ServletRequest)
            (jakarta.servlet.http HttpServletResponse HttpServletRequest)
            (clojure.lang Fn IPersistentCollection)
            (jakarta.websocket CloseReason CloseReason$CloseCodes MessageHandler$Whole Session)
            (jakarta.websocket.server ServerContainer ServerEndpointConfig ServerEndpointConfig$Builder)
            (java.io File IOException InputStream OutputStreamWriter EOFException)
            (java.nio.channels ReadableByteChannel)
-           (java.nio ByteBuffer)))
+           (java.nio ByteBuffer)
+           (java.util.concurrent Executor)))
 
 (extend-protocol sp/ResponseBufferSize
 
@@ -127,34 +129,50 @@
 (defprotocol WriteableBodyAsync
   (write-body-async [body servlet-response resume-chan context]))
 
+(defn- write-body-part
+  [^HttpServletResponse servlet-response body body-part]
+  (try
+    (write-body servlet-response body-part)
+    (.flushBuffer servlet-response)
+    (catch Throwable t
+      ;; Defend against exhausting core.async thread pool
+      ;;  -- ASYNC-169 :: http://dev.clojure.org/jira/browse/ASYNC-169
+      (if (instance? EOFException t)
+        (log/warn :msg "The pipe closed while async writing to the client; Client most likely disconnected."
+                  :exception t
+                  :src-chan body)
+        (do (async-write-errors-fn)
+            (log/error :msg "An error occurred when async writing to the client"
+                       :throwable t
+                       :src-chan body)))
+      ;; Only close the body-ch eagerly in the failure case
+      ;;  otherwise the producer (web app) is expected to close it
+      ;;  when they're done.
+      (async/close! body))))
+
 (extend-protocol WriteableBodyAsync
 
   ReadPort
-  (write-body-async [body ^HttpServletResponse servlet-response resume-chan context]
-    (async/go
-      (loop []
-        (when-let [body-part (async/<! body)]
-          (try
-            (write-body servlet-response body-part)
-            (.flushBuffer servlet-response)
-            (catch Throwable t
-              ;; Defend against exhausting core.async thread pool
-              ;;  -- ASYNC-169 :: http://dev.clojure.org/jira/browse/ASYNC-169
-              (if (instance? EOFException t)
-                (log/warn :msg "The pipe closed while async writing to the client; Client most likely disconnected."
-                          :exception t
-                          :src-chan body)
-                (do (async-write-errors-fn)
-                    (log/error :msg "An error occurred when async writing to the client"
-                               :throwable t
-                               :src-chan body)))
-              ;; Only close the body-ch eagerly in the failure case
-              ;;  otherwise the producer (web app) is expected to close it
-              ;;  when they're done.
-              (async/close! body)))
-          (recur)))
-      (async/>! resume-chan context)
-      (async/close! resume-chan)))
+  (write-body-async [body servlet-response resume-chan context]
+    (if-let [^Executor executor (::chain/executor context)]
+      ;; Typically, a virtual thread executor, where blocking is inexpensive and
+      ;; does not tie up the fixed-size core.async dispatch thread pool.
+      (.execute executor
+                ^Runnable
+                (fn []
+                  (loop []
+                    (when-let [body-part (async/<!! body)]
+                      (write-body-part servlet-response body body-part)
+                      (recur)))
+                  (async/>!! resume-chan context)
+                  (async/close! resume-chan)))
+      (async/go
+        (loop []
+          (when-let [body-part (async/<! body)]
+            (write-body-part servlet-response body body-part)
+            (recur)))
+        (async/>! resume-chan context)
+        (async/close! resume-chan))))
 
   ReadableByteChannel
   (write-body-async [body servlet-response resume-chan context]
@@ -212,7 +230,9 @@
   (doto (.startAsync servlet-request)
     (.setTimeout 0)))
 
-(defn- start-servlet-async
+(defn ^:no-doc start-servlet-async
+  "Starts asynchronous processing of the request, if not already started."
+  {:added "0.8.2"}
   [{:keys [^HttpServletRequest servlet-request]}]
   (when-not (.isAsyncStarted servlet-request)
     (start-servlet-async* servlet-request)))
@@ -362,40 +382,87 @@
   DEPRECATED: Use io.pedestal.connector.dev/uncaught-exception instead."
   (assoc dev/uncaught-exception :name ::exception-debug))
 
+(defn- virtual-thread-context
+  "Modifies the initial context for execution in virtual threads; tracks the number
+  of executions that have gone async, and are parked waiting for a result."
+  [initial-context executor]
+  (let [*parked    (atom 0)
+        parked-fn  (metrics/counter :io.pedestal/virtual-thread-async-executions nil)
+        unpark     (fn [_event] (swap! *parked dec))
+        listener   (reify AsyncListener
+                     (onComplete [_ event] (unpark event))
+                     (onError [_ event] (unpark event))
+                     (onTimeout [_ event] (unpark event))
+                     (onStartAsync [_ _event]))]
+    (metrics/gauge :io.pedestal/virtual-thread-parked-executions nil #(deref *parked))
+    (-> initial-context
+        (chain/with-executor executor)
+        (chain/on-enter-async (fn [{:keys [^HttpServletRequest servlet-request]}]
+                                (parked-fn)
+                                (swap! *parked inc)
+                                (.addListener (.getAsyncContext servlet-request) listener))))))
+
+(defn- upgrade-request?
+  [^HttpServletRequest servlet-request]
+  (some? (.getHeader servlet-request "Upgrade")))
+
 (defn- interceptor-service-fn
   "Returns a function which can be used as an implementation of the
   Servlet.service method. It executes the interceptors on an initial
   context map containing :servlet, :servlet-config, :servlet-request,
   and :servlet-response."
-  [interceptors initial-context]
-  (let [error-metric-fn (metrics/counter ::base-servlet-error nil)
-        *active-calls   (atom 0)]
+  [interceptors initial-context options]
+  (let [error-metric-fn  (metrics/counter ::base-servlet-error nil)
+        *active-calls    (atom 0)
+        chain            (chain/compile-chain interceptors)
+        request-map-fn   (if (:lazy-request-map? options)
+                           request-map/lazy-servlet-request-map
+                           request-map/servlet-request-map)
+        ^Executor executor (when (:virtual-threads? options)
+                             (virtual-threads/executor))
+        initial-context' (cond-> initial-context
+                           executor (virtual-thread-context executor))
+        execute          (fn [context]
+                           (swap! *active-calls inc)
+                           (try
+                             (let [final-context (chain/execute context chain)]
+                               (log/debug :msg "Leaving servlet"
+                                          ;; This will be nil if the execution went async
+                                          :final-context final-context))
+                             (catch EOFException _
+                               (log/warn :msg "Servlet code caught EOF; The client most likely disconnected mid-response"))
+                             (catch Throwable t
+                               (error-metric-fn)
+                               (log/error :msg "Servlet code threw an exception"
+                                          :throwable t
+                                          :cause-trace (impl/format-exception t))
+                               ;; When executing in a virtual thread, the servlet container can't
+                               ;; complete the response on its own.
+                               (when executor
+                                 (leave-stylobate context)))
+                             (finally
+                               (swap! *active-calls dec))))]
     (metrics/gauge :io.pedestal/active-servlet-calls nil #(deref *active-calls))
     (fn [^Servlet servlet servlet-request servlet-response]
-      (let [context (-> initial-context
+      (let [context (-> initial-context'
                         (assoc :servlet-request servlet-request
                                :websocket-channel-source servlet-request
                                :servlet-response servlet-response
                                :servlet-config (.getServletConfig servlet)
-                                               :servlet servlet
-                                               :request (request-map/servlet-request-map servlet servlet-request servlet-response)))]
+                               :servlet servlet
+                               :request (request-map-fn servlet servlet-request servlet-response)))]
         (log/debug :in :interceptor-service-fn
                    :context context)
-        (swap! *active-calls inc)
-        (try
-          (let [final-context (chain/execute context interceptors)]
-            (log/debug :msg "Leaving servlet"
-                       ;; This will be nil if the execution went async
-                       :final-context final-context))
-          (catch EOFException _
-            (log/warn :msg "Servlet code caught EOF; The client most likely disconnected mid-response"))
-          (catch Throwable t
-            (error-metric-fn)
-            (log/error :msg "Servlet code threw an exception"
-                       :throwable t
-                       :cause-trace (impl/format-exception t)))
-          (finally
-            (swap! *active-calls dec)))))))
+        (if (and executor
+                 (not (upgrade-request? servlet-request)))
+          (do
+            ;; The container thread is released as soon as this method returns; the response
+            ;; is completed by the stylobate interceptor.
+            (start-servlet-async context)
+            (.execute executor ^Runnable #(execute context)))
+          ;; Protocol upgrades (such as WebSocket) must be performed by the container thread,
+          ;; before the request is put into asynchronous mode.
+          (execute context))))))
 
 
 (defn http-interceptor-service-fn
@@ -409,6 +476,11 @@
   Options:
   :exception-analyzer - function that analyzes exceptions that propagate
   up to the stylobate interceptor, defaults to [[default-exception-analyzer]].
+  :lazy-request-map? - if true, the request map is built by [[io.pedestal.http.request.map/lazy-servlet-request-map]],
+  which reads values from the servlet request only as they are accessed.
+  :virtual-threads? - if true, each request is executed in a new virtual thread (requires Java 21 or later);
+  interceptors may block, and execution resumes in a virtual thread after going asynchronous.
+  Requests with an Upgrade header (such as WebSocket upgrades) are instead executed in the container's thread.
 
   This is normally called automatically from io.pedestal.http/service-fn."
   ([interceptors] (http-interceptor-service-fn interceptors {}))
@@ -422,7 +494,8 @@
            interceptors)
      (-> initial-context
          response/terminate-when-response
-         (chain/on-enter-async start-servlet-async)))))
+         (chain/on-enter-async start-servlet-async))
+     options)))
 
 ;;; Support for WebSockets, in the context of io.pedestal.service.websocket
 
@@ -15,9 +15,13 @@
             [io.pedestal.http.impl.servlet-interceptor :as si]))
 
 (s/def ::http-interceptor-service-fn-options
-  (s/keys :opt-un [::exception-analyzer]))
+  (s/keys :opt-un [::exception-analyzer
+                   ::lazy-request-map?
+                   ::virtual-threads?]))
 
 (s/def ::exception-analyzer fn?)
+(s/def ::lazy-request-map? boolean?)
+(s/def ::virtual-threads? boolean?)
 
 (s/fdef si/http-interceptor-service-fn
         :args (s/cat :interceptors (s/coll-of ::interceptor/interceptor-record)
@@ -13,7 +13,8 @@
   "Responsible for converting incoming HttpServletRequest into
   a Ring-compatible request map."
   (:require [clojure.string :as string])
-  (:import (jakarta.servlet Servlet)
+  (:import (io.pedestal.servlet LazyRequestMap)
+           (jakarta.servlet Servlet)
            (jakarta.servlet.http HttpServletRequest HttpServletResponse)))
 
 (defn- add-content-type
@@ -95,3 +96,15 @@
       (add-character-encoding servlet-req)
       (add-ssl-client-cert servlet-req)
       persistent!))
+
+(defn lazy-servlet-request-map
+  "An alternative to [[servlet-request-map]] that returns a map with the same keys and values, but
+  only reads each value from the servlet request when the key is first accessed (the value is then cached).
+
+  The map is converted to a normal persistent map when modified (e.g., by `assoc`) or when
+  all of its entries are needed (e.g., by `seq` or `count`)."
+  {:added "0.8.2"}
+  [^Servlet servlet
+   ^HttpServletRequest servlet-req
+   ^HttpServletResponse servlet-resp]
+  (LazyRequestMap. servlet servlet-req servlet-resp))
@@ -26,10 +26,14 @@
             [io.pedestal.log :as log])
   (:import (io.pedestal.websocket FnEndpoint)
            (jakarta.servlet.http HttpServletRequest)
-           (jakarta.websocket EndpointConfig SendHandler Session MessageHandler$Whole RemoteEndpoint$Async)
+           (jakarta.websocket CloseReason CloseReason$CloseCodes EndpointConfig SendHandler Session
+                              MessageHandler$Whole MessageHandler$Partial RemoteEndpoint$Async)
            (jakarta.websocket.server ServerContainer ServerEndpointConfig ServerEndpointConfig$Builder)
            (java.nio ByteBuffer)
-           (java.util HashMap)))
+           (java.util HashMap)
+           (java.util.concurrent ConcurrentHashMap ConcurrentLinkedQueue)
+           (java.util.concurrent.atomic AtomicInteger)
+           (java.util.function Function)))
 
 (defn- message-handler
   ^MessageHandler$Whole [session-object f]
@@ -37,6 +41,94 @@
     (onMessage [_ message]
       (f session-object message))))
 
+(defn- partial-message-handler
+  ^MessageHandler$Partial [session-object f]
+  (reify MessageHandler$Partial
+    (onMessage [_ message last?]
+      (f session-object message last?))))
+
+;; Direct buffers are expensive to allocate and to reclaim; the buffers used to aggregate
+;; partial binary messages are pooled, and shared by all endpoints with the same buffer size.
+
+(defn- new-buffer-pool
+  [buffer-size max-size]
+  {:queue       (ConcurrentLinkedQueue.)
+   :*size       (AtomicInteger.)
+   :buffer-size buffer-size
+   :max-size    max-size})
+
+(def ^:private ^ConcurrentHashMap buffer-pools (ConcurrentHashMap.))
+
+(defn- buffer-pool
+  [buffer-size max-size]
+  (.computeIfAbsent buffer-pools [buffer-size max-size]
+                    (reify Function
+                      (apply [_ _]
+                        (new-buffer-pool buffer-size max-size)))))
+
+(defn- acquire-buffer
+  ^ByteBuffer [pool]
+  (let [{:keys [^ConcurrentLinkedQueue queue ^AtomicInteger *size buffer-size]} pool]
+    (if-let [^ByteBuffer buffer (.poll queue)]
+      (do
+        (.decrementAndGet *size)
+        (.clear buffer))
+      (ByteBuffer/allocateDirect (int buffer-size)))))
+
+(defn- release-buffer
+  [pool ^ByteBuffer buffer]
+  (let [{:keys [^ConcurrentLinkedQueue queue ^AtomicInteger *size buffer-size max-size]} pool]
+    ;; Buffers grown to hold a larger message are left for the garbage collector.
+    (when (= (.capacity buffer) (long buffer-size))
+      (if (< (.getAndIncrement *size) (long max-size))
+        (.offer queue buffer)
+        (.decrementAndGet *size)))))
+
+(defn- append-fragment
+  "Appends the fragment to the buffer, returning the buffer, or a larger buffer if the fragment did not fit
+  (in which case, the original buffer is released)."
+  ^ByteBuffer [pool ^ByteBuffer buffer ^ByteBuffer fragment]
+  (if (<= (.remaining fragment) (.remaining buffer))
+    (.put buffer fragment)
+    (let [required (+ (.position buffer) (.remaining fragment))
+          larger   (ByteBuffer/allocateDirect (max required (* 2 (.capacity buffer))))]
+      (.put larger ^ByteBuffer (.flip buffer))
+      (release-buffer pool buffer)
+      (.put larger fragment))))
+
+(defn- pooled-binary-handler
+  "Aggregates partial binary messages into a pooled buffer; the callback is passed the complete
+  message, and the buffer is returned to the pool when the callback returns."
+  ^MessageHandler$Partial [pool ^Session session session-object f]
+  (let [*buffer (volatile! nil)]
+    (reify MessageHandler$Partial
+      (onMessage [_ fragment last?]
+        (let [^ByteBuffer fragment fragment
+              ^ByteBuffer buffer   @*buffer]
+          (cond
+            ;; A message that arrives in a single frame is passed as is, without copying.
+            (and last? (nil? buffer))
+            (f session-object fragment)
+
+            (> (+ (if buffer (.position buffer) 0) (.remaining fragment))
+               (.getMaxBinaryMessageBufferSize session))
+            (do
+              (vreset! *buffer nil)
+              (when buffer
+                (release-buffer pool buffer))
+              (.close session (CloseReason. CloseReason$CloseCodes/TOO_BIG "Binary message too large")))
+
+            :else
+            (let [buffer' (append-fragment pool (or buffer (acquire-buffer pool)) fragment)]
+              (if-not last?
+                (vreset! *buffer buffer')
+                (do
+                  (vreset! *buffer nil)
+                  (try
+                    (f session-object (.flip buffer'))
+                    (finally
+                      (release-buffer pool buffer'))))))))))))
+
 (def ^:private ^String session-object-key "io.pedestal.websocket.session-object")
 
 (defn- make-endpoint-delegate-callback
@@ -48,7 +140,14 @@
                 on-error
                 on-text
                 on-binary
-                idle-timeout-ms]} ws-map
+                on-text-partial
+                on-binary-partial
+                binary-buffer-size
+                binary-buffer-pool-size
+                idle-timeout-ms]
+         :or   {binary-buffer-pool-size 16}} ws-map
+        pool                  (when binary-buffer-size
+                                (buffer-pool binary-buffer-size binary-buffer-pool-size))
         maybe-invoke-callback (fn [f ^Session session event-value]
                                 (when f
                                   (let [session-object (-> session
@@ -67,8 +166,16 @@
                                   (when on-text
                                     (.addMessageHandler session String (message-handler session-object on-text)))
 
+                                  (when on-text-partial
+                                    (.addMessageHandler session String (partial-message-handler session-object on-text-partial)))
+
                                   (when on-binary
-                                    (.addMessageHandler session ByteBuffer (message-handler session-object on-binary)))))]
+                                    (if pool
+                                      (.addMessageHandler session ByteBuffer (pooled-binary-handler pool session session-object on-binary))
+                                      (.addMessageHandler session ByteBuffer (message-handler session-object on-binary))))
+
+                                  (when on-binary-partial
+                                    (.addMessageHandler session ByteBuffer (partial-message-handler session-object on-binary-partial)))))]
     (fn [event-type ^Session session event-value]
       (case event-type
         :on-open (full-on-open session event-value)
@@ -102,6 +209,21 @@
   :on-binary (Object, java.nio.ByteBuffer)
   : Passed a binary message as a single ByteBuffer.
 
+  :on-text-partial (Object, String, boolean)
+  : Passed each part of a text message as it is received, and true for the final part; used in place of :on-text.
+
+  :on-binary-partial (Object, java.nio.ByteBuffer, boolean)
+  : Passed each part of a binary message as it is received, and true for the final part; used in place of :on-binary.
+
+  :binary-buffer-size (long)
+  : When provided, binary messages for :on-binary are received in parts, and aggregated into pooled direct ByteBuffers
+    of this size (a larger buffer is allocated for larger messages).  The buffer is returned to the pool when
+    the callback returns, so the callback must not retain it.
+    The session's max binary message buffer size still applies.
+
+  :binary-buffer-pool-size (long)
+  : The maximum number of buffers retained in the pool, default 16.
+
   :configure (jakarta.websocket.server.ServerEndpointConfig.Builder)
   : Called at initialization time to perform any extra configuration of the endpoint (optional)
 
@@ -210,6 +332,16 @@
 
      The result is either :success or an Exception."))
 
+(defn- flush-batch
+  [^RemoteEndpoint$Async remote-endpoint]
+  ;; flushBatch may block, so it is not invoked from a go block.
+  (async/thread
+    (try
+      (.flushBatch remote-endpoint)
+      (catch Exception ex
+        (log/error :msg "Failed to flush batched messages"
+                   :exception ex)))))
+
 (defn- send-handler
   ^SendHandler [chan]
   (reify SendHandler
@@ -249,15 +381,25 @@
 
   :send-buffer-or-n
   : Used to create the channel, defaults to 10
+
+  :batching?
+  : If true, messages may be batched by the container, rather than each being sent as it is written;
+    batched messages are flushed whenever the channel is idle (has no further messages to send).
   "
   [^Session ws-session opts]
-  (let [{:keys [send-buffer-or-n]
+  (let [{:keys [send-buffer-or-n batching?]
          :or   {send-buffer-or-n 10}} opts
         send-ch      (async/chan send-buffer-or-n)
         async-remote (.getAsyncRemote ws-session)]
-    (go-loop []
+    (when batching?
+      (.setBatchingAllowed async-remote true))
+    (go-loop [unflushed? false]
       (if-let [payload (and (.isOpen ws-session)
-                            (async/<! send-ch))]
+                            (or (async/poll! send-ch)
+                                (do
+                                  (when unflushed?
+                                    (async/<! (flush-batch async-remote)))
+                                  (async/<! send-ch))))]
         ;; The payload is a message and an optional response channel; a message is either
         ;; a String or a ByteBuffer (or something that implements WebSocketSendAsync).
         (let [[out-msg resp-ch] (if (sequential? payload)
@@ -277,7 +419,7 @@
               (catch Exception ex
                 (log/error :msg "Invalid response channel"
                            :exception ex))))
-          (recur))
+          (recur (boolean batching?)))
         ;; The session is closed when the channel is closed.
         (.close ws-session)))
     ;; Return the channel used to send messages to the client
@@ -17,6 +17,10 @@
                                        ::on-error
                                        ::on-text
                                        ::on-binary
+                                       ::on-text-partial
+                                       ::on-binary-partial
+                                       ::binary-buffer-size
+                                       ::binary-buffer-pool-size
                                        ::configure
                                        ::subprotocols
                                        ::idle-timeout-ms]))
@@ -27,6 +31,10 @@
 (s/def ::on-error fn?)
 (s/def ::on-text fn?)
 (s/def ::on-binary fn?)
+(s/def ::on-text-partial fn?)
+(s/def ::on-binary-partial fn?)
+(s/def ::binary-buffer-size pos-int?)
+(s/def ::binary-buffer-pool-size nat-int?)
 (s/def ::configure fn?)
 (s/def ::idle-timeout-ms pos-int?)
 
@@ -13,7 +13,9 @@
   "Metrics functionality, built on the metrics SPI (service provider interface)."
   {:added "0.7.0"}
   (:require [io.pedestal.metrics.spi :as spi]
-            [io.pedestal.telemetry.internal :as internal]))
+            [io.pedestal.telemetry.internal :as internal])
+  (:import (java.util.concurrent ConcurrentHashMap)
+           (java.util.function Function)))
 
 (def ^:dynamic *default-metric-source*
   "The default metric source, used when a specific metric source is not specified.
@@ -106,3 +108,55 @@
 
 
 
+
+(def ^:private nil-value
+  "Stands in for a nil attribute value, as a ConcurrentHashMap can't store nil keys."
+  (Object.))
+
+(defn- bind
+  [find-fn metric-source metric-name attributes attribute-key]
+  (if (nil? metric-source)
+    (let [noop (find-fn nil metric-name attributes)]
+      (fn [_] noop))
+    (let [cache  (ConcurrentHashMap.)
+          create (reify Function
+                   (apply [_ k]
+                     (find-fn metric-source metric-name
+                              (if (identical? k nil-value)
+                                (dissoc attributes attribute-key)
+                                (assoc attributes attribute-key k)))))]
+      (fn [value]
+        (let [k (if (nil? value) nil-value value)]
+          (or (.get cache k)
+              (.computeIfAbsent cache k create)))))))
+
+(defn bind-counter
+  "Pre-binds a counter whose attributes include one value that varies, such as the name of a route.
+
+  Returns a function that is passed a value for attribute-key, and returns the counter function (as with [[counter]])
+  for the attributes with that value added (or, for a nil value, removed).
+  Counter functions are cached by value, so obtaining one is a single hash lookup, without
+  allocation or re-conversion of the attributes; the values should have a low cardinality.
+
+  When the metric source is nil, the returned function always returns the same no-op counter function."
+  {:added "0.8.2"}
+  ([metric-name attributes attribute-key]
+   (bind-counter *default-metric-source* metric-name attributes attribute-key))
+  ([metric-source metric-name attributes attribute-key]
+   (bind spi/counter metric-source metric-name attributes attribute-key)))
+
+(defn bind-histogram
+  "As with [[bind-counter]], but for a [[histogram]]."
+  {:added "0.8.2"}
+  ([metric-name attributes attribute-key]
+   (bind-histogram *default-metric-source* metric-name attributes attribute-key))
+  ([metric-source metric-name attributes attribute-key]
+   (bind spi/histogram metric-source metric-name attributes attribute-key)))
+
+(defn bind-timer
+  "As with [[bind-counter]], but for a [[timer]]; the returned function returns the timer's trigger function."
+  {:added "0.8.2"}
+  ([metric-name attributes attribute-key]
+   (bind-timer *default-metric-source* metric-name attributes attribute-key))
+  ([metric-source metric-name attributes attribute-key]
+   (bind spi/timer metric-source metric-name attributes attribute-key)))
@@ -18,7 +18,8 @@
            (io.opentelemetry.api.metrics DoubleCounterBuilder DoubleGaugeBuilder DoubleHistogramBuilder LongCounterBuilder
                                          LongGaugeBuilder LongHistogram LongHistogramBuilder Meter ObservableDoubleMeasurement 
                                          ObservableLongMeasurement)
-           (java.util.function Consumer)))
+           (java.util.concurrent ConcurrentHashMap)
+           (java.util.function Consumer Function)))
 
 (defn- convert-metric-name
   [metric-name]
@@ -145,10 +146,34 @@
   ^long []
   (System/nanoTime))
 
-(defn- write-to-cache
-  [*cache k value]
-  (swap! *cache assoc k value)
-  value)
+(def ^:private nil-attributes
+  "Stands in for nil attributes, as a ConcurrentHashMap can't store nil keys."
+  (Object.))
+
+(defn- new-cache
+  ^ConcurrentHashMap []
+  (ConcurrentHashMap.))
+
+(def ^:private new-cache-fn
+  (reify Function
+    (apply [_ _]
+      (new-cache))))
+
+(defn- cached
+  "Finds a metric in a two-level cache: by metric name, then by attributes; this avoids allocating a composite
+  key for each lookup."
+  [^ConcurrentHashMap cache metric-name attributes]
+  (when-let [^ConcurrentHashMap by-attributes (.get cache metric-name)]
+    (.get by-attributes (if (nil? attributes) nil-attributes attributes))))
+
+(defn- cache!
+  "Invoked on a cache miss; create-fn is invoked at most once for the metric name and attributes."
+  [^ConcurrentHashMap cache metric-name attributes create-fn]
+  (let [^ConcurrentHashMap by-attributes (.computeIfAbsent cache metric-name new-cache-fn)]
+    (.computeIfAbsent by-attributes (if (nil? attributes) nil-attributes attributes)
+                      (reify Function
+                        (apply [_ _]
+                          (create-fn))))))
 
 (defn wrap-meter
   "Wraps a Meter instance as a [[MetricSource]].
@@ -161,30 +186,29 @@
    ;; Can't have meters with same name but different type. This is caught on metric creation.
    ;; We use separate caches though, otherwise we could mistakenly return a gauge instead
    ;; of a (function wrapped around a) counter, etc.
-   (let [*counters   (atom {})
-         *gauges     (atom {})
-         *histograms (atom {})
-         *timers     (atom {})]
+   (let [counters   (new-cache)
+         gauges     (new-cache)
+         histograms (new-cache)
+         timers     (new-cache)]
      (reify spi/MetricSource
 
        (counter [_ metric-name attributes]
-         (let [k [metric-name attributes]]
-           (or (get @*counters k)
-               (write-to-cache *counters k (new-counter meter metric-name attributes)))))
+         (or (cached counters metric-name attributes)
+             (cache! counters metric-name attributes
+                     #(new-counter meter metric-name attributes))))
 
        (gauge [_ metric-name attributes value-fn]
-         (let [k [metric-name attributes]]
-           (when-not (contains? @*gauges k)
-             (write-to-cache *gauges k
-                             (new-gauge meter metric-name attributes value-fn))))
+         (when-not (cached gauges metric-name attributes)
+           (cache! gauges metric-name attributes
+                   #(new-gauge meter metric-name attributes value-fn)))
          nil)
 
        (histogram [_ metric-name attributes]
-         (let [k [metric-name attributes]]
-           (or (get @*histograms k)
-               (write-to-cache *histograms k (new-histogram meter metric-name attributes)))))
+         (or (cached histograms metric-name attributes)
+             (cache! histograms metric-name attributes
+                     #(new-histogram meter metric-name attributes))))
 
        (timer [_ metric-name attributes]
-         (let [k [metric-name attributes]]
-           (or (get @*timers k)
-               (write-to-cache *timers k (new-timer meter metric-name attributes time-source-fn)))))))))
+         (or (cached timers metric-name attributes)
+             (cache! timers metric-name attributes
+                     #(new-timer meter metric-name attributes time-source-fn))))))))
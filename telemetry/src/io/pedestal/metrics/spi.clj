@@ -85,16 +85,26 @@
     The function is passed a value, to record that value as a new event that will be
     included in the distribution summary."))
 
+(defn- noop
+  ;; Explicit arities avoid allocating an argument seq on each call.
+  ([])
+  ([_])
+  ([_ _]))
+
+(defn- noop-start-timer
+  []
+  noop)
+
 (extend-type nil
 
   MetricSource
 
-  (counter [_ _ _] (constantly nil))
+  ;; The same no-op functions are returned every time, so disabled metrics don't allocate.
+
+  (counter [_ _ _] noop)
 
   (gauge [_ _ _ _] nil)
 
-  (timer [_ _ _]
-    (fn noop-start []
-      (fn noop-end [])))
+  (timer [_ _ _] noop-start-timer)
 
-  (histogram [_ _ _] (constantly nil)))
+  (histogram [_ _ _] noop))
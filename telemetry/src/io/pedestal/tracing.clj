@@ -14,9 +14,11 @@
   {:added "0.7.0"}
   (:require [io.pedestal.telemetry.internal :as i]
             [io.pedestal.tracing.spi :as spi])
-  (:import (io.opentelemetry.api.common AttributeKey)
+  (:import (io.opentelemetry.api.common AttributeKey Attributes)
            (io.opentelemetry.api.trace Span SpanBuilder SpanKind StatusCode)
-           (io.opentelemetry.context Context)))
+           (io.opentelemetry.api.trace.propagation W3CTraceContextPropagator)
+           (io.opentelemetry.context Context)
+           (io.opentelemetry.context.propagation TextMapGetter)))
 
 (def ^:dynamic *tracing-source*
   (i/create-default-tracing-source))
@@ -51,6 +53,13 @@
   ^SpanBuilder [^SpanBuilder builder kind]
   (.setSpanKind builder (get span-kinds kind)))
 
+(defn with-parent
+  "Updates the span builder to use the span of the provided Context (such as a remote parent, from
+  [[extract-context]]) as the parent of the new span."
+  {:added "0.8.2"}
+  ^SpanBuilder [^SpanBuilder builder ^Context context]
+  (.setParent builder context))
+
 (defn as-root
   "Identifies the new span as a root span, with no parent.  When this is not called, and span is active
   in the Open Telemetry context, the active span will be the parent of the new span when the span is started."
@@ -71,6 +80,20 @@
   (let [[k v] (i/kv->pair attribute-key attribute-value)]
     (.setAttribute span ^AttributeKey k v)))
 
+(defn attributes
+  "Converts a map of attributes to an OpenTelemetry Attributes instance, which may be created once and
+  added to many spans, via [[add-attributes]]."
+  {:added "0.8.2"}
+  ^Attributes [attributes-map]
+  (i/map->Attributes attributes-map))
+
+(defn add-attributes
+  "Adds a number of attributes to a span; the attributes are from [[attributes]].
+  This should not be called after the span has ended."
+  {:added "0.8.2"}
+  ^Span [^Span span ^Attributes attributes]
+  (.setAllAttributes span attributes))
+
 (defn end-span
   "Ends the span, which will set its termination time to current time.  Every started span
   must be ended.
@@ -109,3 +132,28 @@
   (let [scope (.makeCurrent context)]
     (fn close-scope []
       (.close scope))))
+
+(def ^:private headers-getter
+  (reify TextMapGetter
+    (keys [_ carrier]
+      (keys carrier))
+    (get [_ carrier k]
+      (get carrier k))))
+
+(defn extract-context
+  "Extracts a remote parent context from Ring request headers (which have lower-case names),
+  using the W3C `traceparent` and `tracestate` headers.
+
+  Returns an OpenTelemetry Context, or nil if the request does not have a valid `traceparent` header."
+  {:added "0.8.2"}
+  ^Context [headers]
+  (when (get headers "traceparent")
+    (let [context (.extract (W3CTraceContextPropagator/getInstance) (Context/root) headers headers-getter)]
+      (when (-> context Span/fromContext .getSpanContext .isValid)
+        context))))
+
+(defn sampled?
+  "Returns true if the span in the context (such as a remote parent, from [[extract-context]]) is sampled."
+  {:added "0.8.2"}
+  [^Context context]
+  (-> context Span/fromContext .getSpanContext .isSampled))
@@ -0,0 +1,44 @@
+; Copyright 2026 Nubank NA
+;
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.allocation
+  "Utilities for measuring how many bytes are allocated by benchmarked code, used
+  alongside criterium (which measures only execution time)."
+  (:import (java.lang.management ManagementFactory)
+           (com.sun.management ThreadMXBean)))
+
+(def ^:private ^ThreadMXBean thread-bean (ManagementFactory/getThreadMXBean))
+
+(defn- allocated-bytes
+  ^long []
+  (.getThreadAllocatedBytes thread-bean (.getId (Thread/currentThread))))
+
+(defn bytes-per-call
+  "Invokes f (with no arguments) repeatedly, first to warm up, then to measure.
+  Returns the average number of bytes allocated, on the current thread, per call."
+  ([f]
+   (bytes-per-call f 100000))
+  ([f iterations]
+   (dotimes [_ iterations] (f))
+   (let [start (allocated-bytes)]
+     (dotimes [_ iterations] (f))
+     (double (/ (- (allocated-bytes) start) iterations)))))
+
+(defmacro report
+  "Evaluates each expression via [[bytes-per-call]] and prints a summary
+  of bytes allocated per evaluation."
+  [& exprs]
+  `(do
+     ~@(for [expr exprs]
+         `(printf "%,12.1f bytes/call  %s%n"
+                  (bytes-per-call (fn [] ~expr))
+                  ~(pr-str expr)))
+     (flush)))
@@ -0,0 +1,70 @@
+; Copyright 2026 Nubank NA
+;
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.request-map-bench
+  "Compares the eager servlet request map with the lazy request map, in terms of
+  execution time and bytes allocated per request."
+  (:require [criterium.core :as c]
+            [io.pedestal.allocation :as allocation]
+            [io.pedestal.http.request.map :as request-map])
+  (:import (io.pedestal.servlet.mock MockState)
+           (java.io ByteArrayInputStream)))
+
+(def ^:private headers
+  {"Accept"          "application/json"
+   "Accept-Encoding" "gzip, deflate, br"
+   "Accept-Language" "en-US,en;q=0.9"
+   "Cache-Control"   "no-cache"
+   "Connection"      "keep-alive"
+   "Content-Type"    "application/json"
+   "Content-Length"  "0"
+   "Cookie"          "session=abcdef0123456789"
+   "Host"            "localhost:8080"
+   "User-Agent"      "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7)"
+   "X-Request-Id"    "5f2b7a4e-1c7d-4d0b-9d59-6f0a3d1f2e11"})
+
+(def ^:private state
+  (MockState. "http://localhost:8080/api/widgets/3" "GET" "http" "localhost" 8080
+              "api/widgets/3" "sort=asc" headers (ByteArrayInputStream. (byte-array 0))))
+
+(def ^:private servlet-request (.request state))
+(def ^:private servlet-response (.response state))
+
+(defn- typical-access
+  "Reads the keys that a typical routed request reads: the method, path, and a single header."
+  [request]
+  (:request-method request)
+  (:path-info request)
+  (get-in request [:headers "accept"])
+  nil)
+
+(defn eager
+  []
+  (typical-access (request-map/servlet-request-map nil servlet-request servlet-response)))
+
+(defn lazy
+  []
+  (typical-access (request-map/lazy-servlet-request-map nil servlet-request servlet-response)))
+
+(defn lazy-realized
+  "Worst case for the lazy map: every key is realized."
+  []
+  (count (request-map/lazy-servlet-request-map nil servlet-request servlet-response)))
+
+(comment
+
+  (allocation/report (eager) (lazy) (lazy-realized))
+
+  (c/quick-bench (eager))
+  (c/quick-bench (lazy))
+  (c/quick-bench (lazy-realized))
+
+  )
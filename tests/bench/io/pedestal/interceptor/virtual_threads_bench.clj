@@ -0,0 +1,89 @@
+; Copyright 2026 Nubank NA
+;
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.interceptor.virtual-threads-bench
+  "Compares throughput of many concurrent executions, each of which makes a slow downstream call,
+  when executed via core.async go blocks versus virtual threads (requires Java 21)."
+  (:require [clojure.core.async :as async]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.service.virtual-threads :as virtual-threads])
+  (:import (java.util.concurrent CountDownLatch)))
+
+(def ^:private downstream-ms 20)
+
+(def ^:private passthru
+  (interceptor {:name  ::passthru
+                :enter identity
+                :leave identity}))
+
+(def ^:private go-downstream
+  ;; The idiomatic approach without virtual threads: a blocking call inside async/thread.
+  (interceptor {:name  ::go-downstream
+                :enter (fn [context]
+                         (async/thread
+                           (Thread/sleep ^long downstream-ms)
+                           (assoc context ::result :ok)))}))
+
+(def ^:private blocking-downstream
+  ;; With virtual threads, the interceptor simply blocks.
+  (interceptor {:name  ::blocking-downstream
+                :enter (fn [context]
+                         (Thread/sleep ^long downstream-ms)
+                         (assoc context ::result :ok))}))
+
+(defn- completer
+  [^CountDownLatch latch]
+  (interceptor {:name  ::completer
+                :leave (fn [context]
+                         (.countDown latch)
+                         context)}))
+
+(defn- run-go
+  [n]
+  (let [latch    (CountDownLatch. n)
+        compiled (chain/compile-chain [(completer latch) passthru go-downstream passthru])]
+    (dotimes [_ n]
+      (chain/execute {} compiled))
+    (.await latch)))
+
+(defn- run-virtual-threads
+  [n]
+  (let [latch    (CountDownLatch. n)
+        executor (virtual-threads/executor)
+        compiled (chain/compile-chain [(completer latch) passthru blocking-downstream passthru])]
+    (try
+      (dotimes [_ n]
+        (.execute executor
+                  ^Runnable #(chain/execute (chain/with-executor {} executor) compiled)))
+      (.await latch)
+      (finally
+        (.shutdown executor)))))
+
+(defn- throughput
+  [label f n]
+  (let [start   (System/nanoTime)
+        _       (f n)
+        elapsed (/ (- (System/nanoTime) start) 1e9)]
+    (printf "%-16s %,8d executions in %6.2fs: %,10.0f/sec%n" label n elapsed (/ n elapsed))
+    (flush)))
+
+(comment
+
+  ;; Warm up both, then compare
+  (do
+    (run-go 1000)
+    (run-virtual-threads 1000)
+    (doseq [n [1000 10000 50000]]
+      (throughput "go" run-go n)
+      (throughput "virtual threads" run-virtual-threads n)))
+
+  )
@@ -17,6 +17,8 @@
             [charred.api :as json]
             [io.pedestal.http :as service]
             [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.allocation :as allocation]
             [io.pedestal.http.body-params :refer [body-params]]
             [io.pedestal.test :refer [response-for]]))
 
@@ -106,3 +108,43 @@
 
 ;; /echo 55.6 µs
 ;; /fail 93.2 µs
+
+;; Deep chains: compares normal execution (interceptors moved from queue to stack) with
+;; a compiled chain (interceptors executed from an array).  The interceptors themselves
+;; do no work, so this isolates the overhead of the chain.
+
+(defn- pass-through
+  [i]
+  (interceptor
+    {:name  (keyword "deep" (str "interceptor-" i))
+     :enter identity
+     :leave identity}))
+
+(def deep-chains
+  (into {}
+        (for [depth [20 30 40]
+              :let [interceptors (mapv pass-through (range depth))]]
+          [depth {:interceptors interceptors
+                  :compiled     (chain/compile-chain interceptors)}])))
+
+(defn execute-deep
+  [depth mode]
+  (chain/execute {} (get-in deep-chains [depth mode]))
+  nil)
+
+(comment
+
+  (c/quick-bench (execute-deep 20 :interceptors))
+  (c/quick-bench (execute-deep 20 :compiled))
+
+  (doseq [depth [20 30 40]
+          mode  [:interceptors :compiled]]
+    (println depth mode)
+    (c/quick-bench (execute-deep depth mode)))
+
+  (allocation/report (execute-deep 20 :interceptors)
+                     (execute-deep 20 :compiled)
+                     (execute-deep 40 :interceptors)
+                     (execute-deep 40 :compiled))
+
+  )
@@ -18,6 +18,7 @@
             [io.pedestal.http.route.prefix-tree :as prefix-tree]
             [io.pedestal.http.route.sawtooth :as sawtooth]
             [clj-async-profiler.core :as prof]
+            [io.pedestal.allocation :as allocation]
             [io.pedestal.http.route :as route]
             [io.pedestal.http.sawtooth-test :refer [dynamic-routing-table]]))
 
@@ -214,3 +215,84 @@
                    (execute-static size router))
 
   )
+
+;; Deep paths, with 6 to 10 segments, to measure allocation while matching.
+
+(defn- deep-handler [])
+
+(def deep-routes
+  (-> (route/expand-routes
+        #{["/api/v1/org/:org/team/:team" :get `deep-handler :route-name :team]
+          ["/api/v1/org/:org/team/:team/members/:member/roles" :get `deep-handler :route-name :member-roles]
+          ["/api/v1/org/:org/team/:team/project/:project/builds" :get `deep-handler :route-name :builds]
+          ["/api/v1/org/:org/team/:team/project/:project/builds/:build/artifacts" :get `deep-handler :route-name :artifacts]
+          ["/api/v1/org/:org/settings/billing/invoices/current/summary" :get `deep-handler :route-name :invoice-summary]
+          ["/api/v1/org/:org/team/:team/project/:project/files/*path" :get `deep-handler :route-name :files]})
+      :routes
+      vec))
+
+(def deep-requests
+  (mapv #(route->request {:method :get :path %})
+        ["/api/v1/org/:org/team/:team"
+         "/api/v1/org/:org/team/:team/members/:member/roles"
+         "/api/v1/org/:org/team/:team/project/:project/builds"
+         "/api/v1/org/:org/team/:team/project/:project/builds/:build/artifacts"
+         "/api/v1/org/:org/settings/billing/invoices/current/summary"
+         "/api/v1/org/:org/team/:team/project/:project/files/*path"]))
+
+(def deep-routers
+  {:prefix-tree (prefix-tree/router deep-routes)
+   :sawtooth    (sawtooth/router deep-routes)})
+
+(defn- execute-deep
+  [router-name]
+  (let [router-fn (deep-routers router-name)]
+    (run! router-fn deep-requests)))
+
+(comment
+
+  (allocation/report
+    (execute-deep :sawtooth)
+    (execute-deep :prefix-tree))
+
+  (bench/bench-for {:progress? true
+                    :ratio?    false}
+                   [router (keys deep-routers)]
+                   (execute-deep router))
+
+  )
+
+;; Wide literal terms: many literal siblings at the same position, so that matching is dominated by the
+;; region lookup of each literal term (a primitive int hash and a scan of parallel arrays; no boxing or Strings).
+
+(def wide-routes
+  (-> (route/expand-routes
+        (set (for [i (range 200)]
+               [(str "/catalog/section-" i "/items/:id") :get `deep-handler :route-name (keyword (str "section-" i))])))
+      :routes
+      vec))
+
+(def wide-requests
+  (mapv route->request (shuffle wide-routes)))
+
+(def wide-routers
+  {:prefix-tree (prefix-tree/router wide-routes)
+   :sawtooth    (sawtooth/router wide-routes)})
+
+(defn- execute-wide
+  [router-name]
+  (let [router-fn (wide-routers router-name)]
+    (run! router-fn wide-requests)))
+
+(comment
+
+  (allocation/report
+    (execute-wide :sawtooth)
+    (execute-wide :prefix-tree))
+
+  (bench/bench-for {:progress? true
+                    :ratio?    false}
+                   [router (keys wide-routers)]
+                   (execute-wide router))
+
+  )
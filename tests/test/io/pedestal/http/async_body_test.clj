@@ -0,0 +1,168 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.async-body-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [clojure.core.async :as async :refer [go <!]]
+            [clojure.string :as string]
+            [io.pedestal.http.async-body :as async-body]
+            [io.pedestal.http.impl.servlet-interceptor :as servlet-interceptor]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.test :as test])
+  (:import (io.pedestal.servlet.mock MockState)
+           (jakarta.servlet Servlet)
+           (java.io ByteArrayInputStream ByteArrayOutputStream IOException InputStream SequenceInputStream)))
+
+(def ^:private content (string/join "\n" (repeat 100 "Pedestal reads this line without blocking.")))
+
+(def ^:private servlet
+  (reify Servlet
+    (getServletConfig [_] nil)))
+
+(defn- execute
+  "Executes the interceptors against a mock POST request with the given body, returning
+  the MockState once the response is complete (which may be asynchronous)."
+  ([body interceptors]
+   (execute (count body) (test/body->input-stream body) interceptors))
+  ([content-length ^InputStream body interceptors]
+   (let [service-fn (servlet-interceptor/http-interceptor-service-fn (mapv interceptor interceptors))
+         state      (MockState. "http://localhost:8080/upload" "POST" "http" "localhost" 8080 "/upload" ""
+                                {"Content-Type"   "text/plain"
+                                 "Content-Length" (str content-length)}
+                                body)]
+     (service-fn servlet (.request state) (.response state))
+     (when (.asyncStarted state)
+       (is (.waitForCompletion state 1000)))
+     state)))
+
+(defn- failing-stream
+  "An InputStream that provides the prefix, then fails, as if the client disconnected mid-upload."
+  ^InputStream [^String prefix]
+  (SequenceInputStream. (ByteArrayInputStream. (.getBytes prefix "UTF-8"))
+                        (proxy [InputStream] []
+                          (read
+                            ([] (throw (IOException. "Connection reset")))
+                            ([_ _ _] (throw (IOException. "Connection reset")))))))
+
+(defn- response-body
+  [^MockState state]
+  (String. (.toByteArray (.responseStream state)) "UTF-8"))
+
+(def ^:private echo
+  {:name  ::echo
+   :enter (fn [context]
+            (let [^InputStream body (get-in context [:request :body])]
+              (assoc context :response {:status 200
+                                        :body   (slurp body)})))})
+
+(defn- chunks->string
+  [^ByteArrayOutputStream out chunks]
+  (doseq [^bytes chunk chunks]
+    (.write out chunk))
+  (String. (.toByteArray out) "UTF-8"))
+
+(def ^:private echo-chunks
+  {:name  ::echo-chunks
+   :enter (fn [context]
+            (go
+              (let [body-ch (get-in context [:request :body])]
+                (loop [chunks []]
+                  (if-let [chunk (<! body-ch)]
+                    (recur (conj chunks chunk))
+                    (assoc context :response {:status 200
+                                              :body   (str (count chunks) ":"
+                                                           (chunks->string (ByteArrayOutputStream.) chunks))}))))))})
+
+(deftest buffered-body
+  (let [state (execute content [(async-body/read-body {:buffer-size 64}) echo])]
+    (is (.asyncStarted state))
+    (is (= 200 (.responseStatus state)))
+    (is (= content (response-body state))))
+
+  (testing "buffers are reused"
+    (let [reader (async-body/read-body {:buffer-size 64 :pool-size 1})]
+      (is (= content (response-body (execute content [reader echo]))))
+      (is (= content (response-body (execute content [reader echo])))))))
+
+(deftest large-body
+  ;; The mock delivers the entire body at once, so reading must not grow the stack with each buffer read.
+  (let [large (apply str (repeat 100 content))]
+    (testing "buffered"
+      (let [state (execute large [(async-body/read-body {:buffer-size 16}) echo])]
+        (is (= 200 (.responseStatus state)))
+        (is (= large (response-body state)))))
+
+    (testing "chunks"
+      (let [state (execute large [(async-body/read-body {:mode :chunks :buffer-size 16}) echo-chunks])]
+        (is (= 200 (.responseStatus state)))
+        (is (string/ends-with? (response-body state) large))))))
+
+(deftest max-body-size
+  (testing "Content-Length exceeds the maximum"
+    (let [state (execute content [(async-body/read-body {:max-body-size 100}) echo])]
+      (is (not (.asyncStarted state)))
+      (is (= 413 (.responseStatus state)))))
+
+  (testing "body exceeds the maximum, despite its Content-Length"
+    (let [state (execute 50 (test/body->input-stream content) [(async-body/read-body {:max-body-size 100
+                                                                                       :buffer-size   64})
+                                                                echo])]
+      (is (= 413 (.responseStatus state)))
+      (is (= "Request body too large" (response-body state)))))
+
+  (testing "body within the maximum"
+    (is (= content (response-body (execute content [(async-body/read-body {:max-body-size 100000}) echo]))))))
+
+(deftest chunked-body
+  (let [state (execute content [(async-body/read-body {:mode              :chunks
+                                                       :buffer-size       1024
+                                                       ;; Forces reading to pause and resume
+                                                       :chunk-buffer-or-n 1})
+                                echo-chunks])]
+    (is (= 200 (.responseStatus state)))
+    (is (= (str (long (Math/ceil (/ (count content) 1024.))) ":" content)
+           (response-body state)))))
+
+(deftest chunked-body-failure
+  (let [state (execute (count content)
+                       (failing-stream "partial upload")
+                       [(async-body/read-body {:mode :chunks})
+                        {:name  ::check-failure
+                         :enter (fn [context]
+                                  (go
+                                    (let [body-ch (get-in context [:request :body])]
+                                      (loop [chunks []]
+                                        (let [chunk (<! body-ch)]
+                                          (cond
+                                            (instance? Throwable chunk)
+                                            (assoc context :response {:status 400
+                                                                      :body   (str (chunks->string (ByteArrayOutputStream.) chunks)
+                                                                                   " / " (ex-message chunk)
+                                                                                   " / " (some? (<! body-ch)))})
+
+                                            (some? chunk)
+                                            (recur (conj chunks chunk))
+
+                                            :else
+                                            (assoc context :response {:status 200
+                                                                      :body   "complete"})))))))}])]
+    ;; The chunks read before the failure, then the exception, then the channel closes.
+    (is (= 400 (.responseStatus state)))
+    (is (= "partial upload / Connection reset / false" (response-body state)))))
+
+(deftest empty-body-is-not-read
+  (let [state (execute "" [(async-body/read-body)
+                           {:name  ::check
+                            :enter (fn [context]
+                                     (assoc context :response {:status 200
+                                                               :body   (str (instance? InputStream (get-in context [:request :body])))}))}])]
+    (is (not (.asyncStarted state)))
+    (is (= "true" (response-body state)))))
@@ -13,10 +13,10 @@
 
 (ns io.pedestal.http.body-params-test
   (:require [clojure.instant :as inst]
-            [io.pedestal.http.body-params :refer [body-params default-parser-map]]
-            [clojure.test :refer [deftest is]]
+            [io.pedestal.http.body-params :refer [body-params default-parser-map add-parser custom-ndjson-parser]]
+            [clojure.test :refer [deftest is testing]]
             [matcher-combinators.matchers :as m])
-  (:import (java.io ByteArrayInputStream)))
+  (:import (java.io ByteArrayInputStream ByteArrayOutputStream InputStream)))
 
 (defn byte-context [content-type ^bytes body-bytes]
   (let [body-reader (ByteArrayInputStream. body-bytes)]
@@ -145,3 +145,88 @@
         new-request     (:request new-context)]
     (is (= false
            (:transit-params new-request)))))
+
+(deftest lazy-parsing
+  (let [enter   (:enter (body-params (default-parser-map) {:lazy? true}))
+        *reads  (atom 0)
+        parsers (add-parser (default-parser-map) "application/json"
+                            (fn [request]
+                              (swap! *reads inc)
+                              (assoc request :json-params :parsed)))
+        counted (:enter (body-params parsers {:lazy? true}))]
+    (let [request (:request (enter (as-context "application/json" "{ \"foo\": \"BAR\"}")))]
+      (is (= {:foo "BAR"} (:json-params request)))
+      (is (= "application/json" (:content-type request)))
+      (is (match? {:json-params {:foo "BAR"}
+                   :content-type "application/json"}
+                  (into {} request))))
+
+    (testing "not parsed unless accessed"
+      (let [request (-> (as-context "application/json" "{}") counted :request (assoc :extra true))]
+        (is (= "application/json" (:content-type request)))
+        (is (true? (:extra request)))
+        (is (= 0 @*reads))
+        (is (= :parsed (:json-params request)))
+        (is (= :parsed (get request :json-params)))
+        (is (= 1 @*reads))))
+
+    (testing "explicitly assoc'ed keys are not replaced"
+      (let [request (-> (as-context "application/json" "{}") counted :request (assoc :json-params :override))]
+        (is (= :override (:json-params request)))))))
+
+(deftest max-body-size
+  (let [enter (:enter (body-params (default-parser-map) {:max-body-size 10}))]
+    (testing "content length exceeds maximum"
+      (is (= 413
+             (-> (as-context "application/json" "{}")
+                 (assoc-in [:request :content-length] 100)
+                 enter
+                 (get-in [:response :status])))))
+
+    (testing "body exceeds maximum"
+      (is (= 413
+             (-> (as-context "application/json" "{ \"foo\": \"BAR\"}")
+                 enter
+                 (get-in [:response :status])))))
+
+    (testing "body within maximum"
+      (is (= {:foo 1}
+             (-> (as-context "application/json" "{\"foo\":1}")
+                 enter
+                 (get-in [:request :json-params]))))))
+
+  (let [enter (-> (default-parser-map)
+                  (add-parser "application/octet-stream"
+                              (fn [request]
+                                (let [^InputStream body (:body request)
+                                      out               (ByteArrayOutputStream.)]
+                                  (.skip body 2)
+                                  (.transferTo body out)
+                                  (assoc request ::body (.toByteArray out)))))
+                  (body-params {:max-body-size 10})
+                  :enter)]
+    (testing "skipped and transferred bytes count against the maximum"
+      (is (= 413
+             (-> (as-context "application/octet-stream" "0123456789ABCDEF")
+                 enter
+                 (get-in [:response :status]))))
+      (is (= 413
+             (-> (as-context "application/octet-stream" "0123456789AB")
+                 enter
+                 (get-in [:response :status])))))
+
+    (testing "skip and transfer within maximum"
+      (is (= "23456789"
+             (-> (as-context "application/octet-stream" "0123456789")
+                 enter
+                 (get-in [:request ::body])
+                 String.))))))
+
+(deftest parses-ndjson
+  (let [enter   (-> (default-parser-map)
+                    (add-parser "application/x-ndjson" (custom-ndjson-parser))
+                    body-params
+                    :enter)
+        request (:request (enter (as-context "application/x-ndjson" "{\"id\": 1}\n\n{\"id\": 2}\n")))]
+    (is (seq? (:json-params request)))
+    (is (= [{:id 1} {:id 2}] (:json-params request)))))
@@ -0,0 +1,173 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.compression-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [clojure.core.async :as async]
+            [clojure.java.io :as io]
+            [clojure.string :as string]
+            [io.pedestal.http.compression :as compression]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.test-common :refer [<!!?]])
+  (:import (java.io ByteArrayInputStream ByteArrayOutputStream OutputStream)
+           (java.nio ByteBuffer)
+           (java.nio.channels Channels)
+           (java.util.zip GZIPInputStream)))
+
+(def ^:private content (string/join "\n" (repeat 200 "Pedestal compresses this line of text.")))
+
+(defn- execute
+  ([response]
+   (execute response nil))
+  ([response options]
+   (execute response options {"accept-encoding" "gzip, deflate"}))
+  ([response options request-headers]
+   (-> {:request {:request-method :get
+                  :headers        request-headers}}
+       (chain/execute [(compression/compress-response options)
+                       (interceptor {:name  ::handler
+                                     :enter #(assoc % :response response)})])
+       :response)))
+
+(defn- text-response
+  [body]
+  {:status  200
+   :headers {"Content-Type" "text/plain"}
+   :body    body})
+
+(defn- gunzip
+  ^String [^bytes compressed]
+  (with-open [in (GZIPInputStream. (ByteArrayInputStream. compressed))]
+    (slurp in)))
+
+(defn- fn-body->bytes
+  ^bytes [f]
+  (let [out (ByteArrayOutputStream.)]
+    (f out)
+    (.toByteArray out)))
+
+(defn- channel->bytes
+  ^bytes [ch]
+  (let [out (ByteArrayOutputStream.)]
+    (loop []
+      (when-let [^bytes chunk (<!!? ch)]
+        (.write out chunk)
+        (recur)))
+    (.toByteArray out)))
+
+(deftest compresses-strings
+  (let [{:keys [headers body]} (execute (text-response content))]
+    (is (bytes? body))
+    (is (= "gzip" (get headers "Content-Encoding")))
+    (is (= "Accept-Encoding" (get headers "Vary")))
+    (is (= (str (alength ^bytes body)) (get headers "Content-Length")))
+    (is (< (alength ^bytes body) (count content)))
+    (is (= content (gunzip body)))))
+
+(deftest compresses-in-memory-bodies
+  (let [data (.getBytes ^String content "UTF-8")]
+    (testing "byte arrays"
+      (is (= content (gunzip (:body (execute (text-response data)))))))
+
+    (testing "ByteBuffers"
+      (is (= content (gunzip (:body (execute (text-response (ByteBuffer/wrap data))))))))))
+
+(deftest compresses-streamed-bodies
+  (testing "InputStream"
+    (let [{:keys [headers body]} (execute (-> (text-response (io/input-stream (.getBytes ^String content "UTF-8")))
+                                              (assoc-in [:headers "Content-Length"] "7800")))]
+      (is (fn? body))
+      (is (nil? (get headers "Content-Length")))
+      (is (= content (gunzip (fn-body->bytes body))))))
+
+  (testing "function"
+    (let [body (:body (execute (text-response (fn [^OutputStream out]
+                                                (.write out (.getBytes ^String content "UTF-8"))))))]
+      (is (= content (gunzip (fn-body->bytes body))))))
+
+  (testing "ReadableByteChannel"
+    (let [channel (Channels/newChannel (ByteArrayInputStream. (.getBytes ^String content "UTF-8")))
+          body    (:body (execute (text-response channel)))]
+      (is (= content (gunzip (channel->bytes body))))))
+
+  (testing "core.async channel"
+    (let [lines (string/split-lines content)
+          ch    (async/to-chan! (map #(str % "\n") lines))
+          body  (:body (execute (text-response ch)))]
+      (is (= (str content "\n") (gunzip (channel->bytes body)))))))
+
+(deftest deflaters-are-reused
+  (let [compressor (compression/compress-response {:pool-size 1})
+        run        #(-> {:request {:request-method :get
+                                   :headers        {"accept-encoding" "gzip"}}}
+                        (chain/execute [compressor
+                                        (interceptor {:name  ::handler
+                                                      :enter (fn [context]
+                                                               (assoc context :response (text-response content)))})])
+                        (get-in [:response :body])
+                        gunzip)]
+    (is (= content (run)))
+    (is (= content (run)))))
+
+(deftest responses-not-compressed
+  (testing "client does not accept gzip"
+    (let [{:keys [headers body]} (execute (text-response content) nil {})]
+      (is (= content body))
+      (is (nil? (get headers "Content-Encoding")))
+      (is (= "Accept-Encoding" (get headers "Vary")))))
+
+  (testing "gzip explicitly refused"
+    (is (= content (:body (execute (text-response content) nil {"accept-encoding" "gzip;q=0, identity"})))))
+
+  (testing "body below minimum size"
+    (is (= "short" (:body (execute (text-response "short"))))))
+
+  (testing "string size is measured in UTF-8 bytes"
+    (let [accented (apply str (repeat 400 "\u00e9"))]
+      (is (bytes? (:body (execute (text-response accented) {:min-size 500}))))
+      (is (= accented (:body (execute (text-response accented) {:min-size 1000}))))))
+
+  (testing "content type not allowed"
+    (let [{:keys [headers body]} (execute (assoc-in (text-response content) [:headers "Content-Type"] "image/png"))]
+      (is (= content body))
+      (is (nil? (get headers "Vary")))))
+
+  (testing "already encoded"
+    (is (= content (:body (execute (assoc-in (text-response content) [:headers "Content-Encoding"] "br"))))))
+
+  (testing "not modified"
+    (is (nil? (get-in (execute {:status 304 :headers {"Content-Type" "text/plain"}})
+                      [:headers "Content-Encoding"])))))
+
+(deftest etags-are-weakened
+  (testing "strong ETags become weak"
+    (is (= "W/\"abc\""
+           (get-in (execute (assoc-in (text-response content) [:headers "ETag"] "\"abc\""))
+                   [:headers "ETag"]))))
+
+  (testing "weak ETags are unchanged"
+    (is (= "W/\"abc\""
+           (get-in (execute (assoc-in (text-response content) [:headers "etag"] "W/\"abc\""))
+                   [:headers "etag"]))))
+
+  (testing "uncompressed responses keep a strong ETag"
+    (is (= "\"abc\""
+           (get-in (execute (assoc-in (text-response "short") [:headers "ETag"] "\"abc\""))
+                   [:headers "ETag"])))))
+
+(deftest vary-is-merged
+  (is (= "Accept, Accept-Encoding"
+         (get-in (execute (assoc-in (text-response content) [:headers "Vary"] "Accept"))
+                 [:headers "Vary"])))
+  (is (= "accept-encoding"
+         (get-in (execute (assoc-in (text-response content) [:headers "Vary"] "accept-encoding"))
+                 [:headers "Vary"]))))
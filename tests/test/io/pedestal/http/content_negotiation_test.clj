@@ -174,3 +174,37 @@
                                               {:no-match-fn (fn [ctx] (assoc-in ctx [:request :blarg] 42))})))
                (get-in [:request :blarg]))))))
 
+
+(deftest negotiation-is-cached
+  (let [enter  (:enter (cn/negotiate-content ["foo/bar" "qux/burt"] {:cache-size        2
+                                                                     :max-cached-length 20}))
+        accept (fn [accept-str]
+                 (enter {:request {:headers {"accept" accept-str}}}))]
+    (let [match (get-in (accept "qux/*") [:request :accept])]
+      (testing "cached matches are identical"
+        (is (= "qux/burt" (:field match)))
+        (is (identical? match (get-in (accept "qux/*") [:request :accept]))))
+
+      (testing "cached failures"
+        (is (= 406 (get-in (accept "spam/burt") [:response :status])))
+        (is (= 406 (get-in (accept "spam/burt") [:response :status]))))
+
+      (testing "not recently used is evicted when the cache is full"
+        (let [enter     (:enter (cn/negotiate-content ["foo/bar" "qux/burt"] {:cache-size 2}))
+              accept    (fn [accept-str]
+                          (get-in (enter {:request {:headers {"accept" accept-str}}}) [:request :accept]))
+              match     (accept "qux/*")
+              foo-*     (accept "foo/*")]
+          ;; Use qux/*, so that foo/* is evicted
+          (is (identical? match (accept "qux/*")))
+          (let [foo-match (accept "foo/bar")]
+            (is (= "foo/bar" (:field foo-match)))
+            (is (identical? foo-match (accept "foo/bar"))))
+          (is (identical? match (accept "qux/*")))
+          (is (not (identical? foo-* (accept "foo/*")))))))
+
+    (testing "not cached when the accept string is long"
+      (let [long-accept "foo/bar;q=0.9, qux/burt;q=0.8"
+            foo-match   (get-in (accept long-accept) [:request :accept])]
+        (is (= "foo/bar" (:field foo-match)))
+        (is (not (identical? foo-match (get-in (accept long-accept) [:request :accept]))))))))
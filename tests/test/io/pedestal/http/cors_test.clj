@@ -15,6 +15,7 @@
   (:require [io.pedestal.http :as service]
             [ring.util.response :as ring-resp]
             [io.pedestal.test :refer [response-for]]
+            [clojure.string :as str]
             [clojure.test :refer [deftest is]]))
 
 (defn hello-world
@@ -77,3 +78,45 @@
     (is (= 403 (:status response)))
     (is (= nil (get-in response [:headers "Origin"])))))
 
+
+(deftest preflight-test
+  (let [response (response-for app :options "/hello-world"
+                               :headers {"origin"                         "http://foo.com:8080"
+                                         "access-control-request-headers" "X-Custom"})]
+    (is (= 200 (:status response)))
+    (is (= "http://foo.com:8080" (get-in response [:headers "Access-Control-Allow-Origin"])))
+    (is (= "GET, POST, PUT, DELETE, HEAD, PATCH, OPTIONS" (get-in response [:headers "Access-Control-Allow-Methods"])))
+    (is (str/starts-with? (get-in response [:headers "Access-Control-Allow-Headers"]) "Content-Type, X-Custom, "))))
+
+(deftest origin-decisions-are-cached
+  (let [*calls (atom [])
+        app    (::service/service-fn (-> {::service/routes          routes
+                                          ::service/allowed-origins {:allowed-origins (fn [origin]
+                                                                                        (swap! *calls conj origin)
+                                                                                        (= origin "http://foo.com:8080"))
+                                                                     :creds           true}}
+                                         service/default-interceptors
+                                         service/service-fn))]
+    (dotimes [_ 3]
+      (let [response (response-for app :get "/hello-world" :headers {"origin" "http://foo.com:8080"})]
+        (is (= 200 (:status response)))
+        (is (= "true" (get-in response [:headers "Access-Control-Allow-Credentials"])))
+        (is (string? (get-in response [:headers "Access-Control-Expose-Headers"]))))
+      (is (= 403 (:status (response-for app :get "/hello-world" :headers {"origin" "https://bar.org"})))))
+    ;; Only allowed origins are cached
+    (is (= ["http://foo.com:8080" "https://bar.org" "https://bar.org" "https://bar.org"] @*calls))))
+
+(deftest origin-cache-is-bounded
+  (let [*calls (atom [])
+        app    (::service/service-fn (-> {::service/routes          routes
+                                          ::service/allowed-origins {:allowed-origins   (fn [origin]
+                                                                                          (swap! *calls conj origin)
+                                                                                          true)
+                                                                     :origin-cache-size 1}}
+                                         service/default-interceptors
+                                         service/service-fn))]
+    (doseq [origin ["http://foo.com" "http://foo.com" "https://bar.org" "http://foo.com"]]
+      (is (= origin (get-in (response-for app :get "/hello-world" :headers {"origin" origin})
+                            [:headers "Access-Control-Allow-Origin"]))))
+    ;; bar.org displaced foo.com from the cache
+    (is (= ["http://foo.com" "https://bar.org" "http://foo.com"] @*calls))))
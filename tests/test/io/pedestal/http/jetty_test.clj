@@ -30,6 +30,7 @@
             [io.pedestal.http.jetty :as jetty]
             io.pedestal.http.jetty.specs)
   (:import (jakarta.servlet.http HttpServletResponse)
+           (org.eclipse.jetty.util VirtualThreads)
            (org.eclipse.jetty.util.thread QueuedThreadPool)
            (org.eclipse.jetty.server Server Request)
            (org.eclipse.jetty.server.handler AbstractHandler)
@@ -184,6 +185,29 @@
       (is (not (.. server getThreadPool isDaemon))))))
 
 
+(deftest bounded-thread-pool
+  (let [^Server server (::jetty/server (jetty-server hello-world {:port              4347
+                                                                  :container-options {:max-threads      30
+                                                                                      :min-threads      4
+                                                                                      :reserved-threads 2
+                                                                                      :max-queued       100}}))
+        ^QueuedThreadPool pool (.getThreadPool server)]
+    (is (= 30 (.getMaxThreads pool)))
+    (is (= 4 (.getMinThreads pool)))
+    (is (= 2 (.getReservedThreads pool)))))
+
+(deftest bounded-thread-pool-round-trip
+  (with-server hello-world {:port              4347
+                            :container-options {:max-queued 100}}
+               (is (= "Hello World" (:body (http/get "http://localhost:4347"))))))
+
+(deftest virtual-thread-pool
+  (if-not (VirtualThreads/areSupported)
+    (println "Skipping virtual thread pool test; requires Java 21")
+    (with-server hello-world {:port              4347
+                              :container-options {:virtual-threads? true}}
+                 (is (= "Hello World" (:body (http/get "http://localhost:4347")))))))
+
 (deftest default-character-encoding
   (with-server (content-type-handler "text/plain") {:port 4347}
                (let [response (http/get "http://localhost:4347")]
@@ -0,0 +1,71 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.lazy-request-map-test
+  (:require [clojure.test :refer [deftest is]]
+            [io.pedestal.http.request.map :as request-map]
+            [io.pedestal.test :as test])
+  (:import (io.pedestal.servlet LazyRequestMap)
+           (io.pedestal.servlet.mock MockState)))
+
+(defn- mock-state
+  []
+  (MockState. "http://localhost:8080/widgets?id=3" "POST" "http" "localhost" 8080 "widgets" "id=3"
+              {"Content-Type"   "application/json"
+               "Content-Length" "2"
+               "X-Trace"        "abc"}
+              (test/body->input-stream "{}")))
+
+(defn- both-maps
+  []
+  (let [state (mock-state)
+        req   (.request state)
+        resp  (.response state)]
+    [(request-map/servlet-request-map nil req resp)
+     (request-map/lazy-servlet-request-map nil req resp)]))
+
+(deftest lazy-map-matches-eager-map
+  (let [[eager lazy] (both-maps)]
+    (is (instance? LazyRequestMap lazy))
+    (is (= eager lazy))
+    (is (= (count eager) (count lazy)))
+    (is (= (set (keys eager)) (set (keys lazy))))))
+
+(deftest individual-keys
+  (let [[eager lazy] (both-maps)]
+    (doseq [k [:uri :path-info :request-method :query-string :scheme :headers
+               :content-type :content-length :character-encoding :server-name
+               :remote-addr :protocol :context-path :async-supported?]]
+      (is (= (get eager k) (get lazy k)) (str "key " k)))
+    (is (= "abc" (get-in lazy [:headers "x-trace"])))
+    (is (= "2" (get-in lazy [:headers "content-length"])))))
+
+(deftest missing-keys
+  (let [[_ lazy] (both-maps)]
+    (is (nil? (:ssl-client-cert lazy)))
+    (is (false? (contains? lazy :ssl-client-cert)))
+    (is (= ::none (get lazy :ssl-client-cert ::none)))
+    (is (= ::none (get lazy "uri" ::none)))
+    (is (true? (contains? lazy :query-string)))))
+
+(deftest assoc-returns-persistent-map
+  (let [[eager lazy] (both-maps)
+        lazy'  (assoc lazy :path-params {:id "3"})
+        eager' (assoc eager :path-params {:id "3"})]
+    (is (not (instance? LazyRequestMap lazy')))
+    (is (map? lazy'))
+    (is (= eager' lazy'))
+    (is (= eager (dissoc lazy' :path-params)))))
+
+(deftest values-are-cached
+  (let [[_ lazy] (both-maps)]
+    (is (identical? (:headers lazy) (:headers lazy)))
+    (is (identical? (:path-info lazy) (:path-info lazy)))))
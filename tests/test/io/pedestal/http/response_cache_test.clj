@@ -0,0 +1,220 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.http.response-cache-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [io.pedestal.http.response :as response]
+            [io.pedestal.http.response-cache :as response-cache]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain])
+  (:import (java.nio ByteBuffer)))
+
+(defn- counting-handler
+  [*count response]
+  (interceptor {:name  ::handler
+                :enter (fn [context]
+                         (swap! *count inc)
+                         (assoc context :response response))}))
+
+(def ^:private ok-response {:status  200
+                            :headers {"Content-Type" "text/plain"}
+                            :body    "Cached"})
+
+(defn- execute
+  ([cache handler]
+   (execute cache handler nil))
+  ([cache handler request]
+   (-> {:request (merge {:request-method :get
+                         :path-params    {:id "1"}
+                         :headers        {}}
+                        request)
+        :route   {:route-name ::route}}
+       response/terminate-when-response
+       (chain/execute [cache handler])
+       :response)))
+
+(defn- body-string
+  [body]
+  (String. ^bytes body "UTF-8"))
+
+(deftest caches-responses
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        cache   (response-cache/response-cache)
+        response-1 (execute cache handler)
+        response-2 (execute cache handler)]
+    (is (= 1 @*count))
+    (is (= 200 (:status response-2)))
+    (is (= "Cached" (body-string (:body response-1)) (body-string (:body response-2))))
+    (is (= "Accept" (get-in response-2 [:headers "Vary"])))
+    (is (some? (get-in response-2 [:headers "ETag"])))
+    (is (= (get-in response-1 [:headers "ETag"])
+           (get-in response-2 [:headers "ETag"])))))
+
+(deftest keys-include-params-and-vary-headers
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        cache   (response-cache/response-cache)]
+    (execute cache handler)
+    (execute cache handler {:path-params {:id "2"}})
+    (execute cache handler {:query-params {:q "x"}})
+    (execute cache handler {:headers {"accept" "application/json"}})
+    (is (= 4 @*count))
+    (execute cache handler {:headers {"accept" "application/json"}})
+    (is (= 4 @*count))))
+
+(deftest revalidation
+  (let [*count   (atom 0)
+        handler  (counting-handler *count ok-response)
+        cache    (response-cache/response-cache)
+        etag     (get-in (execute cache handler) [:headers "ETag"])
+        response (execute cache handler {:headers {"if-none-match" etag}})]
+    (is (= 304 (:status response)))
+    (is (nil? (:body response)))
+    (is (= etag (get-in response [:headers "ETag"])))
+    (is (= 200 (:status (execute cache handler {:headers {"if-none-match" "\"other\""}}))))
+    (is (= 1 @*count))))
+
+(deftest keys-include-uri
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        cache   (response-cache/response-cache)
+        execute (fn [uri]
+                  (-> {:request {:request-method :get
+                                 :uri            uri
+                                 :headers        {}}}
+                      response/terminate-when-response
+                      (chain/execute [cache handler])))]
+    ;; No route was matched, so there is no route name or path params
+    (execute "/a")
+    (execute "/b")
+    (is (= 2 @*count))
+    (execute "/a")
+    (is (= 2 @*count))))
+
+(deftest bounded-by-entries
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        cache   (response-cache/response-cache {:max-entries 2})]
+    (doseq [id ["1" "2" "3" "1"]]
+      (execute cache handler {:path-params {:id id}}))
+    (testing "least recently used entry was evicted"
+      (is (= 4 @*count)))))
+
+(deftest oversized-responses-are-not-cached
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        small   (counting-handler *count (assoc ok-response :body "ok"))
+        cache   (response-cache/response-cache {:max-bytes 4})]
+    (execute cache small {:path-params {:id "small"}})
+    (execute cache handler)
+    (execute cache handler)
+    (is (= 3 @*count))
+    (testing "smaller entries are not evicted"
+      (execute cache small {:path-params {:id "small"}})
+      (is (= 3 @*count)))))
+
+(deftest existing-vary-is-merged
+  (let [handler (fn [vary]
+                  (counting-handler (atom 0) (assoc-in ok-response [:headers "Vary"] vary)))
+        vary    (fn [existing]
+                  (get-in (execute (response-cache/response-cache {:vary-headers ["accept" "accept-language"]})
+                                   (handler existing))
+                          [:headers "Vary"]))]
+    (is (= "accept, Accept-Language" (vary "accept")))
+    (is (= "Origin, Accept, Accept-Language" (vary "Origin")))
+    (is (= "*" (vary "*")))))
+
+(deftest bounded-by-ttl
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        cache   (response-cache/response-cache {:ttl 0})]
+    (execute cache handler)
+    (execute cache handler)
+    (is (= 2 @*count))))
+
+(deftest only-cacheable-responses-are-cached
+  (testing "non-GET requests"
+    (let [*count  (atom 0)
+          handler (counting-handler *count ok-response)
+          cache   (response-cache/response-cache)]
+      (execute cache handler {:request-method :post})
+      (execute cache handler {:request-method :post})
+      (is (= 2 @*count))))
+
+  (testing "no-store responses"
+    (let [*count  (atom 0)
+          handler (counting-handler *count (assoc-in ok-response [:headers "Cache-Control"] "no-store"))
+          cache   (response-cache/response-cache)]
+      (execute cache handler)
+      (execute cache handler)
+      (is (= 2 @*count))))
+
+  (testing "responses that set cookies"
+    (let [*count  (atom 0)
+          handler (counting-handler *count (assoc-in ok-response [:headers "Set-Cookie"] "session=abc"))
+          cache   (response-cache/response-cache)]
+      (execute cache handler)
+      (is (= "session=abc" (get-in (execute cache handler) [:headers "Set-Cookie"])))
+      (is (= 2 @*count))))
+
+  (testing "responses that vary on everything"
+    (let [*count  (atom 0)
+          handler (counting-handler *count (assoc-in ok-response [:headers "Vary"] "*"))
+          cache   (response-cache/response-cache)]
+      (execute cache handler)
+      (execute cache handler)
+      (is (= 2 @*count))))
+
+  (testing "non-200 responses"
+    (let [*count  (atom 0)
+          handler (counting-handler *count {:status 404 :body "Not Found"})
+          cache   (response-cache/response-cache)]
+      (execute cache handler)
+      (execute cache handler)
+      (is (= 2 @*count)))))
+
+(deftest credentialed-requests
+  (doseq [header ["authorization" "cookie"]]
+    (testing header
+      (testing "responses are not cached, or served from the cache"
+        (let [*count  (atom 0)
+              handler (counting-handler *count ok-response)
+              cache   (response-cache/response-cache)]
+          (execute cache handler {:headers {header "alice"}})
+          (execute cache handler {:headers {header "alice"}})
+          (is (= 2 @*count))
+          ;; An entry cached from an anonymous request is not served to a credentialed request
+          (execute cache handler)
+          (execute cache handler {:headers {header "bob"}})
+          (is (= 4 @*count))
+          (execute cache handler)
+          (is (= 4 @*count))))
+
+      (testing "public responses are cached"
+        (let [*count  (atom 0)
+              handler (counting-handler *count (assoc-in ok-response [:headers "Cache-Control"] "public, max-age=60"))
+              cache   (response-cache/response-cache)]
+          (execute cache handler {:headers {header "alice"}})
+          (execute cache handler {:headers {header "bob"}})
+          (execute cache handler)
+          (is (= 1 @*count)))))))
+
+(deftest off-heap-bodies
+  (let [*count  (atom 0)
+        handler (counting-handler *count ok-response)
+        cache   (response-cache/response-cache {:off-heap? true})
+        ^ByteBuffer body-1 (:body (execute cache handler))
+        ^ByteBuffer body-2 (:body (execute cache handler))]
+    (is (instance? ByteBuffer body-1))
+    (is (not (identical? body-1 body-2)))
+    (is (= 6 (.remaining body-1) (.remaining body-2)))
+    (is (= 1 @*count))))
@@ -72,7 +72,7 @@
 ;; This is io.pedestal.http.route/routes-from if dev mode was always enabled.
 (defmacro routes-from
   [expr]
-  (internal/create-routes-from-fn [expr] &env `route/expand-routes))
+  (internal/create-routes-from-fn [expr] &env `route/expand-routes-cached))
 
 (comment
   (macroexpand-1 '(routes-from sample-routes))
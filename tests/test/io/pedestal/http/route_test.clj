@@ -1088,6 +1088,39 @@
     "/?:@-._~!$'()*+,;=/?:@-._~!$'()*+,;=="
     {(keyword "/?:@-._~!$'()* ,;") "/?:@-._~!$'()* ,;=="}))
 
+(deftest t-lazy-query-params
+  (let [enter (:enter (route/lazy-query-params {:max-params 4}))
+        parse (fn [s]
+                (-> {:request {:query-string s}} enter :request :query-params))]
+    (doseq [s ["a=1&b=2"
+               "a=&b=2"
+               "a=1&b=2&a=3&a=4"
+               "flag&a=1"
+               "message=%22Houston%2C+we+have+a+problem!%22"
+               "Hello%2C%20World!=Hello%2C%20World!"
+               "/?:@-._~!$'()*+,;=/?:@-._~!$'()*+,;=="]]
+      (let [eager (route/parse-query-string s)]
+        (testing s
+          (doseq [k (keys eager)
+                  :when (keyword? k)]
+            (is (= (get eager k) (get (parse s) k))))
+          (is (nil? (get (parse s) :missing)))
+          (is (false? (contains? (parse s) :missing)))
+          (is (= eager (parse s))))))
+
+    (testing "query parameters are also params"
+      (let [request (-> {:request {:query-string "a=1"}} enter :request)]
+        (is (= "1" (get-in request [:params :a])))))
+
+    (testing "values are only decoded when looked up"
+      (let [params (parse "a=1&b=%ZZ")]
+        (is (= "1" (:a params)))
+        (is (thrown? IllegalArgumentException (:b params)))))
+
+    (testing "too many parameters"
+      (is (= 400 (-> {:request {:query-string "a=1&b=2&c=3&d=4&e=5"}} enter :response :status)))
+      (is (thrown? IllegalArgumentException (route/parse-query-string "a=1&b=2&c=3" :max-params 2))))))
+
 (deftest t-path-params
   (are [r m] (= m (route/parse-param-map r))
     {:message "Hello+World"
@@ -1227,6 +1260,40 @@
   (is (thrown-with-msg? ExceptionInfo #"\*url-for\* not bound"
                         (route/url-for :my-route))))
 
+(defn- url-for-execute
+  [router]
+  (let [linker (interceptor {:name  ::linker
+                             :enter (fn [context]
+                                      (assoc context ::links
+                                             {:context (route/url-for-context context ::link-target :path-params {:id "3"})
+                                              :request (route/url-for-context (:request context) ::link-target)
+                                              :bound?   (contains? (:bindings context) #'route/*url-for*)}))})
+        routes (expand-routes #{["/link/:id" :get linker :route-name ::link-target]})]
+    (-> {:request {:request-method :get
+                   :scheme         :http
+                   :server-name    "localhost"
+                   :server-port    80
+                   :path-info      "/link/9"}}
+        (interceptor.chain/execute [(router routes)])
+        ::links)))
+
+(deftest url-for-context-with-bindings
+  (is (= {:context "/link/3"
+          :request "/link/9"
+          :bound?  true}
+         (url-for-execute route/router))))
+
+(deftest url-for-context-without-bindings
+  (is (= {:context "/link/3"
+          :request "/link/9"
+          :bound?  false}
+         (url-for-execute #(binding [route/*bind-url-for* false]
+                             (route/router %))))))
+
+(deftest url-for-context-requires-routed-request
+  (is (thrown-with-msg? ExceptionInfo #"has not been routed"
+                        (route/url-for-context {} ::link-target))))
+
 (deftest method-param-test
   (let [context {:request {:request-method :get}}]
     (is (= {:request {:request-method :delete}}
@@ -1491,6 +1558,29 @@
     (is (= "/some/context/a-value"
            ((route/url-for-routes routes) ::home-page :params {:a-parameter "a-value"} :context "some/context")))))
 
+(deftest url-for-context-path-variations
+  (let [routes  (expand-routes #{["/" :get `home-page :route-name ::root]
+                                 ["/users/:id" :get `view-user :route-name ::user]
+                                 ["/users/" :get `list-users :route-name ::users]})
+        url-for (route/url-for-routes routes)]
+    (are [expected route-name context] (= expected (url-for route-name :path-params {:id 5} :context context))
+      "/users/5" ::user nil
+      "/app/users/5" ::user "/app"
+      "/app/users/5" ::user "/app/"
+      "/users/5" ::user "/"
+      "/users/5" ::user ""
+      "/" ::root nil
+      "/app/" ::root "/app"
+      "/users/" ::users nil
+      "/app/users/" ::users "/app")
+    (is (= "/app/users/5"
+           (url-for ::user :params {:id 5} :request {:context-path "/app"})))
+    ;; The fragment has always preceded the query string
+    (is (= "https://example.com:8443/users/5#top?q=x"
+           (url-for ::user :params {:id 5 :q "x"} :fragment "top"
+                    :scheme :https :host "example.com" :port 8443
+                    :request {:scheme :http :server-name "localhost" :server-port 8080})))))
+
 
 (defn- attempt-route
   [routes router-type verb path]
@@ -1571,3 +1661,57 @@
            :two   {:interceptors [i-1 i-2 i-3 table-route-handler]}
            :three {:interceptors [i-1 i-2 table-route-handler]}}
           by-name))))
+
+(deftest router-from-fn-is-rebuilt-only-when-changed
+  (let [*builds      (atom 0)
+        *spec        (atom #{["/one" :get table-route-handler :route-name :one]})
+        *expansions  (atom nil)
+        routing-fn   #(route/expand-routes-cached *expansions @*spec)
+        router-ctor  (fn [routes]
+                       (swap! *builds inc)
+                       (sawtooth/router routes))
+        router       (binding [route/*print-routing-table* false]
+                       (route/router routing-fn router-ctor))
+        route-name   (fn [path]
+                       (-> ((:enter router) {:request {:path-info      path
+                                                       :request-method :get}})
+                           :route
+                           :route-name))]
+    (is (= :one (route-name "/one")))
+    (is (= :one (route-name "/one")))
+    (is (= 1 @*builds))
+
+    (swap! *spec conj ["/two" :get table-route-handler :route-name :two])
+
+    (is (= :two (route-name "/two")))
+    (is (= :one (route-name "/one")))
+    (is (= 2 @*builds))))
+
+(deftest expand-routes-cached-reuses-expansions
+  (let [*expansions (atom nil)
+        spec-1      #{["/one" :get table-route-handler :route-name :one]}
+        spec-2      #{["/two" :get table-route-handler :route-name :two]}
+        table-1     (route/expand-routes-cached *expansions spec-1 spec-2)
+        table-2     (route/expand-routes-cached *expansions spec-1 spec-2)
+        table-3     (route/expand-routes-cached *expansions spec-1
+                                                #{["/three" :get table-route-handler :route-name :three]})]
+    (is (identical? table-1 table-2))
+    (is (= [:one :three] (mapv :route-name (:routes table-3))))
+    (testing "unchanged specifications are not re-expanded"
+      (is (identical? (first (:routes table-1))
+                      (first (:routes table-3)))))))
+
+(deftest expand-routes-cached-compares-specifications-in-order
+  (let [*expansions (atom nil)
+        spec-1      #{["/one" :get table-route-handler :route-name :one]}
+        spec-2      #{["/two" :get table-route-handler :route-name :two]}
+        table-1     (route/expand-routes-cached *expansions spec-1 spec-2)]
+    (testing "reordered specifications"
+      (let [table-2 (route/expand-routes-cached *expansions spec-2 spec-1)]
+        (is (not (identical? table-1 table-2)))
+        (is (= [:two :one] (mapv :route-name (:routes table-2))))))
+
+    (testing "repeated specifications"
+      (route/expand-routes-cached *expansions spec-1 spec-2)
+      (is (thrown-with-msg? ExceptionInfo #"Route names are not unique"
+                            (route/expand-routes-cached *expansions spec-1 spec-1))))))
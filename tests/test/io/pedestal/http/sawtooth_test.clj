@@ -317,3 +317,73 @@
     (is (match? [{:route-name :admin-stats} {}]
                 (router-fn (request :get "/api/admin/stats"))))))
 
+
+(deftest deep-paths-with-params
+  (let [routes    #{["/org/:org/team/:team/project/:project/build/:build" :get identity :route-name :get-build]
+                    ["/org/:org/team/:team/project/:project/build/:build/log/*path" :get identity :route-name :get-log]
+                    ["/org/:org/team/:team/members" :get identity :route-name :get-members]}
+        router-fn (sawtooth/router (route/expand-routes routes))]
+    (is (match? [{:route-name :get-build} {:org "acme" :team "core" :project "site" :build "42"}]
+                (router-fn (request :get "/org/acme/team/core/project/site/build/42"))))
+    (is (match? [{:route-name :get-log} {:org "acme" :team "core" :project "site" :build "42" :path "steps/3"}]
+                (router-fn (request :get "/org/acme/team/core/project/site/build/42/log/steps/3"))))
+    (is (match? [{:route-name :get-members} {:org "acme" :team "core"}]
+                (router-fn (request :get "/org/acme/team/core/members"))))
+    (is (nil? (router-fn (request :get "/org/acme/team/core/project/site/build"))))
+    (is (nil? (router-fn (request :get "/org/acme/team/core/members/"))))))
+
+(deftest literal-terms-with-same-hash
+  ;; "Aa" and "BB" have the same String hash code; literal terms are matched
+  ;; by hash code of a region of the path, then compared.
+  (let [routes    #{["/Aa/:id" :get identity :route-name :aa]
+                    ["/BB/:id" :get identity :route-name :bb]
+                    ["/static/Aa" :get identity :route-name :static-aa]
+                    ["/static/BB" :get identity :route-name :static-bb]}
+        router-fn (sawtooth/router (route/expand-routes routes))]
+    (is (match? [{:route-name :aa} {:id "1"}]
+                (router-fn (request :get "/Aa/1"))))
+    (is (match? [{:route-name :bb} {:id "2"}]
+                (router-fn (request :get "/BB/2"))))
+    (is (match? [{:route-name :static-aa} {}]
+                (router-fn (request :get "/static/Aa"))))
+    (is (match? [{:route-name :static-bb} {}]
+                (router-fn (request :get "/static/BB"))))
+    (is (nil? (router-fn (request :get "/static/Ab"))))))
+
+(deftest incremental-rebuild-reuses-unchanged-matchers
+  (let [routes-1  (:routes (route/expand-routes
+                             #{["/users" :get identity :route-name :get-users]
+                               ["/users/:id" :get identity :route-name :get-user]
+                               ["/users" :post identity :route-name :create-user]}))
+        routes-2  (-> (remove #(= :create-user (:route-name %)) routes-1)
+                      (concat (:routes (route/expand-routes
+                                         #{["/accounts" :post identity :route-name :create-account]})))
+                      vec)
+        [_ _ cache-1] (impl/create-matcher-from-routes routes-1 nil)
+        [matcher _ cache-2] (impl/create-matcher-from-routes routes-2 cache-1)
+        reused    (filter (fn [[k entry]]
+                            (identical? entry (get cache-1 k)))
+                          cache-2)]
+    (is (= 1 (count reused)))
+    (is (= 2 (count cache-2)))
+    (is (match? [{:route-name :get-user} {:id "9"}]
+                (matcher (request :get "/users/9"))))
+    (is (match? [{:route-name :create-account} nil]
+                (matcher (request :post "/accounts"))))
+    (is (nil? (matcher (request :post "/users"))))))
+
+(deftest incremental-router
+  (let [router-ctor (sawtooth/incremental-router)
+        routes      (:routes (route/expand-routes
+                               #{["/users" :get identity :route-name :get-users]
+                                 ["/users/:id" :get identity :route-name :get-user :constraints {:id #"[0-9]+"}]}))
+        router-1    (router-ctor routes)
+        router-2    (router-ctor (conj (vec routes)
+                                       (first (:routes (route/expand-routes
+                                                         #{["/stats" :get identity :route-name :stats]})))))]
+    (is (match? [{:route-name :get-user} {:id "12"}]
+                (router-1 (request :get "/users/12"))))
+    (is (nil? (router-1 (request :get "/stats"))))
+    (is (nil? (router-2 (request :get "/users/fred"))))
+    (is (match? [{:route-name :stats} {}]
+                (router-2 (request :get "/stats"))))))
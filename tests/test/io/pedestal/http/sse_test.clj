@@ -21,7 +21,8 @@
             [io.pedestal.http.sse :as sse :refer [start-event-stream]]
             [io.pedestal.test-common :refer [<!!?]]
             [clojure.test :refer [deftest is]]
-            [io.pedestal.http.cors :as cors])
+            [io.pedestal.http.cors :as cors]
+            [io.pedestal.service.virtual-threads :as virtual-threads])
   (:import (clojure.core.async.impl.protocols Channel)
            (cloud.prefab.sse SSEHandler)
            (cloud.prefab.sse.events DataEvent)
@@ -161,9 +162,9 @@
     ;; And the channel closes
     (is (= nil (<!!? ch)))))
 
-(defn- end-to-end
-  [id connector-fn]
-  (let [conn (-> (new-connector)
+(defn- end-to-end*
+  [id connector-map connector-fn]
+  (let [conn (-> connector-map
                  (connector-fn nil)
                  (conn/start!))]
     (try
@@ -206,12 +207,172 @@
       (finally
         (conn/stop! conn)))))
 
+(defn- end-to-end
+  [id connector-fn]
+  (end-to-end* id (new-connector) connector-fn))
+
 (deftest jetty-end-to-end
   (end-to-end "jetty12" jetty/create-connector))
 
+(deftest jetty-virtual-threads-end-to-end
+  (if-not (virtual-threads/supported?)
+    (println "Skipping virtual threads SSE test; requires Java 21")
+    (end-to-end* "jetty12vt"
+                 (assoc (new-connector) :virtual-threads? true)
+                 jetty/create-connector)))
+
 (deftest hk-end-to-end
   (end-to-end "hk2.9.0" hk/create-connector))
 
+;; Hubs
+
+(defn- payload->string
+  [^bytes payload]
+  (String. payload "UTF-8"))
+
+(defn- await-value
+  [f expected]
+  (loop [tries 100]
+    (when (and (pos? tries)
+               (not= expected (f)))
+      (Thread/sleep 10)
+      (recur (dec tries))))
+  (is (= expected (f))))
+
+(defn- await-subscribers
+  [hub topic n]
+  (await-value #(sse/subscriber-count hub topic) n))
+
+(defn- read-events
+  [context]
+  (let [ch (get-in context [:response :body])]
+    (loop [events []]
+      (let [payload (<!!? ch)]
+        (if (bytes? payload)
+          (recur (conj events (payload->string payload)))
+          events)))))
+
+(deftest encode-event
+  (is (= "event: tick\ndata: NU 10\nid: 1\n\n"
+         (payload->string (:payload (sse/encode-event {:name "tick" :data "NU 10" :id 1})))))
+  (is (= "data: first\ndata: second\n\n"
+         (payload->string (:payload (sse/encode-event "first\nsecond"))))))
+
+(deftest hub-broadcasts-to-subscribers
+  (let [hub      (sse/create-hub {:heartbeat-delay 60})
+        contexts (doall (repeatedly 3 #(sse/subscribe hub :prices {:request {}})))]
+    (try
+      (await-subscribers hub :prices 3)
+      (is (= 3 (sse/publish hub :prices {:name "tick" :data "NU 10"})))
+      (is (= 0 (sse/publish hub :other "ignored")))
+      (sse/close-hub hub)
+      (doseq [context contexts]
+        (is (= ["event: tick\ndata: NU 10\n\n"] (read-events context))))
+      (await-subscribers hub :prices 0)
+      (finally
+        (sse/close-hub hub)))))
+
+(deftest hub-discards-unsubscribed-topics
+  (let [hub            (sse/create-hub {:heartbeat-delay 60})
+        *event-channel (promise)]
+    (sse/subscribe hub :news {:request {}} {:stream-ready-fn (fn [ch _] (deliver *event-channel ch))})
+    (try
+      (is (= 0 (sse/publish hub :weather "sunny")))
+      (is (= 0 (sse/subscriber-count hub :weather)))
+      (await-subscribers hub :news 1)
+      (is (= #{:news} (set (keys (:topics hub)))))
+      ;; Closing the event channel unsubscribes the stream
+      (close! (deref *event-channel 1000 nil))
+      (await-subscribers hub :news 0)
+      (is (empty? (:topics hub)))
+      (finally
+        (sse/close-hub hub)))))
+
+(deftest failed-subscription-is-removed
+  (let [hub     (sse/create-hub {:heartbeat-delay 60})
+        context (sse/subscribe hub :failing {:request {}}
+                               {:stream-ready-fn (fn [_ _]
+                                                   (throw (IllegalStateException. "ready failed")))})]
+    (try
+      (is (nil? (<!!? (get-in context [:response :body]))))
+      (await-subscribers hub :failing 0)
+      (is (empty? (:topics hub)))
+      (finally
+        (sse/close-hub hub)))))
+
+(deftest hub-sends-heartbeats
+  (let [hub     (sse/create-hub {:heartbeat-delay 1})
+        context (sse/subscribe hub :heartbeat {:request {}})]
+    (try
+      (is (= "\n" (payload->string (<!!? (get-in context [:response :body]) 2000))))
+      (finally
+        (sse/close-hub hub)))))
+
+(defn- slow-consumer
+  "Publishes events 1 through 5 to a single subscriber that is blocked, with a queue size of 2,
+  returns the results of each publish, and the events eventually received."
+  [policy]
+  (let [hub      (sse/create-hub {:queue-size 2 :slow-consumer-policy policy :heartbeat-delay 60})
+        *blocked (promise)
+        context  (sse/subscribe hub :slow {:request {}}
+                                {:stream-ready-fn (fn [_ _] @*blocked)})]
+    (try
+      (await-subscribers hub :slow 1)
+      (let [results (mapv #(sse/publish hub :slow %) (range 1 6))]
+        (deliver *blocked true)
+        (sse/close-hub hub)
+        [results (read-events context)])
+      (finally
+        (deliver *blocked true)
+        (sse/close-hub hub)))))
+
+(deftest slow-consumer-policies
+  (is (= [[1 1 0 0 0] ["data: 1\n\n" "data: 2\n\n"]]
+         (slow-consumer :drop)))
+  (is (= [[1 1 1 1 1] ["data: 4\n\n" "data: 5\n\n"]]
+         (slow-consumer :coalesce)))
+  (is (= [[1 1 0 0 0] ["data: 1\n\n" "data: 2\n\n"]]
+         (slow-consumer :disconnect))))
+
+(deftest replay-from-last-event-id
+  (let [hub       (sse/create-hub {:replay-size 3 :heartbeat-delay 60})
+        *ready    (atom 0)
+        ready-fn  (fn [value]
+                    (fn [ch _]
+                      (put! ch value)
+                      (swap! *ready inc)))
+        subscribe (fn [last-event-id]
+                    (sse/subscribe hub :replay {:request {:headers (when last-event-id
+                                                                     {"last-event-id" last-event-id})}}
+                                   {:stream-ready-fn (ready-fn "initial")
+                                    :resync-fn       (ready-fn "resync")}))]
+    (try
+      (doseq [i (range 1 6)]
+        (sse/publish hub :replay {:data (str "event " i) :id i}))
+      (let [resumed (subscribe "3")
+            expired (subscribe "1")
+            fresh   (subscribe nil)]
+        (await-subscribers hub :replay 3)
+        (await-value #(deref *ready) 2)
+        (sse/publish hub :replay {:data "event 6" :id 6})
+        (sse/close-hub hub)
+        (is (= ["data: event 4\nid: 4\n\n"
+                "data: event 5\nid: 5\n\n"
+                "data: event 6\nid: 6\n\n"]
+               (read-events resumed)))
+        (is (= ["data: resync\n\n"
+                "data: event 6\nid: 6\n\n"]
+               (read-events expired)))
+        (is (= ["data: initial\n\n"
+                "data: event 6\nid: 6\n\n"]
+               (read-events fresh))))
+      (finally
+        (sse/close-hub hub)))))
+
+(deftest unknown-slow-consumer-policy
+  (is (thrown-with-msg? Exception #"Unknown slow consumer policy: :ignore"
+                        (sse/create-hub {:slow-consumer-policy :ignore}))))
+
 (defonce *conn (atom nil))
 
 (defn start []
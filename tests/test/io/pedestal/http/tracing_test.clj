@@ -15,7 +15,8 @@
             [mockfn.matchers :refer [exactly any]]
             [io.pedestal.tracing :as t]
             [io.pedestal.tracing.spi :as spi]
-            [io.pedestal.http.tracing :refer [request-tracing-interceptor]]
+            [io.pedestal.http.tracing :as tracing :refer [request-tracing-interceptor]]
+            [io.pedestal.http.route :as route]
             [io.pedestal.interceptor :as i]
             [io.pedestal.interceptor.chain :as chain])
   (:import (io.opentelemetry.api.trace SpanBuilder)))
@@ -219,3 +220,73 @@
 (deftest span-with-nil-tracing-source
   (is (instance? SpanBuilder
                  (spi/create-span nil nil nil))))
+
+(def ^:private sampled-traceparent "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01")
+(def ^:private unsampled-traceparent "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-00")
+
+(defn- capture
+  "An interceptor that stores the context, as seen by later interceptors, in the atom."
+  [*context]
+  {:name  ::capture
+   :enter (fn [context]
+            (reset! *context context)
+            (assoc context :response {:status 200}))})
+
+(deftest unsampled-request-creates-no-span
+  (let [*context (atom nil)]
+    (execute base-context
+             (request-tracing-interceptor {:sample-rate 0.0})
+             (capture *context))
+    (is (not (contains? @*context ::tracing/span)))
+    (is (not (contains? @*context ::tracing/otel-context)))
+    (is (nil? (:bindings @*context)))))
+
+(deftest unsampled-traceparent-is-propagated
+  (let [*context (atom nil)]
+    (execute (assoc-in base-context [:request :headers] {"traceparent" unsampled-traceparent})
+             ;; The traceparent takes precedence over the sampler
+             (request-tracing-interceptor {:sample-rate 1.0})
+             (capture *context))
+    (let [otel-context (::tracing/otel-context @*context)]
+      (is (some? otel-context))
+      (is (false? (t/sampled? otel-context))))
+    (is (not (contains? @*context ::tracing/span)))
+    (is (nil? (:bindings @*context)))))
+
+(deftest sampled-traceparent-is-parent
+  (verifying [(t/create-span "unrouted" {:http.request.method "GET"
+                                         :scheme              "unknown"
+                                         :server.port         9999}) span-builder once
+              (t/with-parent span-builder (any)) span-builder once
+              (t/with-kind span-builder :server) span-builder once
+              (t/start span-builder) span once
+              (t/make-span-context span) ::context once
+              (t/make-context-current ::context) context-cleanup once
+              (t/add-attribute span :http.response.status_code 404) span once
+              (t/set-status-code span :unset) span once
+              (t/end-span span) nil once]
+    (execute (assoc-in base-context [:request :headers] {"traceparent" sampled-traceparent})
+             (request-tracing-interceptor {:sample-rate 0.0})
+             not-found)
+
+    (is (= 1 @*cleanup-invoked))))
+
+(deftest routed-request-uses-precomputed-span-data
+  (let [routes (route/expand-routes #{["/status" :get (fn [_] {:status 200}) :route-name ::status]})]
+    (verifying [(t/create-span "unrouted" {:http.request.method "GET"
+                                           :scheme              "unknown"
+                                           :server.port         9999}) span-builder once
+                (t/with-kind span-builder :server) span-builder once
+                (t/start span-builder) span once
+                (t/make-span-context span) ::context once
+                (t/make-context-current ::context) context-cleanup once
+                (t/rename-span span "GET /status") span once
+                (t/add-attributes span (any)) span once
+                (t/add-attribute span :http.response.status_code 200) span once
+                (t/set-status-code span :unset) span once
+                (t/end-span span) nil once]
+      (execute (update base-context :request assoc :path-info "/status" :uri "/status")
+               request-tracing
+               (route/router routes))
+
+      (is (= 1 @*cleanup-invoked)))))
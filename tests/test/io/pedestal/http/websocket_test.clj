@@ -188,6 +188,47 @@
                  (when-let [[buffer'] (expect-event :binary)]
                    (is (= buffer buffer'))))))
 
+(defn- buffer->string
+  [^ByteBuffer buffer]
+  (let [bytes (byte-array (.remaining buffer))]
+    (.get buffer bytes)
+    (String. bytes "utf-8")))
+
+(defn- send-parts!
+  [session & parts]
+  (loop [[part & more] parts]
+    (when part
+      @(ws/send! session (ByteBuffer/wrap (.getBytes ^String part "utf-8")) {:last? (empty? more)})
+      (recur more))))
+
+(deftest client-sends-partial-binary
+  (with-server {"/ws" (-> default-endpoint-map
+                          (dissoc :on-binary)
+                          (assoc :on-binary-partial (fn [_ buffer last?]
+                                                      (write-event :binary-part (buffer->string buffer) last?))))}
+               (let [session @(ws/websocket ws-uri {})]
+                 (expect-event :open)
+                 (send-parts! session "A mind " "forever " "voyaging")
+                 (is (= ["A mind " false] (expect-event :binary-part)))
+                 (is (= ["forever " false] (expect-event :binary-part)))
+                 (is (= ["voyaging" true] (expect-event :binary-part))))))
+
+(deftest client-sends-binary-into-pooled-buffers
+  (with-server {"/ws" (assoc default-endpoint-map
+                             :binary-buffer-size 8
+                             ;; The buffer is released after the callback, so the content must be extracted
+                             :on-binary (fn [_ ^ByteBuffer buffer]
+                                          (write-event :binary (.isDirect buffer) (buffer->string buffer))))}
+               (let [session @(ws/websocket ws-uri {})]
+                 (expect-event :open)
+
+                 (send-parts! session "A mind " "forever " "voyaging")
+                 (is (= [true "A mind forever voyaging"] (expect-event :binary)))
+
+                 (send-parts! session "Small")
+                 (when-let [[_ content] (expect-event :binary)]
+                   (is (= "Small" content))))))
+
 (defn- conversation-actions
   [action-map]
   (assoc action-map :on-open (websocket/on-open-start-ws-connection nil)))
@@ -206,6 +247,17 @@
                    (is (= "Hello, Bob" (str data)))
                    (is (true? last))))))
 
+(deftest batched-text-conversation
+  (with-server {"/ws" {:on-open (websocket/on-open-start-ws-connection {:batching? true})
+                       :on-text (fn [send-ch text]
+                                  (put! send-ch (str "Hello, " text))
+                                  (put! send-ch (str "Goodbye, " text)))}}
+               (let [session @(ws/websocket ws-uri {:on-message (fn [_ws data _last?]
+                                                                  (write-event :client-message (str data)))})]
+                 (ws/send! session "Bob")
+                 (is (= ["Hello, Bob"] (expect-event :client-message)))
+                 (is (= ["Goodbye, Bob"] (expect-event :client-message))))))
+
 (deftest binary-conversation
   (let [response-buffer (ByteBuffer/wrap (.getBytes "We Agree" "utf-8"))]
     (with-server {"/ws" (conversation-actions {:on-binary (fn [send-ch data]
@@ -0,0 +1,136 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.interceptor.async-result-test
+  "Tests for interceptors that return a CompletionStage or Future, and for resuming
+  execution on an Executor (including virtual threads)."
+  (:require [clojure.test :refer [deftest is testing]]
+            [clojure.core.async :refer [chan put!]]
+            [io.pedestal.internal :as i]
+            [io.pedestal.test-common :refer [<!!?]]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.service.virtual-threads :as virtual-threads])
+  (:import (java.util.concurrent CompletableFuture Executors FutureTask)))
+
+(defn- trace
+  [context direction name]
+  (update context ::trace i/vec-conj [direction name]))
+
+(defn- tracer [name]
+  (interceptor {:name  name
+                :enter #(trace % :enter name)
+                :leave #(trace % :leave name)}))
+
+(defn- capture-thread [name]
+  (interceptor {:name  name
+                :enter #(assoc % ::thread (Thread/currentThread))}))
+
+(defn- future-supplier [name]
+  (interceptor {:name  name
+                :enter (fn [context]
+                         (CompletableFuture/supplyAsync
+                           #(trace context :enter name)))}))
+
+(defn- deliverer [ch]
+  (interceptor {:name  ::deliverer
+                :leave #(do (put! ch %) %)}))
+
+(deftest completion-stage-result
+  (let [ch (chan 1)]
+    (is (nil? (chain/execute {} [(deliverer ch)
+                                 (tracer :a)
+                                 (future-supplier :b)
+                                 (tracer :c)])))
+    (is (= [[:enter :a] [:enter :b] [:enter :c]
+            [:leave :c] [:leave :a]]
+           (::trace (<!!? ch))))))
+
+(deftest completion-stage-result-compiled
+  (let [ch (chan 1)]
+    (chain/execute {} (chain/compile-chain [(deliverer ch)
+                                            (tracer :a)
+                                            (future-supplier :b)
+                                            (tracer :c)]))
+    (is (= [[:enter :a] [:enter :b] [:enter :c]
+            [:leave :c] [:leave :a]]
+           (::trace (<!!? ch))))))
+
+(deftest exceptional-completion
+  (let [ch      (chan 1)
+        catcher (interceptor {:name  :catcher
+                              :error (fn [context error]
+                                       (assoc context ::caught (ex-message error)))})
+        failer  (interceptor {:name  :failer
+                              :enter (fn [_context]
+                                       (CompletableFuture/failedFuture (ex-info "Failed!" {})))})]
+    (chain/execute {} [(deliverer ch) catcher failer (tracer :c)])
+    (let [context (<!!? ch)]
+      (is (= "Failed!" (::caught context)))
+      (is (nil? (::trace context))))))
+
+(defn- future-task-interceptor
+  [task]
+  (interceptor {:name  :future
+                :enter (fn [_context]
+                         (.start (Thread. ^Runnable task))
+                         task)}))
+
+(deftest future-result-is-awaited-asynchronously
+  (let [ch   (chan 1)
+        task (FutureTask. ^Callable #(hash-map ::from-future true))]
+    (testing "execution goes async rather than blocking the calling thread"
+      (is (nil? (chain/execute {} [(deliverer ch)
+                                   (tracer :a)
+                                   (future-task-interceptor task)])))
+      (is (= true (::from-future (<!!? ch)))))))
+
+(deftest future-result-blocks-with-executor
+  (let [executor (Executors/newSingleThreadExecutor)
+        task     (FutureTask. ^Callable #(hash-map ::from-future true))]
+    (try
+      (let [context (-> {}
+                        (chain/with-executor executor)
+                        (chain/execute [(tracer :a)
+                                        (future-task-interceptor task)]))]
+        (testing "execution is synchronous"
+          (is (= true (::from-future context)))))
+      (finally
+        (.shutdown executor)))))
+
+(deftest resumes-on-executor
+  (let [ch       (chan 1)
+        executor (Executors/newSingleThreadExecutor)]
+    (try
+      (let [executor-thread @(.submit executor ^Callable #(Thread/currentThread))]
+        (-> {}
+            (chain/with-executor executor)
+            (chain/execute [(deliverer ch)
+                            (future-supplier :a)
+                            (capture-thread :b)]))
+        (is (identical? executor-thread (::thread (<!!? ch)))))
+      (finally
+        (.shutdown executor)))))
+
+(deftest resumes-on-virtual-thread
+  (if-not (virtual-threads/supported?)
+    (println "Skipping virtual thread test; requires Java 21")
+    (let [ch       (chan 1)
+          executor (virtual-threads/executor)]
+      (try
+        (-> {}
+            (chain/with-executor executor)
+            (chain/execute [(deliverer ch)
+                            (future-supplier :a)
+                            (capture-thread :b)]))
+        (is (-> ch <!!? ::thread .isVirtual))
+        (finally
+          (.shutdown executor))))))
@@ -0,0 +1,163 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.interceptor.compiled-chain-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [clojure.core.async :refer [go chan put! <! timeout]]
+            [io.pedestal.internal :as i]
+            [io.pedestal.test-common :refer [<!!?]]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]))
+
+(defn- trace
+  [context direction name]
+  (update context ::trace i/vec-conj [direction name]))
+
+(defn- tracer [name]
+  (interceptor {:name  name
+                :enter #(trace % :enter name)
+                :leave #(trace % :leave name)}))
+
+(defn- thrower [name]
+  (assoc (tracer name)
+         :enter (fn [_context] (throw (ex-info "Boom!" {:from name})))))
+
+(defn- catcher [name]
+  (assoc (tracer name)
+         :error (fn [context error]
+                  (update context ::trace i/vec-conj
+                          [:error name :from (:from (ex-data error))]))))
+
+(defn- channeler [name]
+  (assoc (tracer name)
+         :enter (fn [context]
+                  (go
+                    (<! (timeout 10))
+                    (trace context :enter name)))))
+
+(defn- enqueuer [name interceptors]
+  (assoc (tracer name)
+         :enter (fn [context]
+                  (-> context
+                      (trace :enter name)
+                      (chain/enqueue interceptors)))))
+
+(defn- deliverer [ch]
+  (interceptor {:name  ::deliverer
+                :leave #(do (put! ch %) %)}))
+
+(defn- execute-both
+  "Executes the interceptors normally and as a compiled chain, returning both traces."
+  [context interceptors]
+  [(::trace (chain/execute context interceptors))
+   (::trace (chain/execute context (chain/compile-chain interceptors)))])
+
+(deftest simple-execution
+  (let [[expected actual] (execute-both {} [(tracer :a) (tracer :b) (tracer :c)])]
+    (is (= [[:enter :a] [:enter :b] [:enter :c]
+            [:leave :c] [:leave :b] [:leave :a]]
+           actual))
+    (is (= expected actual))))
+
+(deftest compiled-chain-is-reusable
+  (let [compiled (chain/compile-chain [(tracer :a) (tracer :b)])]
+    (is (chain/compiled-chain? compiled))
+    (is (= (::trace (chain/execute {} compiled))
+           (::trace (chain/execute {} compiled))))))
+
+(deftest error-handling
+  (let [[expected actual] (execute-both {} [(tracer :a)
+                                            (catcher :b)
+                                            (tracer :c)
+                                            (thrower :d)
+                                            (tracer :e)])]
+    (is (= [[:enter :a] [:enter :b] [:enter :c]
+            [:error :b :from :d]
+            [:leave :a]]
+           actual))
+    (is (= expected actual)))
+
+  (is (thrown-with-msg? Exception #"Boom!"
+                        (chain/execute {} (chain/compile-chain [(tracer :a) (thrower :b)])))))
+
+(deftest termination
+  (let [context (chain/terminate-when {} (fn [ctx]
+                                           (some #{[:enter :b]} (::trace ctx))))
+        [expected actual] (execute-both context [(tracer :a) (tracer :b) (tracer :c)])]
+    (is (= [[:enter :a] [:enter :b] [:leave :b] [:leave :a]]
+           actual))
+    (is (= expected actual))))
+
+(deftest enqueue-during-execution
+  (let [[expected actual] (execute-both {} [(tracer :a)
+                                            (enqueuer :b [(tracer :x) (tracer :y)])
+                                            (tracer :c)])]
+    (is (= [[:enter :a] [:enter :b] [:enter :c] [:enter :x] [:enter :y]
+            [:leave :y] [:leave :x] [:leave :c] [:leave :b] [:leave :a]]
+           actual))
+    (is (= expected actual))))
+
+(deftest queue-reflects-remaining-interceptors
+  (let [*names (atom nil)
+        peeker (interceptor {:name  :peeker
+                             :enter (fn [context]
+                                      (reset! *names (->> context chain/queue (map :name)))
+                                      context)})]
+    (chain/execute {} (chain/compile-chain [(tracer :a) peeker (tracer :b) (tracer :c)]))
+    (is (= [:b :c] @*names))))
+
+(def ^:dynamic *bindable* :default)
+
+(deftest change-of-bindings
+  (let [*values (atom [])
+        capture (fn [name]
+                  (interceptor {:name  name
+                                :enter (fn [context]
+                                         (swap! *values conj [name *bindable*])
+                                         context)}))]
+    (chain/execute {} (chain/compile-chain [(capture :a)
+                                            (interceptor {:name  :binder
+                                                          :enter #(chain/bind % *bindable* :bound)})
+                                            (capture :b)]))
+    (is (= [[:a :default] [:b :bound]] @*values))))
+
+(deftest async-execution
+  (testing "async in :enter"
+    (let [ch (chan 1)]
+      (is (nil? (chain/execute {} (chain/compile-chain [(deliverer ch)
+                                                        (tracer :a)
+                                                        (channeler :b)
+                                                        (tracer :c)]))))
+      (is (= [[:enter :a] [:enter :b] [:enter :c]
+              [:leave :c] [:leave :b] [:leave :a]]
+             (::trace (<!!? ch))))))
+
+  (testing "async in :leave"
+    (let [ch (chan 1)
+          async-leave (interceptor {:name  :async-leave
+                                    :leave (fn [context]
+                                             (go (trace context :leave :async-leave)))})]
+      (chain/execute {} (chain/compile-chain [(deliverer ch)
+                                              (tracer :a)
+                                              async-leave
+                                              (tracer :b)]))
+      (is (= [[:enter :a] [:enter :b]
+              [:leave :b] [:leave :async-leave] [:leave :a]]
+             (::trace (<!!? ch))))))
+
+  (testing "error after going async"
+    (let [ch (chan 1)]
+      (chain/execute {} (chain/compile-chain [(deliverer ch)
+                                              (catcher :a)
+                                              (channeler :b)
+                                              (thrower :c)]))
+      (is (= [[:enter :a] [:enter :b] [:error :a :from :c]]
+             (::trace (<!!? ch)))))))
@@ -0,0 +1,101 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.interceptor.timing-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [clojure.core.async :refer [go]]
+            [io.pedestal.interceptor :refer [interceptor]]
+            [io.pedestal.interceptor.chain :as chain]
+            [io.pedestal.metrics :as metrics]
+            [io.pedestal.metrics.spi :as spi]
+            [io.pedestal.service.timing :as timing]))
+
+(defn- collector
+  "Returns an atom of timing events, a timing function that adds to it, and a promise
+  delivered once the :execution stage is recorded."
+  []
+  (let [*timings  (atom [])
+        *executed (promise)]
+    [*timings
+     (fn [context interceptor-name stage elapsed-nanos]
+       (is (map? context))
+       (is (nat-int? elapsed-nanos))
+       (swap! *timings conj [interceptor-name stage])
+       (when (= :execution stage)
+         (deliver *executed true)))
+     *executed]))
+
+(def ^:private interceptors
+  (mapv interceptor
+        [{:name  ::outer
+          :enter identity
+          :leave identity}
+         {:name  ::failing
+          :error (fn [context _] context)}
+         {:name  ::inner
+          :enter (fn [_] (throw (IllegalStateException. "inner")))}]))
+
+(def ^:private expected-timings
+  [[::outer :enter]
+   [::inner :enter]
+   [::failing :error]
+   [::outer :leave]
+   [nil :execution]])
+
+(deftest times-each-stage
+  (let [[*timings timing-fn] (collector)]
+    (chain/execute (chain/with-timing nil timing-fn) interceptors)
+    (is (= expected-timings @*timings))))
+
+(deftest times-compiled-chain
+  (let [[*timings timing-fn] (collector)]
+    (chain/execute (chain/with-timing nil timing-fn) (chain/compile-chain interceptors))
+    (is (= expected-timings @*timings))))
+
+(deftest times-async-execution
+  (let [[*timings timing-fn *executed] (collector)]
+    (is (nil? (chain/execute (chain/with-timing nil timing-fn)
+                             (mapv interceptor
+                                   [{:name  ::done
+                                     :leave identity}
+                                    {:name  ::async
+                                     :enter (fn [context]
+                                              (go context))}]))))
+    ;; :execution is recorded, on another thread, just after ::done's :leave
+    (is (true? (deref *executed 1000 ::timeout)))
+    (is (= [[::async :enter]
+            [::done :leave]
+            [nil :execution]]
+           @*timings))))
+
+(deftest unsampled-executions-are-not-timed
+  (let [[*timings timing-fn] (collector)
+        context (chain/execute (chain/with-timing nil timing-fn 0.0) interceptors)]
+    (is (= [] @*timings))
+    (is (not (contains? context ::chain/timing-fn)))))
+
+(deftest records-histograms
+  (let [*recorded (atom [])
+        source    (reify spi/MetricSource
+                    (histogram [_ metric-name attributes]
+                      (fn [value]
+                        (swap! *recorded conj [metric-name (dissoc attributes ::metrics/unit) value]))))
+        timing-fn (binding [metrics/*default-metric-source* source]
+                    (timing/timing-fn {:metric-name :api}))]
+    (timing-fn nil ::outer :enter 100)
+    (timing-fn nil ::outer :leave 200)
+    (timing-fn {:route {:route-name ::get-widget}} nil :execution 300)
+
+    (testing "metric names, attributes, and values"
+      (is (= [[::timing/interceptor {:service :api :stage "enter" :interceptor ::outer} 100]
+              [::timing/interceptor {:service :api :stage "leave" :interceptor ::outer} 200]
+              [::timing/route {:service :api :route ::get-widget} 300]]
+             @*recorded)))))
@@ -575,3 +575,48 @@
   (let [start-fn (spi/timer nil nil nil)
         stop-fn  (start-fn)]
     (is (nil? (stop-fn)))))
+
+(deftest bound-counter
+  (let [bound (metrics/bind-counter :bound.counter {:domain "clojure"} :route)
+        f     (bound :get-widget)]
+    (is (match? [[:build-long-counter "bound.counter"]]
+                (events)))
+
+    (is (identical? f (bound :get-widget)))
+    (is (identical? f (metrics/counter :bound.counter {:domain "clojure" :route :get-widget})))
+    ;; Already cached, not rebuilt
+    (is (= [] (events)))
+
+    (f)
+
+    (is (match? [[:add-long "bound.counter" 1 (m/via str "{domain=\"clojure\", route=\"get-widget\"}")]]
+                (events)))
+
+    ((bound nil) 2)
+
+    (is (match? [[:build-long-counter "bound.counter"]
+                 [:add-long "bound.counter" 2 clojure-domain-attributes]]
+                (events)))))
+
+(deftest bound-histogram-and-timer
+  (let [histogram ((metrics/bind-histogram :bound.histogram nil :status) 200)
+        timer     ((metrics/bind-timer :bound.timer nil :status) 404)]
+    (histogram 37)
+    (reset! *now 3000000)
+    (let [stop-fn (timer)]
+      (reset! *now 8000000)
+      (stop-fn))
+
+    (is (match? [[:ofLongs "bound.histogram"]
+                 [:build-long "bound.histogram"]
+                 [:build-long-counter "bound.timer"]
+                 [:record-long "bound.histogram" 37 (m/via str "{status=200}")]
+                 [:add-long "bound.timer" 5 (m/via str "{status=404}")]]
+                (events)))))
+
+(deftest bound-metrics-with-nil-source-are-noop
+  (let [counter-fn ((metrics/bind-counter nil :bound.counter nil :route) :any)]
+    (is (identical? counter-fn ((metrics/bind-counter nil :bound.counter nil :route) :other)))
+    (is (identical? counter-fn (spi/counter nil :other nil)))
+    (is (nil? (counter-fn 5)))
+    (is (nil? (((metrics/bind-timer nil :bound.timer nil :route) :any))))))
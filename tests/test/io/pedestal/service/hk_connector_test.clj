@@ -127,6 +127,12 @@
                                {"My-Key" "My-Value"})}
               (response-for :get "/echo/headers" :headers {:My-Key 'My-Value}))))
 
+(deftest multi-valued-headers-are-joined
+  (is (match? {:status 200
+               :body   (m/via edn/read-string
+                              {"My-Key" "a,b"})}
+              (response-for :get "/echo/headers" :headers {:My-Key "a\nb"}))))
+
 (deftest async-bytes-response
   (is (match? {:status  200
                :headers {"Content-Type" "application/octet-stream"}
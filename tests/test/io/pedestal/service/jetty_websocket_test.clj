@@ -22,6 +22,7 @@
             [io.pedestal.test-common :as tc]
             [hato.websocket :as ws]
             [io.pedestal.service.websocket :as websocket]
+            [io.pedestal.service.virtual-threads :as virtual-threads]
             [io.pedestal.connector :as connector])
   (:import (java.nio ByteBuffer)))
 
@@ -110,7 +111,11 @@
 
 (defmacro with-connector
   [routes & body]
-  `(let [conn# (-> (connector/default-connector-map 8080)
+  `(with-connector-map (connector/default-connector-map 8080) ~routes ~@body))
+
+(defmacro with-connector-map
+  [connector-map routes & body]
+  `(let [conn# (-> ~connector-map
                    (connector/with-default-interceptors)
                    (connector/with-routes ~routes)
                    (io.pedestal.http.jetty/create-connector nil))]
@@ -142,6 +147,25 @@
       (is (match? [(m/via str "back rub")]
                   (expect-event :client-text))))))
 
+(deftest send-and-receive-text-with-virtual-threads
+  (if-not (virtual-threads/supported?)
+    (println "Skipping virtual threads WebSocket test; requires Java 21")
+    (with-connector-map (-> (connector/default-connector-map 8080)
+                            (assoc :virtual-threads? true))
+      routes
+      (let [session @(ws/websocket (str ws-uri "/ws/echo/virtual") {:on-message (fn [_ text _]
+                                                                                (write-event :client-text text))})]
+
+        (expect-event :open)
+
+        (ws/send! session "thread")
+
+        (is (= [:server-text "thread"]
+               (<event!!)))
+
+        (is (match? [(m/via str "virtual thread")]
+                    (expect-event :client-text)))))))
+
 (defn- as-buffer
   ^ByteBuffer [^String s]
   (ByteBuffer/wrap (.getBytes s "UTF-8")))
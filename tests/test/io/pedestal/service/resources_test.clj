@@ -15,6 +15,7 @@
             [io.pedestal.http :as http]
             [io.pedestal.test :as test]
             [io.pedestal.service.resources :as resources]
+            [io.pedestal.service.resources.impl :as impl]
             [io.pedestal.http.route :as route]))
 
 (defn service-map
@@ -271,3 +272,82 @@
     (is (match? {:status 200
                  :body   content}
                 (responder :get "/file/sub/image.jpg")))))
+
+(deftest small-file-from-memory-cache
+  (let [responder         (create-responder #(assoc % :memory-cache-bytes 100000))
+        test-file-content (slurp "file-root/test.html")]
+    (dotimes [_ 2]
+      (is (match? {:status  200
+                   :headers {"Content-Type"   "text/html"
+                             "Content-Length" (count test-file-content)}
+                   :body    test-file-content}
+                  (responder :get "/file/test.html"))))))
+
+(deftest small-resource-from-memory-cache
+  (let [responder (create-responder #(assoc %
+                                            :resource-root "ring"
+                                            :memory-cache-bytes 100000))
+        content   (-> "ring/util/async.clj" io/resource slurp)]
+    (dotimes [_ 2]
+      (is (match? {:status 200
+                   :body   content}
+                  (responder :get "/res/util/async.clj"))))))
+
+(deftest memory-cache-is-bounded
+  ;; The cache is smaller than the resource; the resource is still served (but is not cached).
+  (let [responder (create-responder #(assoc %
+                                            :resource-root "com/cognitect"
+                                            :memory-cache-bytes 1000
+                                            :memory-cache-max-size 100000))
+        content   (-> "com/cognitect/transit/TransitFactory.class" io/resource slurp)]
+    (dotimes [_ 2]
+      (is (match? {:status 200
+                   :body   content}
+                  (responder :get "/res/transit/TransitFactory.class"))))))
+
+(deftest oversized-content-does-not-flush-memory-cache
+  (let [cache  (impl/memory-cache 100 {:prefix "/test"})
+        *reads (atom 0)
+        data   (fn [size]
+                 {:content-length size
+                  :last-modified  1000
+                  :read-bytes     (fn []
+                                    (swap! *reads inc)
+                                    (byte-array size))})
+        serve  #(impl/in-memory-resource-data cache %1 %2 1000 10000)]
+    (serve "small" (data 50))
+    (let [large (data 500)]
+      ;; Larger than the entire cache, so served normally.
+      (is (identical? large (serve "large" large))))
+    (serve "small" (data 50))
+    (is (= #{"small"} (set (keys (:map cache)))))
+    (is (= 50 (.get (:*bytes cache))))
+    (is (= 1 @*reads))))
+
+(deftest large-file-memory-mapped
+  (let [responder (create-responder #(assoc %
+                                            :memory-cache-bytes 100000
+                                            :memory-cache-max-size 100
+                                            :mmap-size 1000))
+        content   (slurp "file-root/sub/image.jpg")]
+    (dotimes [_ 2]
+      (is (match? {:status 200
+                   :body   content}
+                  (responder :get "/file/sub/image.jpg"))))))
+
+(deftest precompressed-sibling
+  (let [responder (create-responder #(assoc % :precompressed? true))
+        gz-length (.length (io/file "file-root/test.html.gz"))]
+    (testing "client accepts gzip"
+      (is (match? {:status  200
+                   :headers {"Content-Type"     "text/html"
+                             "Content-Encoding" "gzip"
+                             "Vary"             "Accept-Encoding"
+                             "Content-Length"   gz-length}}
+                  (responder :get "/file/test.html" :headers {"Accept-Encoding" "br, gzip"}))))
+
+    (testing "client does not accept gzip"
+      (let [response (responder :get "/file/test.html" :headers {"Accept-Encoding" "gzip;q=0"})]
+        (is (= (slurp "file-root/test.html") (:body response)))
+        (is (= "Accept-Encoding" (get-in response [:headers "Vary"])))
+        (is (nil? (get-in response [:headers "Content-Encoding"])))))))
@@ -0,0 +1,111 @@
+; Copyright 2026 Nubank NA
+
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0)
+; which can be found in the file epl-v10.html at the root of this distribution.
+;
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+;
+; You must not remove this notice, or any other, from this software.
+
+(ns io.pedestal.service.websocket-hub-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [clojure.core.async :refer [chan put!]]
+            [io.pedestal.service.websocket :as websocket :refer [WebSocketChannel]]
+            [io.pedestal.test-common :refer [<!!?]]))
+
+(defn- fake-channel
+  "A WebSocketChannel that writes each sent message to a core.async channel; sending blocks
+  until the *blocked promise is delivered."
+  ([channel-id]
+   (fake-channel channel-id (doto (promise) (deliver true))))
+  ([channel-id *blocked]
+   (let [sent     (chan 100)
+         *closed? (atom false)
+         send     (fn [message]
+                    @*blocked
+                    (if @*closed?
+                      false
+                      (do
+                        (put! sent message)
+                        true)))]
+     {:sent     sent
+      :*closed? *closed?
+      :channel  (reify WebSocketChannel
+                  (id [_] channel-id)
+                  (on-text [_ _])
+                  (on-binary [_ _ _])
+                  (send-text! [_ string] (send string))
+                  (send-binary! [_ data] (send data))
+                  (close! [_] (reset! *closed? true) nil))})))
+
+(deftest publishes-to-subscribers
+  (let [hub       (websocket/create-hub)
+        subscribe (fn [channel-id & topics]
+                    (let [fake (fake-channel channel-id)]
+                      (doseq [topic topics]
+                        (websocket/subscribe hub (:channel fake) topic))
+                      fake))
+        alpha     (subscribe "alpha" :prices :news)
+        beta      (subscribe "beta" :prices)]
+    (is (= 2 (websocket/publish hub :prices "NU 10")))
+    (is (= 1 (websocket/publish hub :news {:headline "Pedestal released"})))
+    (is (= 0 (websocket/publish hub :weather "sunny")))
+
+    (is (= "NU 10" (<!!? (:sent alpha))))
+    (is (= "{:headline \"Pedestal released\"}" (<!!? (:sent alpha))))
+    (is (= "NU 10" (<!!? (:sent beta))))
+
+    (testing "binary messages are shared"
+      (let [data (.getBytes "binary" "UTF-8")]
+        (websocket/publish hub :prices data)
+        (is (identical? data (<!!? (:sent alpha))))
+        (is (identical? data (<!!? (:sent beta))))))
+
+    (testing "unsubscribed channels do not receive messages"
+      (websocket/unsubscribe hub (:channel alpha) :prices)
+      (is (= 1 (websocket/publish hub :prices "NU 11")))
+      (is (= "NU 11" (<!!? (:sent beta))))
+
+      (websocket/remove-subscriber hub (:channel beta))
+      (is (= 0 (websocket/publish hub :prices "NU 12")))
+      (is (= 1 (websocket/publish hub :news "still subscribed"))))
+
+    (testing "topics without subscribers are removed"
+      (websocket/remove-subscriber hub (:channel alpha))
+      (is (empty? (:topics hub))))))
+
+(defn- slow-consumer
+  "Publishes messages 1 through 6 to a single subscriber whose sends are blocked, with a queue size of 2;
+  returns the results of each publish, the messages eventually sent, and whether the channel was closed."
+  [policy]
+  (let [hub      (websocket/create-hub {:queue-size 2 :slow-consumer-policy policy})
+        *blocked (promise)
+        fake     (fake-channel "slow" *blocked)]
+    (websocket/subscribe hub (:channel fake) :slow)
+    ;; The first message is taken from the queue, and its send blocks.
+    (websocket/publish hub :slow "1")
+    (Thread/sleep 50)
+    (let [results (mapv #(websocket/publish hub :slow (str %)) (range 2 7))]
+      (deliver *blocked true)
+      [results
+       (loop [sent []]
+         (let [message (<!!? (:sent fake) 100)]
+           (if (string? message)
+             (recur (conj sent message))
+             sent)))
+       @(:*closed? fake)])))
+
+(deftest slow-consumer-policies
+  (is (= [[1 1 0 0 0] ["1" "2" "3"] false]
+         (slow-consumer :drop)))
+  (is (= [[1 1 1 1 1] ["1" "5" "6"] false]
+         (slow-consumer :coalesce)))
+  ;; The blocked send fails, as the channel was closed, and queued messages are discarded.
+  (is (= [[1 1 0 0 0] [] true]
+         (slow-consumer :disconnect))))
+
+(deftest unknown-slow-consumer-policy
+  (is (thrown-with-msg? Exception #"Unknown slow consumer policy: :block"
+                        (websocket/create-hub {:slow-consumer-policy :block}))))